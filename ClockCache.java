@@ -0,0 +1,493 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A bounded cache from keys of type K to values of type V. Holds at most
+ * a fixed number of entries, and optionally at most a fixed total weight,
+ * and evicts with the CLOCK algorithm when it's full: every cell has a
+ * referenced bit that a hit sets, and a hand sweeps the cells, clearing
+ * referenced bits and evicting the first entry that hasn't been used
+ * since the hand last passed it.
+ *
+ * Uses the same open addressing, quadratic probing and lazy deletion as
+ * OpenHashMap. The table is sized once, at four times the maximum number
+ * of entries, and never grows, so memory use doesn't depend on how many
+ * keys pass through.
+ *
+ * A cache can be given a loader. get then calls it on a miss and caches
+ * what it returns. If many threads miss the same key at once, the loader
+ * only runs once and they all get its result. All methods are thread safe.
+ * Like ConcurrentHashTable, lookups never lock: cells hold immutable
+ * entries, and the cell array is published through a volatile field.
+ * A hit sets its referenced bit with a plain write, which at worst races
+ * with the hand and changes which entry is evicted next. Changes lock the
+ * cache.
+ * @param <K> The type of key in the cache
+ * @param <V> The type of value in the cache
+ */
+public class ClockCache<K, V> {
+
+    //a cached entry. Entries are immutable, so a reader that sees a
+    //reference to one always sees its key, value and weight together.
+    private static final class Entry {
+        final Object key;
+        final Object value;
+        final int weight;
+        Entry(Object key, Object value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    //lazy deletion -- a deleted cell holds this shared entry, so that
+    //probe chains passing through it stay intact
+    private static final Entry TOMBSTONE = new Entry(null, null, 0);
+
+    //the cells, and a referenced bit for each. Replaced as a whole by
+    //rehash and clear, so a lookup never pairs one array with the other's
+    //replacement.
+    private static final class Cells {
+        //null for an empty cell, TOMBSTONE for a deleted one, otherwise
+        //the entry cached there
+        final AtomicReferenceArray<Entry> entries;
+        //non zero once the cell's entry is used, cleared by the hand
+        final byte[] referenced;
+        Cells(int length) {
+            entries = new AtomicReferenceArray<Entry>(length);
+            referenced = new byte[length];
+        }
+        int length() {
+            return referenced.length;
+        }
+    }
+
+    //the cells of the cache. written while holding the cache's lock.
+    private volatile Cells cells;
+    //the number of occupied cells (active OR inactive). Evictions leave
+    //deleted cells behind, so once this reaches half the table it is
+    //compacted.
+    private int numOccupiedCells;
+    //the number of active cells, i.e. the number of cached entries
+    private int numActive;
+    //the total weight of the cached entries
+    private long totalWeight;
+    //the cell the CLOCK hand will look at next
+    private int hand;
+    //mixed into every hash code, see Hashing
+    private final int seed = Hashing.newSeed();
+
+    private final int maxEntries;
+    private final long maxWeight;
+    //weighs an entry, or null if entries aren't weighed
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    //fills misses in get, or null if there isn't one
+    private final Function<? super K, ? extends V> loader;
+    //the loads that are running right now, so a key is only loaded once
+    private final ConcurrentHashMap<K, FutureTask<V>> loading =
+     new ConcurrentHashMap<K, FutureTask<V>>();
+
+    //counted by lookups, which don't lock
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private long evictions;
+
+    /**
+     * Creates an empty cache that holds at most maxEntries entries.
+     * @param maxEntries The most entries to keep. Must be at least 1.
+     */
+    public ClockCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * Creates an empty cache that holds at most maxEntries entries, and
+     * fills misses with loader.
+     * @param maxEntries The most entries to keep. Must be at least 1.
+     * @param loader Returns the value for a key that isn't cached, or null
+     * if it has none. null to not load misses.
+     */
+    public ClockCache(int maxEntries, Function<? super K, ? extends V> loader) {
+        this(maxEntries, Long.MAX_VALUE, null, loader);
+    }
+
+    /**
+     * Creates an empty cache that holds at most maxEntries entries, whose
+     * weights add up to at most maxWeight, and fills misses with loader.
+     * An entry heavier than maxWeight is never cached.
+     * @param maxEntries The most entries to keep. Must be at least 1.
+     * @param maxWeight The most total weight to keep
+     * @param weigher Returns the weight of an entry, for example its size
+     * in bytes. Must not return a negative number. null to only limit the
+     * number of entries.
+     * @param loader Returns the value for a key that isn't cached, or null
+     * if it has none. null to not load misses.
+     */
+    public ClockCache(int maxEntries, long maxWeight,
+     ToIntBiFunction<? super K, ? super V> weigher,
+     Function<? super K, ? extends V> loader) {
+        if(maxEntries < 1) {
+            throw new IllegalArgumentException(
+             "A cache must hold at least one entry.");
+        }
+        if(maxWeight < 0) {
+            throw new IllegalArgumentException(
+             "Maximum weight must not be negative.");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.loader = loader;
+        allocate(Primes.nextPrime((long)maxEntries*4));
+    }
+
+    //creates fresh, empty cells of the given size
+    private void allocate(int size) {
+        cells = new Cells(size);
+        numOccupiedCells = 0;
+        numActive = 0;
+        totalWeight = 0;
+        hand = 0;
+    }
+
+    /**
+     * Returns the value cached for key. On a miss, if the cache has a
+     * loader, loads the value, caches it, and returns it. Threads that
+     * miss a key while it's being loaded wait for that load.
+     * @param key The key to look up
+     * @return key's value, or null if it isn't cached and can't be loaded
+     * @throws RuntimeException whatever the loader throws
+     */
+    public V get(K key) {
+        if(key == null) return null;
+        V value = getIfPresent(key);
+        if(value != null || loader == null) {
+            return value;
+        }
+        FutureTask<V> task = new FutureTask<V>(() -> loadIfMissing(key));
+        FutureTask<V> running = loading.putIfAbsent(key, task);
+        if(running == null) {
+            //we're the first to miss, so we do the loading
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+            running = task;
+        }
+        return await(running);
+    }
+
+    //another thread's load can cache key and leave loading between our
+    //miss and our putIfAbsent, which we'd then win. so look again before
+    //loading, or the key would be loaded twice. get already counted the
+    //miss, so this look isn't counted.
+    private V loadIfMissing(K key) {
+        Entry entry = lookup(key);
+        return entry != null ? valueOf(entry) : load(key);
+    }
+
+    //runs the loader and caches what it returns. The value is cached
+    //before the load is taken out of loading, so a thread that misses
+    //after that finds it in the table.
+    private V load(K key) {
+        V value = loader.apply(key);
+        if(value != null) {
+            put(key, value);
+        }
+        return value;
+    }
+
+    //waits for a load to finish, and passes on anything it threw
+    private static <V> V await(FutureTask<V> task) {
+        boolean interrupted = false;
+        try {
+            while(true) {
+                try {
+                    return task.get();
+                } catch(InterruptedException e) {
+                    //the load is running anyway, so keep waiting for it
+                    interrupted = true;
+                }
+            }
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if(cause instanceof Error) throw (Error)cause;
+            throw new IllegalStateException("Loading failed.", cause);
+        } finally {
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the value cached for key, without loading it on a miss.
+     * @param key The key to look up
+     * @return key's value, or null if it isn't cached
+     */
+    public V getIfPresent(Object key) {
+        if(key == null) return null;
+        Cells current = cells;
+        int index = indexOf(current, key);
+        Entry entry = index < 0 ? null : current.entries.get(index);
+        if(entry == null || entry == TOMBSTONE || !key.equals(entry.key)) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        //give it another trip around the clock
+        current.referenced[index] = 1;
+        return valueOf(entry);
+    }
+
+    //finds key without counting or referencing it
+    private Entry lookup(Object key) {
+        Cells current = cells;
+        int index = indexOf(current, key);
+        return index < 0 ? null : current.entries.get(index);
+    }
+
+    //the index of the cell holding key, or -1 if it isn't cached. Doesn't
+    //lock, so the cell may have changed by the time the caller reads it.
+    private int indexOf(Cells current, Object key) {
+        int length = current.length();
+        int originalHash = Hashing.index(Hashing.hashOf(key, seed),
+         length);
+        int hash = originalHash;
+        //at most half the cells are ever occupied, so an empty one turns
+        //up within the first half of any probe sequence
+        for(long quadraticCounter = 1; quadraticCounter <= length;
+         quadraticCounter++) {
+            Entry entry = current.entries.get(hash);
+            if(entry == null) return -1;
+            if(entry != TOMBSTONE && key.equals(entry.key)) return hash;
+            hash = (int)((originalHash + quadraticCounter * quadraticCounter) % length);
+        }
+        return -1;
+    }
+
+    /**
+     * Caches value for key, replacing any value key already had, and
+     * evicts other entries if the cache is then too full.
+     * @param key The key to cache. Must not be null.
+     * @param value The value to cache. Must not be null.
+     * @return true if value was cached, false if it's too heavy to cache
+     */
+    public synchronized boolean put(K key, V value) {
+        if(key == null || value == null) {
+            throw new NullPointerException("Keys and values must not be null.");
+        }
+        int weight = weigher == null ? 0 : weigher.applyAsInt(key, value);
+        if(weight < 0) {
+            throw new IllegalArgumentException("Weights must not be negative.");
+        }
+        Cells current = cells;
+        int index = getIndexForKey(current, key, true);
+        Entry old = current.entries.get(index);
+        boolean cached = old != null && old != TOMBSTONE;
+        if(weight > maxWeight) {
+            //too heavy to keep, and the old value is out of date now
+            if(cached) {
+                removeAt(current, index);
+            }
+            return false;
+        }
+        current.entries.set(index, new Entry(key, value, weight));
+        if(cached) {
+            //already cached, so this just swaps the value
+            totalWeight += weight - old.weight;
+            current.referenced[index] = 1;
+        } else {
+            //new entries start unreferenced, so one that's never used again
+            //is the first to go
+            current.referenced[index] = 0;
+            numActive++;
+            totalWeight += weight;
+            if(old == null) {
+                numOccupiedCells++;
+            }
+        }
+        evict(current, index);
+        //the table never grows, it only gets rid of its deleted cells
+        if(numOccupiedCells >= current.length()/2) {
+            rehash();
+        }
+        return true;
+    }
+
+    //runs the hand until the cache is within its limits again, never
+    //evicting the cell at keep, which was just put
+    private void evict(Cells current, int keep) {
+        while(numActive > maxEntries || totalWeight > maxWeight) {
+            Entry entry = current.entries.get(hand);
+            if(hand == keep || entry == null || entry == TOMBSTONE) {
+                //nothing to evict here
+            } else if(current.referenced[hand] != 0) {
+                //used since we last came by, so let it stay one more lap
+                current.referenced[hand] = 0;
+            } else {
+                evictions++;
+                removeAt(current, hand);
+            }
+            hand = (hand + 1) % current.length();
+        }
+    }
+
+    /**
+     * Removes key and its value from the cache.
+     * Does nothing if key is not in the cache.
+     * @param key The key to remove
+     * @return The value key had, or null if it wasn't cached
+     */
+    public synchronized V remove(Object key) {
+        if(key == null) return null;
+        Cells current = cells;
+        int index = getIndexForKey(current, key, false);
+        Entry entry = current.entries.get(index);
+        if(entry == null || entry == TOMBSTONE) return null;
+        removeAt(current, index);
+        return valueOf(entry);
+    }
+
+    //lazily deletes the active cell at index, dropping its entry so its
+    //key and value can be collected
+    private void removeAt(Cells current, int index) {
+        totalWeight -= current.entries.get(index).weight;
+        current.entries.set(index, TOMBSTONE);
+        current.referenced[index] = 0;
+        numActive--;
+    }
+
+    //values are only ever set through put, so this cast is safe
+    @SuppressWarnings("unchecked")
+    private V valueOf(Entry entry) {
+        return (V)entry.value;
+    }
+
+    //rehashes every active cell into new cells of the same size, keeping
+    //their referenced bits, to throw away the deleted cells. lookups keep
+    //using the old cells until the new ones are published.
+    private void rehash() {
+        Cells old = cells;
+        Cells fresh = new Cells(old.length());
+        for(int i = 0; i < old.length(); i++) {
+            Entry entry = old.entries.get(i);
+            if(entry != null && entry != TOMBSTONE) {
+                int index = getIndexForKey(fresh, entry.key, true);
+                fresh.entries.set(index, entry);
+                fresh.referenced[index] = old.referenced[i];
+            }
+        }
+        cells = fresh;
+        numOccupiedCells = numActive;
+        hand = 0;
+    }
+
+    //Does the hashing and quadratic probing, with the same rules as
+    //OpenHashMap.getIndexForKey. Returns an index whose state is one of:
+    //EMPTY: The key was not found, but this is where it could be inserted
+    //INACTIVE: (if reuseInactive is true) the key was not found, and this
+    //is the first deleted cell on its probe chain
+    //ACTIVE: The key was found here.
+    //in terms of cells, EMPTY is null, INACTIVE is TOMBSTONE and ACTIVE is
+    //any other entry. must hold the cache's lock.
+    private int getIndexForKey(Cells current, Object key,
+     boolean reuseInactive) {
+        int length = current.length();
+        int originalHash = Hashing.index(Hashing.hashOf(key, seed),
+         length);
+        int hash = originalHash;
+        int quadraticCounter = 1;
+        int firstInactive = -1;
+
+        //deleted cells don't keep their keys, so only active cells can match
+        Entry entry;
+        while(
+         (entry = current.entries.get(hash)) != null
+         && !(entry != TOMBSTONE && key.equals(entry.key))
+        ) {
+            if(reuseInactive && firstInactive < 0 && entry == TOMBSTONE) {
+                firstInactive = hash;
+            }
+            //quadratic probe
+            hash = (int)((originalHash + (long)quadraticCounter * quadraticCounter) % length);
+            quadraticCounter++;
+        }
+        if(firstInactive >= 0 && entry == null) {
+            return firstInactive;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the number of cached entries.
+     * @return The number of cached entries
+     */
+    public synchronized int size() {
+        return numActive;
+    }
+
+    /**
+     * Returns whether or not the cache is empty.
+     * @return true if the cache is empty, false otherwise
+     */
+    public synchronized boolean isEmpty() {
+        return numActive == 0;
+    }
+
+    /**
+     * Returns the total weight of the cached entries.
+     * @return The total weight, or 0 if entries aren't weighed
+     */
+    public synchronized long weight() {
+        return totalWeight;
+    }
+
+    /**
+     * Returns the most entries the cache will hold.
+     * @return The maximum number of entries
+     */
+    public int maxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Removes every entry from the cache. Loads that are running still
+     * cache their values when they finish.
+     */
+    public synchronized void clear() {
+        allocate(cells.length());
+    }
+
+    /**
+     * Returns how many lookups found their key cached.
+     * @return The number of hits
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns how many lookups didn't find their key cached.
+     * @return The number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns how many entries were evicted to make room for others.
+     * @return The number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
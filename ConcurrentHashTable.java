@@ -0,0 +1,602 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A thread safe Hash Table implementation of a set of elements of type E.
+ * Uses the same open addressing and quadratic probing as HashTable, but
+ * can be shared between threads without any outside locking.
+ * Writers lock one of several stripes, chosen by the element's hash code,
+ * and claim cells with compare-and-set. Readers never lock: find only
+ * reads the current cell array, which is published through a volatile
+ * field. Growing the table locks every stripe, so writers wait while the
+ * table is rehashed, but readers keep using the old array until the new
+ * one is published.
+ *
+ * snapshot() returns a read-only view of the set as it was at one moment,
+ * which can be iterated or searched while writers carry on. The cells are
+ * split into segments of SEGMENT_SIZE cells that are copied on write: a
+ * snapshot just shares the current segments, and the first write to a
+ * segment after a snapshot copies it, so taking a snapshot costs about one
+ * reference per segment, and writers only pay for the segments they touch.
+ * @param <E> The type of element in the set
+ */
+public class ConcurrentHashTable<E> implements Iterable<E> {
+
+    //how many stripes to use if the caller doesn't say
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 64;
+    //cells are copied on write in segments of this many cells
+    private static final int SEGMENT_SHIFT = 8;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    //an entry in the hash table. Entries are immutable, so a reader that
+    //sees a reference to one always sees its element. The element is kept
+    //as an Object so that every table can share the TOMBSTONE entry.
+    private static final class Entry {
+        final Object element;
+        Entry(Object element) {
+            this.element = element;
+        }
+    }
+
+    //lazy deletion -- a deleted cell is replaced by this shared entry, so
+    //that probe chains passing through it stay intact.
+    private static final Entry TOMBSTONE = new Entry(null);
+
+    //a segment of cells, and the epoch it was made in. Once a snapshot
+    //moves the table to a new epoch, the segments of older epochs belong
+    //to snapshots and are never written again.
+    @SuppressWarnings("serial")
+    private static final class Segment extends AtomicReferenceArray<Entry> {
+        final long epoch;
+        Segment(int length, long epoch) {
+            super(length);
+            this.epoch = epoch;
+        }
+        //a copy of from for epoch
+        Segment(Segment from, long epoch) {
+            super(contents(from));
+            this.epoch = epoch;
+        }
+        private static Entry[] contents(Segment segment) {
+            Entry[] entries = new Entry[segment.length()];
+            for(int i = 0; i < entries.length; i++) {
+                entries[i] = segment.get(i);
+            }
+            return entries;
+        }
+    }
+
+    //one version of the cell array, made of segments. A rehash makes a new
+    //one, and a snapshot gets its own that shares our segments.
+    private static final class Cells {
+        final int length;
+        final AtomicReferenceArray<Segment> segments;
+
+        //new, empty cells, all in epoch
+        Cells(int length, long epoch) {
+            this.length = length;
+            int count = (length + SEGMENT_MASK) >>> SEGMENT_SHIFT;
+            segments = new AtomicReferenceArray<Segment>(count);
+            for(int i = 0; i < count; i++) {
+                segments.set(i, new Segment(Math.min(SEGMENT_SIZE,
+                 length - (i << SEGMENT_SHIFT)), epoch));
+            }
+        }
+
+        //cells sharing every segment of other
+        Cells(Cells other) {
+            length = other.length;
+            Segment[] shared = new Segment[other.segments.length()];
+            for(int i = 0; i < shared.length; i++) {
+                shared[i] = other.segments.get(i);
+            }
+            segments = new AtomicReferenceArray<Segment>(shared);
+        }
+
+        Entry get(int index) {
+            return segments.get(index >>> SEGMENT_SHIFT)
+             .get(index & SEGMENT_MASK);
+        }
+
+        //returns the segment holding index, first replacing it with a copy
+        //if it's from an earlier epoch. Writers holding different stripes
+        //may race to copy the same segment, so the copy is installed with
+        //compare-and-set and the loser uses the winner's.
+        private Segment writable(int index, long epoch) {
+            int i = index >>> SEGMENT_SHIFT;
+            Segment segment = segments.get(i);
+            while(segment.epoch != epoch) {
+                Segment copy = new Segment(segment, epoch);
+                if(segments.compareAndSet(i, segment, copy)) return copy;
+                segment = segments.get(i);
+            }
+            return segment;
+        }
+
+        boolean compareAndSet(int index, Entry expected, Entry update,
+         long epoch) {
+            return writable(index, epoch).compareAndSet(index & SEGMENT_MASK,
+             expected, update);
+        }
+
+        void set(int index, Entry entry, long epoch) {
+            writable(index, epoch).set(index & SEGMENT_MASK, entry);
+        }
+    }
+
+    //results of tryInsert
+    private static final int INSERTED = 1;
+    private static final int PRESENT = 0;
+    private static final int FULL = -1;
+
+    //the cells of the table. For each cell: null means nothing has been
+    //entered, TOMBSTONE represents a deleted entry, and any other Entry is
+    //an element in the set. The reference is replaced on rehash.
+    private volatile Cells table;
+    //segments from before this epoch are shared with snapshots, and are
+    //copied before they're written. Only changed with every stripe locked,
+    //and only read by writers holding a stripe, so it needs no volatile.
+    private long epoch;
+    //writers lock the stripe for their element's hash code. Rehashing and
+    //emptying the table lock all of them.
+    private final ReentrantLock[] stripes;
+    //mixed into every hash code, see Hashing. Never changes, since the
+    //stripe an element locks depends on it.
+    private final int seed = Hashing.newSeed();
+    //the number of occupied cells (active OR deleted), used to decide when
+    //to grow, just like in HashTable
+    private final AtomicInteger numOccupiedCells = new AtomicInteger();
+    //the number of elements in the set
+    private final AtomicInteger numActive = new AtomicInteger();
+
+    /**
+     * Creates an empty ConcurrentHashTable with an array size that's good
+     * for holding elements elements.
+     * @param elements How many elements can be expected to be inserted.
+     */
+    public ConcurrentHashTable(int elements) {
+        this(elements, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Creates an empty ConcurrentHashTable with an array size that's good
+     * for holding elements elements.
+     * @param elements How many elements can be expected to be inserted.
+     * @param concurrencyLevel Roughly how many threads are expected to
+     * write at once. Rounded up to a power of two stripes.
+     */
+    public ConcurrentHashTable(int elements, int concurrencyLevel) {
+        if(concurrencyLevel < 1) {
+            throw new IllegalArgumentException(
+             "Concurrency level must be positive.");
+        }
+        int numStripes = Integer.highestOneBit(concurrencyLevel);
+        if(numStripes < concurrencyLevel) numStripes <<= 1;
+        stripes = new ReentrantLock[numStripes];
+        for(int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        table = new Cells(Primes.nextPrime((long)elements*2), epoch);
+    }
+
+    //returns the lock guarding writes of item
+    private ReentrantLock stripeFor(Object item) {
+        return stripes[Hashing.hashOf(item, seed) & (stripes.length - 1)];
+    }
+
+    //returns the position item should be placed in before any probing
+    private int homeIndex(Object item, int length) {
+        return Hashing.index(Hashing.hashOf(item, seed), length);
+    }
+
+    /**
+     * Inserts item into the set.
+     * @param item The element to add to the set
+     * @return true if item was inserted, false if it was already present
+     * @throws IllegalStateException if too many elements share item's hash
+     * code, see Hashing.MAX_PROBE
+     */
+    public boolean insert(E item) {
+        if(item == null) return false;
+
+        ReentrantLock lock = stripeFor(item);
+        while(true) {
+            Cells curTable;
+            int result;
+            lock.lock();
+            try {
+                //read the table after locking, so a rehash can't swap it
+                //out from under us
+                curTable = table;
+                result = tryInsert(curTable, item);
+            } finally {
+                lock.unlock();
+            }
+            if(result == FULL) {
+                //no free cell on item's probe chain, grow and try again
+                rehash(curTable);
+                continue;
+            }
+            //grow once we're past half full, just like HashTable. This is
+            //done without holding our stripe, since rehash locks them all.
+            if(numOccupiedCells.get() >= curTable.length/2) {
+                rehash(curTable);
+            }
+            return result == INSERTED;
+        }
+    }
+
+    //tries to place item in curTable. The caller must hold item's stripe,
+    //so no other thread can be inserting or deleting an equal element.
+    private int tryInsert(Cells curTable, Object item) {
+        int length = curTable.length;
+        int originalHash = homeIndex(item, length);
+
+        retry:
+        while(true) {
+            int hash = originalHash;
+            //the first deleted cell on the chain, which we can reuse
+            int firstFree = -1;
+            //we may probe up to length cells, so square the counter as a
+            //long to keep it from overflowing on large tables
+            for(int quadraticCounter = 1; quadraticCounter <= length;
+             quadraticCounter++) {
+                Entry entry = curTable.get(hash);
+                if(entry == null) {
+                    //end of the chain, so item isn't in the set. put it
+                    //in the first deleted cell if we passed one.
+                    int target = firstFree >= 0 ? firstFree : hash;
+                    Entry expected = firstFree >= 0 ? TOMBSTONE : null;
+                    if(!curTable.compareAndSet(target, expected,
+                     new Entry(item), epoch)) {
+                        //another writer claimed the cell first
+                        continue retry;
+                    }
+                    if(expected == null) numOccupiedCells.incrementAndGet();
+                    numActive.incrementAndGet();
+                    return INSERTED;
+                } else if(entry == TOMBSTONE) {
+                    if(firstFree < 0) firstFree = hash;
+                } else if(item.equals(entry.element)) {
+                    return PRESENT;
+                }
+                //hash codes are mixed from the start, so a chain this long
+                //is keys with equal hash codes
+                if(quadraticCounter > Hashing.MAX_PROBE) {
+                    throw Hashing.tooManyCollisions(item);
+                }
+                hash = (int)((originalHash + (long)quadraticCounter * quadraticCounter) % length);
+            }
+            //we've probed as many cells as the table has without finding
+            //the end of the chain
+            if(firstFree >= 0) {
+                if(!curTable.compareAndSet(firstFree, TOMBSTONE,
+                 new Entry(item), epoch)) {
+                    continue retry;
+                }
+                numActive.incrementAndGet();
+                return INSERTED;
+            }
+            return FULL;
+        }
+    }
+
+    //grows the table to the next optimal size, unless another thread
+    //already replaced observedTable while we were waiting for the locks.
+    //if most occupied cells are just deleted ones, rebuilds at the same
+    //size instead to clear them out, like HashTable does.
+    private void rehash(Cells observedTable) {
+        lockAll();
+        try {
+            if(table != observedTable) return;
+            //no writer can run now, so numActive is exact
+            int newSize = numActive.get() < observedTable.length/4
+             ? observedTable.length
+             : Primes.nextPrime((long)observedTable.length*2);
+            Cells newTable = new Cells(newSize, epoch);
+            int occupied = 0;
+            for(int i = 0; i < observedTable.length; i++) {
+                Entry entry = observedTable.get(i);
+                if(entry != null && entry != TOMBSTONE) {
+                    newTable.set(indexForRehash(newTable, entry.element),
+                     entry, epoch);
+                    occupied++;
+                }
+            }
+            numOccupiedCells.set(occupied);
+            //publish the new array. readers that already grabbed the old
+            //one still see a complete set, since no writer can run now.
+            table = newTable;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    //finds the empty cell for element in a table nobody else can see yet
+    private int indexForRehash(Cells curTable,
+     Object element) {
+        int length = curTable.length;
+        int originalHash = homeIndex(element, length);
+        int hash = originalHash;
+        int quadraticCounter = 1;
+        while(curTable.get(hash) != null) {
+            hash = (int)((originalHash + (long)quadraticCounter * quadraticCounter) % length);
+            quadraticCounter++;
+        }
+        return hash;
+    }
+
+    //locks every stripe, always in the same order to avoid deadlock
+    private void lockAll() {
+        for(ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for(int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
+    /**
+     * Finds and returns item from the set, or null if it's not in the set.
+     * Never blocks, even while the table is being rehashed.
+     * @param item The item to find and return. Any object equal to the
+     * element being looked for works, it doesn't need to be an E.
+     * @return The found item, or null if nothing is found.
+     */
+    @SuppressWarnings("unchecked")
+    public E find(Object item) {
+        if(item == null) return null;
+        Cells curTable = table;
+        int index = indexOf(curTable, item);
+        //only elements passed to insert are ever stored, so this is an E
+        return index < 0 ? null : (E)curTable.get(index).element;
+    }
+
+    //returns the index of the active cell holding key in curTable, or -1
+    //if it isn't there. Skips deleted cells, since the key may be past them.
+    private int indexOf(Cells curTable, Object key) {
+        int length = curTable.length;
+        int originalHash = homeIndex(key, length);
+        int hash = originalHash;
+        for(int quadraticCounter = 1; quadraticCounter <= length;
+         quadraticCounter++) {
+            Entry entry = curTable.get(hash);
+            if(entry == null) {
+                return -1;
+            } else if(entry != TOMBSTONE && key.equals(entry.element)) {
+                return hash;
+            }
+            hash = (int)((originalHash + (long)quadraticCounter * quadraticCounter) % length);
+        }
+        return -1;
+    }
+
+    /**
+     * Finds and deletes item from the set.
+     * Does nothing if item is not in the set.
+     * @param item The item to delete
+     * @return true if item was deleted, false if it wasn't in the set
+     */
+    public boolean delete(Object item) {
+        if(item == null) return false;
+        ReentrantLock lock = stripeFor(item);
+        lock.lock();
+        try {
+            Cells curTable = table;
+            int index = indexOf(curTable, item);
+            if(index < 0) return false;
+            //only our stripe can touch a cell holding item, so a plain
+            //volatile write is enough here
+            curTable.set(index, TOMBSTONE, epoch);
+            numActive.decrementAndGet();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of elements in the set.
+     * @return The number of elements in the set
+     */
+    public int elementCount() {
+        return numActive.get();
+    }
+
+    /**
+     * Returns whether or not the set is empty.
+     * @return true if the table is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return numActive.get() == 0;
+    }
+
+    /**
+     * Empties the set.
+     */
+    public void makeEmpty() {
+        lockAll();
+        try {
+            table = new Cells(table.length, epoch);
+            numOccupiedCells.set(0);
+            numActive.set(0);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Returns a read-only view of the set as it is now. Later inserts and
+     * deletes don't show up in the snapshot, so it can be iterated or
+     * searched for a consistent picture while writers carry on. Briefly
+     * waits for writers in progress, like a rehash does, but copies no
+     * cells: the first write to each segment afterwards copies it instead.
+     * Segments stay in memory as long as a snapshot that shares them is
+     * reachable.
+     * @return A snapshot of the set
+     */
+    public Snapshot<E> snapshot() {
+        lockAll();
+        try {
+            Snapshot<E> snapshot = new Snapshot<E>(this, new Cells(table),
+             numActive.get());
+            //every current segment now belongs to the snapshot as well
+            epoch++;
+            return snapshot;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * A point in time, read-only view of a ConcurrentHashTable, made by
+     * snapshot(). Never changes, so it's safe to share between threads and
+     * needs no locking.
+     * @param <E> The type of element in the set
+     */
+    public static final class Snapshot<E> implements Iterable<E> {
+        private final ConcurrentHashTable<E> owner;
+        private final Cells cells;
+        private final int numActive;
+
+        private Snapshot(ConcurrentHashTable<E> owner, Cells cells,
+         int numActive) {
+            this.owner = owner;
+            this.cells = cells;
+            this.numActive = numActive;
+        }
+
+        /**
+         * Finds and returns item as it was in the set when the snapshot was
+         * taken, or null if it wasn't in the set.
+         * @param item The item to find and return. Any object equal to the
+         * element being looked for works, it doesn't need to be an E.
+         * @return The found item, or null if nothing is found.
+         */
+        @SuppressWarnings("unchecked")
+        public E find(Object item) {
+            if(item == null) return null;
+            int index = owner.indexOf(cells, item);
+            return index < 0 ? null : (E)cells.get(index).element;
+        }
+
+        /**
+         * Returns the number of elements in the snapshot.
+         * @return The number of elements in the snapshot
+         */
+        public int elementCount() {
+            return numActive;
+        }
+
+        /**
+         * Returns whether or not the snapshot is empty.
+         * @return true if the snapshot is empty, false otherwise
+         */
+        public boolean isEmpty() {
+            return numActive == 0;
+        }
+
+        /**
+         * Returns an iterator over the elements in the snapshot.
+         * @return An iterator over the snapshot
+         */
+        public Iterator<E> iterator() {
+            return new Iter<E>(cells);
+        }
+
+        /**
+         * Prints the elements in the snapshot.
+         */
+        public void outputData() {
+            Iterator<E> iter = iterator();
+            while(iter.hasNext()) {
+                System.out.println(iter.next() + ", active");
+            }
+        }
+    }
+
+    /**
+     * Returns an iterator over the elements in the set. The iterator is
+     * weakly consistent: it never throws because of concurrent writes,
+     * but may or may not see elements inserted or deleted after it was
+     * created. Iterate a snapshot() for a consistent view.
+     * @return An iterator over the set
+     */
+    public Iterator<E> iterator() {
+        return new Iter<E>(table);
+    }
+
+    //iterator over one version of the cell array
+    private static class Iter<E> implements Iterator<E> {
+        private final Cells curTable;
+        //the next element to return, or null if we're done
+        private E nextElement;
+        //the index of the cell after nextElement
+        private int cursor;
+        Iter(Cells curTable) {
+            this.curTable = curTable;
+            advance();
+        }
+        //moves nextElement to the next active cell at or after cursor
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            nextElement = null;
+            while(nextElement == null && cursor < curTable.length) {
+                Entry entry = curTable.get(cursor++);
+                if(entry != null && entry != TOMBSTONE) {
+                    nextElement = (E)entry.element;
+                }
+            }
+        }
+        public boolean hasNext() {
+            return nextElement != null;
+        }
+        public E next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E value = nextElement;
+            advance();
+            return value;
+        }
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Prints the internal structure of the array used to hold the set.
+     */
+    public void printTable() {
+        Cells curTable = table;
+        for(int i = 0; i < curTable.length; i++) {
+            System.out.print("[" + i + "]: " );
+            Entry entry = curTable.get(i);
+            if(entry == null) {
+                System.out.println("empty");
+            } else if(entry == TOMBSTONE) {
+                System.out.println("inactive");
+            } else {
+                System.out.println(entry.element + ", active");
+            }
+        }
+    }
+
+    /**
+     * Prints the elements in the set.
+     */
+    public void outputData() {
+        Iterator<E> iter = iterator();
+        while(iter.hasNext()) {
+            System.out.println(iter.next() + ", active");
+        }
+    }
+}
@@ -0,0 +1,847 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A HashTable of Students that survives restarts. Every insert, delete and
+ * makeEmpty is appended to a change log in a directory, and the table is
+ * rebuilt on open from the latest checkpoint (a full copy of the table)
+ * plus the log written since. Once the log grows past a threshold, the
+ * table writes a new checkpoint and starts an empty log.
+ *
+ * Every change is written to the log file before it returns, so it
+ * survives the process being killed. Changes made by other threads
+ * meanwhile share the same write (group commit). The fsync policy decides
+ * when the log is forced from the operating system's cache to the disk,
+ * which is what it takes to survive a power failure or an operating system
+ * crash:
+ * ALWAYS: a change returns once it's been forced. Concurrent changes
+ * share the force too, so many writers pay for few forces.
+ * PERIODIC: a background thread forces the log every interval. A power
+ * failure loses at most the last interval.
+ * NEVER: the log is only forced by sync, checkpoint and close, and
+ * otherwise whenever the operating system writes its cache out.
+ *
+ * Changes are applied to the table before they're logged, so other threads
+ * may see a change before it's logged, but the thread making it doesn't
+ * get an answer until the policy says it's done. If the log can't be
+ * written, the change throws UnloggedChangeException and the table refuses
+ * further changes, since it no longer matches its log. Checkpoints write a
+ * snapshot of the table, so lookups carry on while one is written. Thread
+ * safe.
+ *
+ * Files, all numbers big endian:
+ * checkpoint: magic, version (ints), generation (long), student count
+ * (int), then each student's ID (long) and name, then the CRC32 of
+ * everything after the header (int).
+ * log: magic, version (ints), generation (long), then records. A record
+ * is its payload length and the payload's CRC32 (ints), then the payload:
+ * an operation byte, and for INSERT an ID and name, for DELETE an ID.
+ * Names are a boolean (false for null) followed by writeUTF.
+ * A log is only replayed onto the checkpoint of the same generation, so a
+ * crash while checkpointing never replays a log twice. Replay stops at the
+ * first torn or corrupt record, which is cut off.
+ */
+public class DurableHashTable implements Closeable {
+
+    /**
+     * When logged changes are forced to disk.
+     */
+    public enum FsyncPolicy {
+        /** Before each change returns, shared by concurrent changes */
+        ALWAYS,
+        /** Every interval, by a background thread */
+        PERIODIC,
+        /** Only by sync, checkpoint and close */
+        NEVER
+    }
+
+    /**
+     * Thrown when a change was made to the table, but couldn't be written
+     * to the log. The table refuses further changes afterwards.
+     */
+    public static class UnloggedChangeException extends IOException {
+        private static final long serialVersionUID = 1L;
+        public UnloggedChangeException(IOException cause) {
+            super("The change was made, but couldn't be logged: "
+             + cause.getMessage(), cause);
+        }
+    }
+
+    //file names within the directory
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOG = "log";
+    private static final String TEMP_SUFFIX = ".tmp";
+    //identify our files, "HTC1" and "HTL1"
+    private static final int CHECKPOINT_MAGIC = 0x48544331;
+    private static final int LOG_MAGIC = 0x48544c31;
+    private static final int VERSION = 1;
+    private static final int LOG_HEADER_SIZE = 16;
+    //log record operations
+    private static final byte INSERT = 1;
+    private static final byte DELETE = 2;
+    private static final byte CLEAR = 3;
+    //no record is bigger than this, so a corrupt length ends replay
+    //rather than making us allocate it
+    private static final int MAX_RECORD = 1 << 17;
+    //checkpoint once the log is this big, unless the caller says otherwise
+    private static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+    //the PERIODIC interval if the caller doesn't give one
+    private static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private final Path directory;
+    private final HashTable<Student> table;
+
+    //everything below marked "guarded by this" is only touched while
+    //holding this object's lock, which also guards table. Writing to the
+    //log holds commitLock, which is always taken before this, never after.
+    private final Object commitLock = new Object();
+
+    //the log file, open for appending. guarded by commitLock.
+    private FileChannel log;
+    //the generation of the current checkpoint and log. guarded by this.
+    private long generation;
+    //changes logged but not yet written, and how many changes have been
+    //logged in total. guarded by this.
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long loggedCount;
+    //how many changes have been written to the log file, how many of those
+    //are known to be on disk, and how big the log file is so far. written
+    //with commitLock held.
+    private volatile long writtenCount;
+    private volatile long durableCount;
+    private volatile long logSize;
+    //the log size at which the next automatic checkpoint is due. pushed
+    //back after one fails, so a full disk doesn't cost a whole checkpoint
+    //per change.
+    private volatile long checkpointDue = DEFAULT_CHECKPOINT_BYTES;
+    //set once the log couldn't be written. guarded by this.
+    private IOException failure;
+    private volatile boolean closed;
+
+    private FsyncPolicy policy = FsyncPolicy.ALWAYS;
+    private volatile long checkpointBytes = DEFAULT_CHECKPOINT_BYTES;
+    //forces the log for PERIODIC, null otherwise. guarded by this.
+    private ScheduledExecutorService syncer;
+
+    //encodes one record's payload before it's framed. guarded by this.
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+
+    //use open or create to get one
+    private DurableHashTable(Path directory, HashTable<Student> table,
+     long generation, FileChannel log, long logSize) {
+        this.directory = directory;
+        this.table = table;
+        this.generation = generation;
+        this.log = log;
+        this.logSize = logSize;
+    }
+
+    /**
+     * Returns whether directory holds a durable table.
+     * @param directory The directory to look in
+     * @return true if open would find a checkpoint or a log there
+     */
+    public static boolean exists(Path directory) {
+        return Files.exists(directory.resolve(CHECKPOINT))
+         || Files.exists(directory.resolve(LOG));
+    }
+
+    /**
+     * Opens the durable table in directory, rebuilding it from its
+     * checkpoint and log, or creates an empty one if there isn't one yet.
+     * @param directory The directory holding the table's files. Created if
+     * it doesn't exist.
+     * @return The table
+     * @throws IOException if the files can't be read or written, or the
+     * checkpoint is corrupt
+     */
+    public static DurableHashTable open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(CHECKPOINT + TEMP_SUFFIX));
+        Files.deleteIfExists(directory.resolve(LOG + TEMP_SUFFIX));
+
+        HashTable<Student> table;
+        long generation;
+        Path checkpointPath = directory.resolve(CHECKPOINT);
+        if(Files.exists(checkpointPath)) {
+            try(DataInputStream in = new DataInputStream(
+             new BufferedInputStream(Files.newInputStream(checkpointPath),
+              1 << 16))) {
+                if(in.readInt() != CHECKPOINT_MAGIC || in.readInt() != VERSION) {
+                    throw new IOException(checkpointPath
+                     + " is not a checkpoint.");
+                }
+                generation = in.readLong();
+                int count = in.readInt();
+                if(count < 0) {
+                    throw new IOException(checkpointPath + " is corrupt.");
+                }
+                table = new HashTable<Student>(count);
+                CRC32 sum = new CRC32();
+                DataInputStream body = new DataInputStream(
+                 new CheckedInputStream(in, sum));
+                for(int i = 0; i < count; i++) {
+                    long id = body.readLong();
+                    table.insert(new Student(id, readName(body)));
+                }
+                if(in.readInt() != (int)sum.getValue()) {
+                    throw new IOException(checkpointPath + " is corrupt.");
+                }
+            } catch (EOFException e) {
+                throw new IOException(checkpointPath + " is truncated.");
+            }
+        } else {
+            table = new HashTable<Student>(16);
+            generation = 0;
+        }
+
+        //replay the log if it goes with this checkpoint
+        Path logPath = directory.resolve(LOG);
+        long validSize = -1;
+        if(Files.exists(logPath)) {
+            validSize = replay(logPath, generation, table);
+        }
+        FileChannel log;
+        if(validSize < 0) {
+            log = newLog(directory, generation);
+            validSize = LOG_HEADER_SIZE;
+        } else {
+            log = FileChannel.open(logPath, StandardOpenOption.WRITE);
+            //cut off anything torn at the end, so new records follow
+            //the last good one
+            log.truncate(validSize);
+            log.position(validSize);
+            log.force(false);
+        }
+        return new DurableHashTable(directory, table, generation, log,
+         validSize);
+    }
+
+    /**
+     * Creates a durable table in directory holding the students in
+     * initial, written straight to a checkpoint without logging each one.
+     * @param directory The directory to create the table in
+     * @param initial The students to start with. Kept and used by the
+     * durable table, so nothing else should change it afterwards.
+     * @return The table
+     * @throws IOException if directory already holds a table, or the
+     * files can't be written
+     */
+    public static DurableHashTable create(Path directory,
+     HashTable<Student> initial) throws IOException {
+        if(exists(directory)) {
+            throw new IOException(directory + " already holds a table.");
+        }
+        Files.createDirectories(directory);
+        writeCheckpoint(directory, snapshot(initial), 1);
+        FileChannel log = newLog(directory, 1);
+        return new DurableHashTable(directory, initial, 1, log,
+         LOG_HEADER_SIZE);
+    }
+
+    //applies the records of the log at path to table, if the log belongs
+    //to generation. returns the size of the valid part, or -1 if the log
+    //doesn't belong to generation and should be replaced.
+    private static long replay(Path path, long generation,
+     HashTable<Student> table) throws IOException {
+        try(DataInputStream in = new DataInputStream(
+         new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            try {
+                if(in.readInt() != LOG_MAGIC || in.readInt() != VERSION
+                 || in.readLong() != generation) {
+                    return -1;
+                }
+            } catch (EOFException e) {
+                //a crash while it was being created
+                return -1;
+            }
+            long valid = LOG_HEADER_SIZE;
+            CRC32 sum = new CRC32();
+            byte[] payload = new byte[64];
+            while(true) {
+                int length;
+                int expected;
+                try {
+                    length = in.readInt();
+                    expected = in.readInt();
+                    if(length <= 0 || length > MAX_RECORD) return valid;
+                    if(payload.length < length) payload = new byte[length];
+                    in.readFully(payload, 0, length);
+                } catch (EOFException e) {
+                    return valid;
+                }
+                sum.reset();
+                sum.update(payload, 0, length);
+                if((int)sum.getValue() != expected) return valid;
+                apply(new DataInputStream(
+                 new ByteArrayInputStream(payload, 0, length)), table);
+                valid += 8 + length;
+            }
+        }
+    }
+
+    //applies one record's payload to table
+    private static void apply(DataInputStream in, HashTable<Student> table)
+     throws IOException {
+        byte op = in.readByte();
+        switch(op) {
+            case INSERT: {
+                long id = in.readLong();
+                table.insert(new Student(id, readName(in)));
+                break;
+            }
+            case DELETE:
+                table.delete(new Student(in.readLong(), null));
+                break;
+            case CLEAR:
+                table.makeEmpty();
+                break;
+            default:
+                throw new IOException("Unknown log operation " + op);
+        }
+    }
+
+    /**
+     * Sets when changes are forced to disk. ALWAYS to start with.
+     * @param policy The new policy
+     * @param intervalMillis For PERIODIC, how often to force the log, in
+     * milliseconds. Ignored otherwise.
+     * @throws IOException if the changes logged so far can't be forced
+     */
+    public void setFsyncPolicy(FsyncPolicy policy, long intervalMillis)
+     throws IOException {
+        if(policy == FsyncPolicy.PERIODIC && intervalMillis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive.");
+        }
+        sync();
+        synchronized(this) {
+            if(syncer != null) {
+                syncer.shutdown();
+                syncer = null;
+            }
+            this.policy = policy;
+            if(policy == FsyncPolicy.PERIODIC) {
+                syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "DurableHashTable-sync");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                syncer.scheduleWithFixedDelay(this::periodicSync,
+                 intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Sets when changes are forced to disk, with PERIODIC forcing every
+     * 100 milliseconds.
+     * @param policy The new policy
+     * @throws IOException if the changes logged so far can't be forced
+     */
+    public void setFsyncPolicy(FsyncPolicy policy) throws IOException {
+        setFsyncPolicy(policy, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Sets how big the log may get before the table writes a new
+     * checkpoint and starts an empty log. If writing an automatic
+     * checkpoint fails, the change that set it off still succeeds, and the
+     * next is tried once the log has grown by the threshold again. Call
+     * checkpoint to see why one fails.
+     * @param bytes The largest log size, in bytes
+     */
+    public void setCheckpointThreshold(long bytes) {
+        if(bytes <= 0) {
+            throw new IllegalArgumentException("Threshold must be positive.");
+        }
+        checkpointBytes = bytes;
+        checkpointDue = bytes;
+    }
+
+    /**
+     * Inserts a student, and logs it if it was inserted.
+     * @param student The student to insert
+     * @return true if the student was inserted, false if the ID is taken
+     * @throws UnloggedChangeException if the student was inserted, but
+     * couldn't be logged
+     * @throws IOException if the student can't be inserted, because the
+     * table is closed or its log failed earlier, or because it can't be
+     * encoded, like one with a name too long for the log. The table is
+     * left unchanged.
+     */
+    public boolean insert(Student student) throws IOException {
+        if(student == null) return false;
+        long count;
+        synchronized(this) {
+            checkWritable();
+            //encode the record before touching the table, so a student
+            //that can't be logged, like one whose name is too long for
+            //writeUTF, is never inserted either
+            try {
+                record.writeByte(INSERT);
+                record.writeLong(student.getId());
+                writeName(record, student.getLastName());
+                if(!table.insert(student)) return false;
+                count = logRecord();
+            } finally {
+                recordBytes.reset();
+            }
+        }
+        committed(count);
+        return true;
+    }
+
+    /**
+     * Finds and deletes a student, and logs it if it was deleted.
+     * @param student A student with the ID to delete
+     * @return true if a student was deleted, false otherwise
+     * @throws UnloggedChangeException if the student was deleted, but
+     * couldn't be logged
+     * @throws IOException if the table is closed or its log failed earlier.
+     * The table is left unchanged.
+     */
+    public boolean delete(Student student) throws IOException {
+        if(student == null) return false;
+        long count;
+        synchronized(this) {
+            checkWritable();
+            try {
+                record.writeByte(DELETE);
+                record.writeLong(student.getId());
+                if(!table.delete(student)) return false;
+                count = logRecord();
+            } finally {
+                recordBytes.reset();
+            }
+        }
+        committed(count);
+        return true;
+    }
+
+    /**
+     * Empties the table, and logs it.
+     * @throws UnloggedChangeException if the table was emptied, but it
+     * couldn't be logged
+     * @throws IOException if the table is closed or its log failed earlier.
+     * The table is left unchanged.
+     */
+    public void makeEmpty() throws IOException {
+        long count;
+        synchronized(this) {
+            checkWritable();
+            try {
+                record.writeByte(CLEAR);
+                table.makeEmpty();
+                count = logRecord();
+            } finally {
+                recordBytes.reset();
+            }
+        }
+        committed(count);
+    }
+
+    /**
+     * Finds and returns a student, or null if it's not in the table.
+     * @param item An object equal to the student being looked for
+     * @return The found student, or null if nothing is found.
+     */
+    public synchronized Student find(Object item) {
+        return table.find(item);
+    }
+
+    /**
+     * Returns the number of students in the table.
+     * @return The number of students in the table
+     */
+    public synchronized int elementCount() {
+        return table.elementCount();
+    }
+
+    /**
+     * Returns whether or not the table is empty.
+     * @return true if the table is empty, false otherwise
+     */
+    public synchronized boolean isEmpty() {
+        return table.isEmpty();
+    }
+
+    /**
+     * Prints the internal structure of the table's array.
+     */
+    public synchronized void printTable() {
+        table.printTable();
+    }
+
+    /**
+     * Prints the students in the table.
+     */
+    public synchronized void outputData() {
+        table.outputData();
+    }
+
+    //the table itself, for callers that read it on the same thread that
+    //makes changes. changing it directly bypasses the log.
+    HashTable<Student> table() {
+        return table;
+    }
+
+    private void checkWritable() throws IOException {
+        if(closed) throw new IOException("The table is closed.");
+        if(failure != null) {
+            throw new IOException("The change log failed earlier, so the"
+             + " table no longer accepts changes.", failure);
+        }
+    }
+
+    //frames the record encoded so far and adds it to the pending changes.
+    //returns how many changes have been logged, including this one. must
+    //hold this, and reset recordBytes afterwards.
+    private long logRecord() {
+        int length = recordBytes.size();
+        byte[] payload = recordBytes.toByteArray();
+        crc.reset();
+        crc.update(payload, 0, length);
+        writeInt(pending, length);
+        writeInt(pending, (int)crc.getValue());
+        pending.write(payload, 0, length);
+        return ++loggedCount;
+    }
+
+    private static void writeInt(OutputStream out, int value) {
+        try {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+        } catch (IOException e) {
+            //a ByteArrayOutputStream never throws
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //called after logging change number count, without holding this.
+    //writes it to the log file, forces it if the policy says so, and
+    //checkpoints if the log has grown too big.
+    private void committed(long count) throws IOException {
+        boolean force;
+        synchronized(this) {
+            force = policy == FsyncPolicy.ALWAYS;
+        }
+        try {
+            synchronized(commitLock) {
+                //another thread's write and force may already have covered
+                //us, along with every change logged before theirs
+                if(force ? durableCount < count : writtenCount < count) {
+                    flush(force);
+                }
+            }
+        } catch (IOException e) {
+            throw new UnloggedChangeException(e);
+        }
+        if(logSize >= checkpointDue) {
+            long threshold = checkpointBytes;
+            try {
+                checkpoint(threshold);
+            } catch (IOException e) {
+                //our change is logged either way. if the log was replaced
+                //but can't be written, the next change says so.
+                checkpointDue = logSize + threshold;
+            }
+        }
+    }
+
+    //writes every pending change to the log, and forces it if force is
+    //set. must hold commitLock.
+    private void flush(boolean force) throws IOException {
+        byte[] batch;
+        long upTo;
+        synchronized(this) {
+            if(failure != null) throw new IOException("The change log failed.",
+             failure);
+            batch = pending.toByteArray();
+            pending.reset();
+            upTo = loggedCount;
+        }
+        write(batch, upTo, force);
+    }
+
+    //writes a batch of pending changes, up to change number upTo, to the
+    //log, and forces it if force is set. must hold commitLock.
+    private void write(byte[] batch, long upTo, boolean force)
+     throws IOException {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            while(buffer.hasRemaining()) {
+                log.write(buffer);
+            }
+            logSize += batch.length;
+            writtenCount = upTo;
+            if(force) {
+                log.force(false);
+                durableCount = upTo;
+            }
+        } catch (IOException e) {
+            synchronized(this) {
+                failure = e;
+            }
+            throw e;
+        }
+    }
+
+    private void periodicSync() {
+        try {
+            sync();
+        } catch (IOException e) {
+            //recorded in failure, so the next change reports it
+        }
+    }
+
+    /**
+     * Forces every change made so far to disk, whatever the policy.
+     * @throws IOException if the log can't be written
+     */
+    public void sync() throws IOException {
+        synchronized(commitLock) {
+            if(closed) return;
+            flush(true);
+        }
+    }
+
+    /**
+     * Writes the whole table to a new checkpoint and starts an empty log.
+     * Lookups and changes carry on while it runs, but changes aren't
+     * logged until it's done. Called automatically once the log passes the
+     * checkpoint threshold. Does nothing once the table is closed.
+     * @throws IOException if the files can't be written
+     */
+    public void checkpoint() throws IOException {
+        checkpoint(0);
+    }
+
+    //checkpoints if the log is at least minLogSize bytes by the time we
+    //have the locks, so writers that all saw it pass the threshold only
+    //checkpoint once between them
+    private void checkpoint(long minLogSize) throws IOException {
+        //only we can write to the log while we hold commitLock, so changes
+        //made from here on wait in pending, and go to whichever log matches
+        //the checkpoint once we're done
+        synchronized(commitLock) {
+            byte[] batch;
+            long upTo;
+            Student[] students;
+            long next;
+            synchronized(this) {
+                if(closed || logSize < minLogSize) return;
+                checkWritable();
+                //the checkpoint holds exactly the changes logged so far
+                batch = pending.toByteArray();
+                pending.reset();
+                upTo = loggedCount;
+                students = snapshot(table);
+                next = generation + 1;
+            }
+            //the old log stays current until the new one replaces it
+            write(batch, upTo, true);
+            //if this fails, the old checkpoint and log are still in place
+            //and still match the table, so changes can go on
+            writeCheckpoint(directory, students, next);
+            try {
+                //the checkpoint is in place before the log is replaced, and
+                //a log only replays onto its own generation, so a crash
+                //anywhere in here loses nothing. but the current log no
+                //longer replays, so we can't carry on with it.
+                FileChannel newLog = newLog(directory, next);
+                log.close();
+                log = newLog;
+                logSize = LOG_HEADER_SIZE;
+                checkpointDue = checkpointBytes;
+                synchronized(this) {
+                    generation = next;
+                }
+            } catch (IOException e) {
+                synchronized(this) {
+                    failure = e;
+                }
+                throw e;
+            }
+        }
+    }
+
+    //copies the students out of table, which takes far less time than
+    //writing them, so the table's lock is only held for the copy
+    private static Student[] snapshot(HashTable<Student> table) {
+        Student[] students = new Student[table.elementCount()];
+        int count = 0;
+        for(Student student : table) {
+            students[count++] = student;
+        }
+        return students;
+    }
+
+    //writes students to the checkpoint file for generation, through a
+    //temporary file so the old checkpoint stays whole until it's replaced.
+    //if it fails, the temporary file is deleted and nothing else changes.
+    private static void writeCheckpoint(Path directory, Student[] students,
+     long generation) throws IOException {
+        Path temp = directory.resolve(CHECKPOINT + TEMP_SUFFIX);
+        try {
+            writeCheckpointFile(temp, students, generation);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException deleteFailure) {
+                e.addSuppressed(deleteFailure);
+            }
+            throw e;
+        }
+        Files.move(temp, directory.resolve(CHECKPOINT),
+         StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(directory);
+    }
+
+    private static void writeCheckpointFile(Path temp, Student[] students,
+     long generation) throws IOException {
+        try(FileChannel channel = FileChannel.open(temp,
+         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+         StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+             Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            out.writeInt(students.length);
+            CRC32 sum = new CRC32();
+            DataOutputStream body = new DataOutputStream(
+             new CheckedOutputStream(out, sum));
+            for(Student student : students) {
+                body.writeLong(student.getId());
+                writeName(body, student.getLastName());
+            }
+            body.flush();
+            out.writeInt((int)sum.getValue());
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    //creates an empty log for generation in place of the current one, and
+    //returns it open for appending
+    private static FileChannel newLog(Path directory, long generation)
+     throws IOException {
+        Path temp = directory.resolve(LOG + TEMP_SUFFIX);
+        try(FileChannel channel = FileChannel.open(temp,
+         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+         StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            header.putInt(LOG_MAGIC).putInt(VERSION).putLong(generation);
+            header.flip();
+            while(header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+        Path path = directory.resolve(LOG);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+         StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(directory);
+        FileChannel log = FileChannel.open(path, StandardOpenOption.WRITE);
+        log.position(LOG_HEADER_SIZE);
+        return log;
+    }
+
+    //forces the directory entry changes made by a rename, where the
+    //platform allows opening a directory. Best effort elsewhere. Used by
+    //MappedStudentTable too.
+    static void syncDirectory(Path directory) {
+        try(FileChannel channel = FileChannel.open(directory,
+         StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            //not supported here, the rename is still atomic
+        }
+    }
+
+    //checks the name fits in writeUTF before writing anything, so a name
+    //that doesn't never leaves half a record or student behind
+    private static void writeName(DataOutputStream out, String name)
+     throws IOException {
+        if(name != null) {
+            long length = utfLength(name);
+            if(length > 0xFFFF) {
+                throw new UTFDataFormatException("A last name of "
+                 + name.length() + " characters is too long to log, it takes "
+                 + length + " bytes and the most is 65535.");
+            }
+        }
+        out.writeBoolean(name != null);
+        if(name != null) out.writeUTF(name);
+    }
+
+    //how many bytes writeUTF takes for s, not counting its length prefix
+    private static long utfLength(String s) {
+        long length = 0;
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c >= 0x0001 && c <= 0x007F) {
+                length++;
+            } else if(c <= 0x07FF) {
+                length += 2;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static String readName(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Forces every change to disk and closes the log. The table can't be
+     * changed afterwards.
+     * @throws IOException if the log can't be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized(commitLock) {
+            if(closed) return;
+            try {
+                synchronized(this) {
+                    if(failure == null) flush(true);
+                }
+            } finally {
+                synchronized(this) {
+                    closed = true;
+                    if(syncer != null) syncer.shutdown();
+                }
+                log.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,565 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Micro-benchmarks for HashTable and the tables built around it.
+ * Times insert, find (hit and miss), delete, growth by rehashing,
+ * iteration, elementCount and isEmpty at several sizes and load factors,
+ * using Student keys, the primitive long keyed table, and java.util's
+ * HashSet and HashMap for comparison. Also runs tombstone scenarios:
+ * finds that probe past a build up of deleted cells, with compaction
+ * turned off so it can't clear them first, and steady delete and insert
+ * churn with and without compaction. And the tables built to run fuller:
+ * HashTable with triangular probing, and RobinHoodHashTable.
+ *
+ * These are quick hand timed loops, good for comparing one change
+ * against another on the same machine. The JMH benchmarks in the jmh
+ * directory fork, warm up and guard against dead code elimination
+ * properly, and are the numbers to trust.
+ *
+ * Usage: java HTBenchmark [sizes] [filter]
+ * sizes is a comma separated list of element counts, and only benchmarks
+ * whose name contains filter are run.
+ */
+public class HTBenchmark {
+
+    //default element counts and target load factors to benchmark
+    private static final int[] DEFAULT_SIZES = {10000, 100000, 1000000};
+    private static final double[] LOAD_FACTORS = {0.1, 0.25, 0.45};
+    //rounds run before and during measurement
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    //how many times to repeat the constant-cost calls per round
+    private static final int REPEATS = 1000;
+    //HashTable's own default, and a threshold that never compacts on
+    //delete, so deleted cells pile up until the table fills
+    private static final double DEFAULT_TOMBSTONE_THRESHOLD = 0.25;
+    private static final double NO_COMPACTION = 1.0;
+    //the tombstone scenarios fill to this load, so the table has room for
+    //more deleted cells than live ones before it has to grow or compact
+    private static final double TOMBSTONE_LOAD = 0.2;
+
+    //results are folded in here so the JIT can't throw the work away
+    private static volatile long sink;
+
+    //one benchmark case. prepare builds fresh state without being timed,
+    //and returns the work that is timed.
+    private interface Scenario {
+        Workload prepare();
+    }
+    //the timed part of a benchmark. returns how many operations it did.
+    private interface Workload {
+        int run();
+    }
+
+    //inputs shared by every scenario of one size
+    private static class Data {
+        //students to insert, in insertion order
+        final Student[] students;
+        //the same students' ids, shuffled, for lookups
+        final long[] hitIds;
+        //search students for hitIds
+        final Student[] hitKeys;
+        //ids and search students that are never inserted
+        final long[] missIds;
+        final Student[] missKeys;
+
+        Data(int size) {
+            Random random = new Random(size);
+            students = new Student[size];
+            hitIds = new long[size];
+            hitKeys = new Student[size];
+            missIds = new long[size];
+            missKeys = new Student[size];
+            for(int i = 0; i < size; i++) {
+                //spread ids out, even ids are present and odd ones missing
+                long id = 2 * (i * 2654435761L % 1000000007L) + 2;
+                students[i] = new Student(id, "Name" + (i % 1000));
+                hitIds[i] = id;
+                missIds[i] = id + 1;
+            }
+            shuffle(hitIds, random);
+            shuffle(missIds, random);
+            for(int i = 0; i < size; i++) {
+                hitKeys[i] = new Student(hitIds[i], null);
+                missKeys[i] = new Student(missIds[i], null);
+            }
+        }
+
+        private static void shuffle(long[] values, Random random) {
+            for(int i = values.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                long tmp = values[i];
+                values[i] = values[j];
+                values[j] = tmp;
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmarks and prints one line of results per case.
+     * @param args optional sizes and name filter, see the class comment
+     */
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if(args.length > 0) {
+            String[] parts = args[0].split(",");
+            sizes = new int[parts.length];
+            for(int i = 0; i < parts.length; i++) {
+                sizes[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        String filter = args.length > 1 ? args[1] : "";
+
+        System.out.printf("%-28s %10s %6s %14s%n",
+         "benchmark", "size", "load", "ns/op");
+        for(int size : sizes) {
+            Data data = new Data(size);
+            for(double loadFactor : LOAD_FACTORS) {
+                runHashTable(data, size, loadFactor, filter);
+                runLongKeyed(data, size, loadFactor, filter);
+            }
+            runGrowth(data, size, filter);
+            runBulk(data, size, filter);
+            runTombstones(data, size, filter);
+            runHighLoad(data, size, filter);
+            runJavaUtil(data, size, filter);
+        }
+        System.out.println("(sink " + sink + ")");
+    }
+
+    //how many elements to tell a table to expect so that size elements
+    //fill it to loadFactor. tables are sized at twice the expected count.
+    private static int presize(int size, double loadFactor) {
+        return (int)Math.ceil(size / (2 * loadFactor));
+    }
+
+    //builds a HashTable holding every student in data
+    private static HashTable<Student> fullTable(Data data, int expected) {
+        return fullTable(data, expected, DEFAULT_TOMBSTONE_THRESHOLD);
+    }
+
+    //builds a HashTable holding every student in data, compacting at
+    //tombstoneThreshold
+    private static HashTable<Student> fullTable(Data data, int expected,
+     double tombstoneThreshold) {
+        HashTable<Student> table =
+         new HashTable<Student>(expected, tombstoneThreshold);
+        for(Student student : data.students) {
+            table.insert(student);
+        }
+        return table;
+    }
+
+    private static void runHashTable(final Data data, int size,
+     double loadFactor, String filter) {
+        final int expected = presize(size, loadFactor);
+
+        measure("HashTable.insert", size, loadFactor, filter, () -> {
+            final HashTable<Student> table = new HashTable<Student>(expected);
+            return () -> {
+                int inserted = 0;
+                for(Student student : data.students) {
+                    if(table.insert(student)) inserted++;
+                }
+                sink += inserted;
+                return data.students.length;
+            };
+        });
+        measure("HashTable.findHit", size, loadFactor, filter, () -> {
+            final HashTable<Student> table = fullTable(data, expected);
+            return () -> findAll(table, data.hitKeys);
+        });
+        measure("HashTable.findMiss", size, loadFactor, filter, () -> {
+            final HashTable<Student> table = fullTable(data, expected);
+            return () -> findAll(table, data.missKeys);
+        });
+        measure("HashTable.delete", size, loadFactor, filter, () -> {
+            final HashTable<Student> table = fullTable(data, expected);
+            return () -> {
+                int deleted = 0;
+                for(Student key : data.hitKeys) {
+                    if(table.delete(key)) deleted++;
+                }
+                sink += deleted;
+                return data.hitKeys.length;
+            };
+        });
+        measure("HashTable.iterate", size, loadFactor, filter, () -> {
+            final HashTable<Student> table = fullTable(data, expected);
+            return () -> {
+                int count = 0;
+                Iterator<Student> iter = table.iterator();
+                while(iter.hasNext()) {
+                    sink += iter.next().hashCode();
+                    count++;
+                }
+                return count;
+            };
+        });
+        measure("HashTable.forEach", size, loadFactor, filter, () -> {
+            final HashTable<Student> table = fullTable(data, expected);
+            return () -> {
+                final long[] total = new long[1];
+                table.forEach(student -> total[0] += student.hashCode());
+                sink += total[0];
+                return table.elementCount();
+            };
+        });
+        measure("HashTable.parallelStream", size, loadFactor, filter, () -> {
+            final HashTable<Student> table = fullTable(data, expected);
+            return () -> {
+                sink += table.stream().parallel()
+                 .mapToLong(Student::hashCode).sum();
+                return table.elementCount();
+            };
+        });
+        measure("HashTable.elementCount", size, loadFactor, filter, () -> {
+            final HashTable<Student> table = fullTable(data, expected);
+            return () -> {
+                for(int i = 0; i < REPEATS; i++) {
+                    sink += table.elementCount();
+                }
+                return REPEATS;
+            };
+        });
+        measure("HashTable.isEmpty", size, loadFactor, filter, () -> {
+            final HashTable<Student> table = fullTable(data, expected);
+            return () -> {
+                for(int i = 0; i < REPEATS; i++) {
+                    if(table.isEmpty()) sink++;
+                }
+                return REPEATS;
+            };
+        });
+    }
+
+    private static int findAll(HashTable<Student> table, Student[] keys) {
+        int found = 0;
+        for(Student key : keys) {
+            if(table.find(key) != null) found++;
+        }
+        sink += found;
+        return keys.length;
+    }
+
+    //builds a LongKeyedHashTable holding every student in data
+    private static LongKeyedHashTable fullLongKeyed(Data data, int expected) {
+        LongKeyedHashTable table = new LongKeyedHashTable(expected);
+        for(Student student : data.students) {
+            table.insert(student.getId(), student.getLastName());
+        }
+        return table;
+    }
+
+    private static void runLongKeyed(final Data data, int size,
+     double loadFactor, String filter) {
+        final int expected = presize(size, loadFactor);
+
+        measure("LongKeyed.insert", size, loadFactor, filter, () -> {
+            final LongKeyedHashTable table = new LongKeyedHashTable(expected);
+            return () -> {
+                int inserted = 0;
+                for(Student student : data.students) {
+                    if(table.insert(student.getId(), student.getLastName())) {
+                        inserted++;
+                    }
+                }
+                sink += inserted;
+                return data.students.length;
+            };
+        });
+        measure("LongKeyed.findHit", size, loadFactor, filter, () -> {
+            final LongKeyedHashTable table = fullLongKeyed(data, expected);
+            return () -> findAll(table, data.hitIds);
+        });
+        measure("LongKeyed.findMiss", size, loadFactor, filter, () -> {
+            final LongKeyedHashTable table = fullLongKeyed(data, expected);
+            return () -> findAll(table, data.missIds);
+        });
+        measure("LongKeyed.delete", size, loadFactor, filter, () -> {
+            final LongKeyedHashTable table = fullLongKeyed(data, expected);
+            return () -> {
+                int deleted = 0;
+                for(long id : data.hitIds) {
+                    if(table.delete(id)) deleted++;
+                }
+                sink += deleted;
+                return data.hitIds.length;
+            };
+        });
+    }
+
+    private static int findAll(LongKeyedHashTable table, long[] ids) {
+        int found = 0;
+        for(long id : ids) {
+            if(table.find(id) != null) found++;
+        }
+        sink += found;
+        return ids.length;
+    }
+
+    //inserts into tables that start tiny, so the time is dominated by
+    //repeated rehashing
+    private static void runGrowth(final Data data, int size, String filter) {
+        measure("HashTable.rehashGrowth", size, 0, filter, () -> {
+            final HashTable<Student> table = new HashTable<Student>(1);
+            return () -> {
+                for(Student student : data.students) {
+                    table.insert(student);
+                }
+                return data.students.length;
+            };
+        });
+        measure("HashTable.incrementalGrowth", size, 0, filter, () -> {
+            final HashTable<Student> table = new HashTable<Student>(1);
+            table.setIncrementalResize(true);
+            return () -> {
+                for(Student student : data.students) {
+                    table.insert(student);
+                }
+                return data.students.length;
+            };
+        });
+        measure("LongKeyed.rehashGrowth", size, 0, filter, () -> {
+            final LongKeyedHashTable table = new LongKeyedHashTable(1);
+            return () -> {
+                for(Student student : data.students) {
+                    table.insert(student.getId(), student.getLastName());
+                }
+                return data.students.length;
+            };
+        });
+    }
+
+    //batch operations on cold tables that start tiny, to compare with
+    //rehashGrowth's one-at-a-time inserts
+    private static void runBulk(final Data data, int size, String filter) {
+        measure("HashTable.insertAll", size, 0, filter, () -> {
+            final HashTable<Student> table = new HashTable<Student>(1);
+            return () -> {
+                sink += table.insertAll(data.students);
+                return data.students.length;
+            };
+        });
+        measure("HashTable.findAll", size, 0.45, filter, () -> {
+            final HashTable<Student> table = fullTable(data, presize(size, 0.45));
+            final Student[] results = new Student[data.hitKeys.length];
+            return () -> {
+                sink += table.findAll(data.hitKeys, results);
+                return data.hitKeys.length;
+            };
+        });
+        measure("LongKeyed.insertAll", size, 0, filter, () -> {
+            final LongKeyedHashTable table = new LongKeyedHashTable(1);
+            final long[] ids = new long[data.students.length];
+            final String[] names = new String[data.students.length];
+            for(int i = 0; i < ids.length; i++) {
+                ids[i] = data.students[i].getId();
+                names[i] = data.students[i].getLastName();
+            }
+            return () -> {
+                sink += table.insertAll(ids, names);
+                return ids.length;
+            };
+        });
+        measure("LongKeyed.findAll", size, 0.45, filter, () -> {
+            final LongKeyedHashTable table =
+             fullLongKeyed(data, presize(size, 0.45));
+            final String[] results = new String[data.hitIds.length];
+            return () -> {
+                sink += table.findAll(data.hitIds, results);
+                return data.hitIds.length;
+            };
+        });
+    }
+
+    //delete has compacted the table ever since deleted cells got a
+    //threshold, so piling them up needs compaction turned off. Filled to
+    //TOMBSTONE_LOAD, churning 1.2 times the live count leaves about 0.24
+    //of the cells deleted, more than are live, without filling the table.
+    private static void runTombstones(final Data data, int size,
+     String filter) {
+        final int expected = presize(size, TOMBSTONE_LOAD);
+        measure("HashTable.findTombstones", size, TOMBSTONE_LOAD, filter, () -> {
+            HashTable<Student> table = fullTable(data, expected, NO_COMPACTION);
+            Student[] live = data.students.clone();
+            churn(table, live, size + size / 5);
+            final HashTable<Student> churned = table;
+            final Student[] keys = live;
+            return () -> findAll(churned, keys);
+        });
+        //the steady state cost of deleting and inserting, with the
+        //compactions that go with it
+        measure("HashTable.churn", size, TOMBSTONE_LOAD, filter, () -> {
+            final HashTable<Student> table = fullTable(data, expected);
+            final Student[] live = data.students.clone();
+            return () -> churn(table, live, live.length);
+        });
+        measure("HashTable.churnNoCompact", size, TOMBSTONE_LOAD, filter, () -> {
+            final HashTable<Student> table =
+             fullTable(data, expected, NO_COMPACTION);
+            final Student[] live = data.students.clone();
+            return () -> churn(table, live, live.length);
+        });
+    }
+
+    //deletes count students from live, going round it, and inserts each
+    //one back under a new id. ids move up by 4 billion each time, past any
+    //id Data makes or an earlier lap used. returns count.
+    private static int churn(HashTable<Student> table, Student[] live,
+     int count) {
+        for(int n = 0; n < count; n++) {
+            int i = n % live.length;
+            table.delete(live[i]);
+            live[i] = new Student(live[i].getId() + 4000000000L, "Churn");
+            table.insert(live[i]);
+        }
+        sink += table.elementCount();
+        return count;
+    }
+
+    //the fuller tables, each filled as far as it allows before growing
+    private static void runHighLoad(final Data data, int size, String filter) {
+        measure("Triangular.insert", size, 0.75, filter, () -> {
+            final HashTable<Student> table =
+             new HashTable<Student>(size, ProbingStrategy.TRIANGULAR);
+            return () -> {
+                for(Student student : data.students) {
+                    table.insert(student);
+                }
+                return data.students.length;
+            };
+        });
+        measure("Triangular.findHit", size, 0.75, filter, () -> {
+            final HashTable<Student> table =
+             new HashTable<Student>(size, ProbingStrategy.TRIANGULAR);
+            for(Student student : data.students) table.insert(student);
+            return () -> findAll(table, data.hitKeys);
+        });
+        measure("Triangular.findMiss", size, 0.75, filter, () -> {
+            final HashTable<Student> table =
+             new HashTable<Student>(size, ProbingStrategy.TRIANGULAR);
+            for(Student student : data.students) table.insert(student);
+            return () -> findAll(table, data.missKeys);
+        });
+        measure("RobinHood.insert", size, 0.875, filter, () -> {
+            final RobinHoodHashTable<Student> table =
+             new RobinHoodHashTable<Student>(size);
+            return () -> {
+                for(Student student : data.students) {
+                    table.insert(student);
+                }
+                return data.students.length;
+            };
+        });
+        measure("RobinHood.findHit", size, 0.875, filter, () -> {
+            final RobinHoodHashTable<Student> table = fullRobinHood(data);
+            return () -> findAll(table, data.hitKeys);
+        });
+        measure("RobinHood.findMiss", size, 0.875, filter, () -> {
+            final RobinHoodHashTable<Student> table = fullRobinHood(data);
+            return () -> findAll(table, data.missKeys);
+        });
+        measure("RobinHood.delete", size, 0.875, filter, () -> {
+            final RobinHoodHashTable<Student> table = fullRobinHood(data);
+            return () -> {
+                for(Student key : data.hitKeys) {
+                    table.delete(key);
+                }
+                return data.hitKeys.length;
+            };
+        });
+    }
+
+    private static RobinHoodHashTable<Student> fullRobinHood(Data data) {
+        RobinHoodHashTable<Student> table =
+         new RobinHoodHashTable<Student>(data.students.length);
+        for(Student student : data.students) {
+            table.insert(student);
+        }
+        return table;
+    }
+
+    private static int findAll(RobinHoodHashTable<Student> table,
+     Student[] keys) {
+        int found = 0;
+        for(Student key : keys) {
+            if(table.find(key) != null) found++;
+        }
+        sink += found;
+        return keys.length;
+    }
+
+    private static void runJavaUtil(final Data data, int size, String filter) {
+        measure("HashSet.insert", size, 0.75, filter, () -> {
+            final HashSet<Student> set = new HashSet<Student>();
+            return () -> {
+                for(Student student : data.students) {
+                    set.add(student);
+                }
+                return data.students.length;
+            };
+        });
+        measure("HashSet.findHit", size, 0.75, filter, () -> {
+            final HashSet<Student> set = new HashSet<Student>();
+            for(Student student : data.students) set.add(student);
+            return () -> {
+                int found = 0;
+                for(Student key : data.hitKeys) {
+                    if(set.contains(key)) found++;
+                }
+                sink += found;
+                return data.hitKeys.length;
+            };
+        });
+        measure("HashSet.delete", size, 0.75, filter, () -> {
+            final HashSet<Student> set = new HashSet<Student>();
+            for(Student student : data.students) set.add(student);
+            return () -> {
+                for(Student key : data.hitKeys) {
+                    set.remove(key);
+                }
+                return data.hitKeys.length;
+            };
+        });
+        measure("HashMap.findHit", size, 0.75, filter, () -> {
+            final HashMap<Long, Student> map = new HashMap<Long, Student>();
+            for(Student student : data.students) {
+                map.put(student.getId(), student);
+            }
+            return () -> {
+                int found = 0;
+                for(long id : data.hitIds) {
+                    if(map.get(id) != null) found++;
+                }
+                sink += found;
+                return data.hitIds.length;
+            };
+        });
+    }
+
+    //runs a scenario's warmup and measured rounds and prints the average
+    //time per operation over the measured rounds
+    private static void measure(String name, int size, double loadFactor,
+     String filter, Scenario scenario) {
+        if(!name.contains(filter)) return;
+
+        for(int round = 0; round < WARMUP_ROUNDS; round++) {
+            scenario.prepare().run();
+        }
+        long totalNanos = 0;
+        long totalOps = 0;
+        for(int round = 0; round < MEASURED_ROUNDS; round++) {
+            Workload workload = scenario.prepare();
+            long start = System.nanoTime();
+            totalOps += workload.run();
+            totalNanos += System.nanoTime() - start;
+        }
+        System.out.printf("%-28s %10d %6.2f %14.1f%n", name, size, loadFactor,
+         (double)totalNanos / totalOps);
+    }
+}
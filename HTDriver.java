@@ -1,11 +1,20 @@
+import java.util.List;
 import java.util.Scanner;
 import java.util.NoSuchElementException;
-import java.io.FileNotFoundException;
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * @author Daniel Johnson, Jonathon Elfar
  * Provides a text user interface for interacting with a HashTable of Students.
+ *
+ * Usage: java HTDriver [logDirectory]
+ * With a log directory, changes made with a, d and k are logged there
+ * through a DurableHashTable and survive restarts. If the directory already
+ * holds a table, it's reopened instead of asking for an input file.
  */
 public class HTDriver {
     /**
@@ -16,24 +25,64 @@ public class HTDriver {
 
         //make our scanner and table
         Scanner sc = new Scanner(System.in);
-        HashTable table = null;
+        HashTable<Student> table = null;
+        //changes go through this instead of table when we're logging them
+        DurableHashTable durable = null;
+        Path logDirectory = null;
+        if(args.length > 0) {
+            try {
+                logDirectory = Paths.get(args[0]);
+            } catch (InvalidPathException e) {
+                System.out.println("Invalid log directory: " + args[0]);
+                System.exit(1);
+            }
+        }
+
+        //reopen the logged table if there is one
+        if(logDirectory != null && DurableHashTable.exists(logDirectory)) {
+            try {
+                durable = DurableHashTable.open(logDirectory);
+                table = durable.table();
+                System.out.println("Recovered " + table.elementCount()
+                 + " students from " + logDirectory + ".");
+            } catch (IOException e) {
+                System.out.println("Could not recover the table: "
+                 + e.getMessage());
+                System.exit(1);
+            }
+        }
 
         //repeatedly try to load the input file until it's successful
         while(table == null) {
             System.out.println("What is the name of the input file? ");
             try {
-                table = loadFile(new File(sc.nextLine()));
+                table = loadFile(sc.nextLine());
             } catch (LoadFileException e) {
                 System.out.println(e.getMessage());
             }
         }
 
+        //start logging from what we loaded
+        if(durable == null && logDirectory != null) {
+            try {
+                durable = DurableHashTable.create(logDirectory, table);
+            } catch (IOException e) {
+                System.out.println("Could not create the log: "
+                 + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        //look students up by last name without scanning the table
+        StudentNameIndex nameIndex = new StudentNameIndex(table);
+
         //Present menu
         System.out.println();
         System.out.println("Choose one of the following operations:");
         System.out.println("a - add the element");
         System.out.println("d - delete the element");
         System.out.println("f - find and retrieve the element");
+        System.out.println("s - search by last name (end with * for a prefix)");
         System.out.println("n - get the number of elements in the collection");
         System.out.println("e - check if the collection is empty");
         System.out.println("k - make the hash table empty");
@@ -54,7 +103,7 @@ public class HTDriver {
                     case 'a':
                         //insert student
                         System.out.print("Enter a student record: ");
-                        if(!insertStudent(table,sc.nextLine()))
+                        if(!insertStudent(table, durable, sc.nextLine()))
                             System.out.println("Student alreay exists.");
                         else
                             System.out.println("Student successfully inserted.");
@@ -62,7 +111,9 @@ public class HTDriver {
                     case 'd':
                         //delete student
                         System.out.print("Enter an id: ");
-                        if(!table.delete(makeSearchStudent(sc.nextLine()))) 
+                        Student search = makeSearchStudent(sc.nextLine());
+                        if(!(durable == null ? table.delete(search)
+                         : durable.delete(search)))
                             System.out.println("Student not found.");
                         else
                             System.out.println("Student deleted.");
@@ -70,7 +121,7 @@ public class HTDriver {
                     case 'f':
                         //find student
                         System.out.print("Enter an id: ");
-                        Student foundStudent = (Student)table.find(
+                        Student foundStudent = table.find(
                          makeSearchStudent(sc.nextLine()));
                         //table.find returns null if no student was found
                         if(foundStudent != null) {
@@ -80,6 +131,22 @@ public class HTDriver {
                             System.out.println("No student found.");
                         }
                         break;
+                    case 's':
+                        //search by last name
+                        System.out.print("Enter a last name: ");
+                        String name = sc.nextLine().trim();
+                        List<Student> matches = name.endsWith("*")
+                         ? nameIndex.findPrefix(
+                          name.substring(0, name.length() - 1))
+                         : nameIndex.find(name);
+                        if(matches.isEmpty()) {
+                            System.out.println("No student found.");
+                        } else {
+                            for(Student student : matches) {
+                                System.out.println(student);
+                            }
+                        }
+                        break;
                     case 'n':
                         System.out.println("Number of elements: "
                          + table.elementCount());
@@ -92,7 +159,11 @@ public class HTDriver {
                         }
                         break;
                     case 'k':
-                        table.makeEmpty();
+                        if(durable == null) {
+                            table.makeEmpty();
+                        } else {
+                            durable.makeEmpty();
+                        }
                         System.out.println("Table is now empty.");
                         break;
                     case 'p':
@@ -108,49 +179,62 @@ public class HTDriver {
             } catch(InvalidStudentException e) {
                 //if any of the input was invalid, display the specified message.
                 System.out.println(e.getMessage());
+            } catch(DurableHashTable.UnloggedChangeException e) {
+                //the table changed, but a restart won't see it
+                System.out.println(e.getMessage());
+            } catch(IOException e) {
+                //the table refused the change before making it
+                System.out.println("The change was not made: "
+                 + e.getMessage());
+            } catch(IllegalStateException e) {
+                //the table refused a student it can't find room for
+                System.out.println("Student not inserted: " + e.getMessage());
             }
             System.out.println();
             System.out.print("Choose an operation: ");
         }
+        if(durable != null) {
+            try {
+                durable.close();
+            } catch (IOException e) {
+                System.out.println("Could not close the log: "
+                 + e.getMessage());
+            }
+        }
         System.out.println("Thank you for being such a great user ;)");
     }
 
     //Loads student records from a file and returns a HashTable containing them
     //It will throw a LoadFileException if anything goes wrong.
-    private static HashTable loadFile(File file) throws LoadFileException {
+    private static HashTable<Student> loadFile(String fileName)
+     throws LoadFileException {
         try {
-            //make a scanner for the file
-            Scanner fileScanner = new Scanner(file);
-            //get the number of students to import
-            int collectionSize = fileScanner.nextInt();
-            fileScanner.nextLine(); //clear the buffer
-            //create a new table with the specified size
-            HashTable table = new HashTable(collectionSize);
-            //read student objects from file. loop until we hit the end of the
-            //file, or until we've read the specified number of records
-            for(int i=0;i<collectionSize&&fileScanner.hasNextLine();i++) {
-                //insert each student
-                try {
-                    insertStudent(table,fileScanner.nextLine());
-                } catch(InvalidStudentException e) {} //ignore invalid students
-            }
-            return table; //finally return the table
-        }
-        catch (FileNotFoundException e) {
+            //StudentLoader reads the collection size from the first line,
+            //then parses the records in parallel
+            StudentLoader.Result result =
+             new StudentLoader().load(Paths.get(fileName));
+            System.out.println("Loaded " + result.getAccepted()
+             + " students (" + result.getDuplicates() + " duplicates, "
+             + result.getRejected() + " invalid records skipped).");
+            return result.getTable();
+        } catch (NoSuchFileException | InvalidPathException e) {
             //if something goes wrong, throw an exception with what went wrong
             throw new LoadFileException("File not found.");
-        } catch (NoSuchElementException e) {
-            throw new LoadFileException(
-             "First line must contain collection size.");
+        } catch (StudentLoader.FormatException e) {
+            throw new LoadFileException(e.getMessage());
+        } catch (IOException e) {
+            throw new LoadFileException("Could not read file.");
         }
     }
     //exception for the above method
     private static class LoadFileException extends Exception {
         public LoadFileException(String message) {super(message);}
     }
-    //parses student record string "line" and inserts a Student into "table"
-    private static boolean insertStudent(HashTable table, String line)
-     throws InvalidStudentException {
+    //parses student record string "line" and inserts a Student into "table",
+    //or through "durable" if it isn't null
+    private static boolean insertStudent(HashTable<Student> table,
+     DurableHashTable durable, String line)
+     throws InvalidStudentException, IOException {
         try {
             //scan the string they passed us
             Scanner lineScanner = new Scanner(line);
@@ -160,7 +244,9 @@ public class HTDriver {
             //if the id is valid (larger than 0) and the we've read the full
             //string, then insert the student and return
             if(!lineScanner.hasNext() && id > 0) {
-                return table.insert(new Student(id, name));
+                Student student = new Student(id, name);
+                return durable == null ? table.insert(student)
+                 : durable.insert(student);
             }
             //otherwise, we'll not return and throw an exception
         } catch(NoSuchElementException e) {} //stop if the string is invalid
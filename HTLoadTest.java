@@ -0,0 +1,748 @@
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A non-interactive load generator for the hash tables. Runs a mix of
+ * finds, inserts and deletes of Students from several threads for a fixed
+ * time, with IDs drawn from a Zipfian distribution so a few students are
+ * much more popular than the rest, the way real lookups tend to be. Every
+ * operation is timed, and the latencies go into histograms that keep about
+ * two significant digits at any scale, like HdrHistogram, so rare slow
+ * operations like a rehash show up in the high percentiles instead of
+ * being averaged away.
+ *
+ * Results are written per interval, so throughput and latency can be
+ * followed over the run, followed by totals for the whole run, as CSV or
+ * JSON. Each row repeats the configuration, so results from different
+ * runs can be concatenated and compared.
+ *
+ * The tables other than ConcurrentHashTable aren't thread safe, so they are
+ * run behind a single lock. Threads run closed loop, each starting its next
+ * operation as soon as the last one finishes, so latencies are service
+ * times, not response times under a fixed arrival rate.
+ *
+ * Usage: java HTLoadTest [option=value ...]
+ *   table=NAME       hashtable, incremental, triangular, robinhood,
+ *                    longkeyed or concurrent (default concurrent)
+ *   threads=N        worker threads (default the number of processors)
+ *   duration=S       measured seconds (default 10)
+ *   warmup=S         seconds run before measuring (default 2)
+ *   interval=S       seconds per reported interval (default 1)
+ *   mix=R:I:D        relative weights of finds, inserts and deletes
+ *                    (default 90:5:5)
+ *   keys=N           how many distinct student IDs are used (default 1000000)
+ *   prefill=N        how many of them are inserted before starting
+ *                    (default half of keys)
+ *   zipf=S           Zipf exponent, 0 for uniform, under 1 (default 0.99)
+ *   seed=N           random seed (default 1)
+ *   format=F         csv or json (default csv)
+ *   out=FILE         where to write results (default standard output)
+ */
+public class HTLoadTest {
+
+    //the kinds of operation, as indexes into per operation arrays
+    private static final int FIND = 0;
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+    private static final String[] OP_NAMES = {"find", "insert", "delete"};
+    //the percentiles reported for every histogram
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final String[] TABLES = {"hashtable", "incremental",
+     "triangular", "robinhood", "longkeyed", "concurrent"};
+
+    //the settings of one run
+    private static class Config {
+        String table = "concurrent";
+        int threads = Runtime.getRuntime().availableProcessors();
+        double duration = 10;
+        double warmup = 2;
+        double interval = 1;
+        int[] mix = {90, 5, 5};
+        int keys = 1000000;
+        int prefill = -1;
+        double zipf = 0.99;
+        long seed = 1;
+        String format = "csv";
+        String out = null;
+
+        //parses one option=value argument
+        void set(String arg) {
+            int eq = arg.indexOf('=');
+            if(eq < 0) {
+                throw new IllegalArgumentException("Expected option=value: "
+                 + arg);
+            }
+            String name = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            switch(name) {
+                case "table": table = value; break;
+                case "threads": threads = Integer.parseInt(value); break;
+                case "duration": duration = Double.parseDouble(value); break;
+                case "warmup": warmup = Double.parseDouble(value); break;
+                case "interval": interval = Double.parseDouble(value); break;
+                case "mix": mix = parseMix(value); break;
+                case "keys": keys = Integer.parseInt(value); break;
+                case "prefill": prefill = Integer.parseInt(value); break;
+                case "zipf": zipf = Double.parseDouble(value); break;
+                case "seed": seed = Long.parseLong(value); break;
+                case "format": format = value; break;
+                case "out": out = value; break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: "
+                     + name);
+            }
+        }
+
+        //checks the settings make sense together, once all are set
+        void validate() {
+            if(!Arrays.asList(TABLES).contains(table)) {
+                throw new IllegalArgumentException("Unknown table: " + table);
+            }
+            if(threads < 1) {
+                throw new IllegalArgumentException("threads must be positive");
+            }
+            if(!(duration > 0 && interval > 0 && warmup >= 0)) {
+                throw new IllegalArgumentException(
+                 "duration and interval must be positive");
+            }
+            if(keys < 1) {
+                throw new IllegalArgumentException("keys must be positive");
+            }
+            if(prefill < 0) prefill = keys / 2;
+            if(prefill > keys) {
+                throw new IllegalArgumentException(
+                 "prefill can't be more than keys");
+            }
+            if(!(zipf >= 0 && zipf < 1)) {
+                throw new IllegalArgumentException(
+                 "zipf must be at least 0 and under 1");
+            }
+            if(!format.equals("csv") && !format.equals("json")) {
+                throw new IllegalArgumentException(
+                 "format must be csv or json");
+            }
+        }
+
+        String mixString() {
+            return mix[FIND] + ":" + mix[INSERT] + ":" + mix[DELETE];
+        }
+    }
+
+    private static int[] parseMix(String value) {
+        String[] parts = value.split(":");
+        if(parts.length != 3) {
+            throw new IllegalArgumentException(
+             "mix must be finds:inserts:deletes");
+        }
+        int[] mix = new int[3];
+        for(int i = 0; i < 3; i++) {
+            mix[i] = Integer.parseInt(parts[i]);
+            if(mix[i] < 0) {
+                throw new IllegalArgumentException("mix can't be negative");
+            }
+        }
+        if(mix[FIND] + mix[INSERT] + mix[DELETE] == 0) {
+            throw new IllegalArgumentException("mix can't be all zeros");
+        }
+        return mix;
+    }
+
+    /**
+     * Parses the options, runs the load test and writes the results.
+     */
+    public static void main(String[] args) {
+        Config config = new Config();
+        try {
+            for(String arg : args) {
+                config.set(arg);
+            }
+            config.validate();
+        } catch (IllegalArgumentException e) {
+            //NumberFormatException is one of these too
+            System.err.println(e.getMessage());
+            System.err.println("Usage: java HTLoadTest [option=value ...]");
+            System.err.println("See the class comment for the options.");
+            System.exit(1);
+        }
+
+        List<Result> intervals;
+        try {
+            intervals = run(config);
+        } catch (InterruptedException e) {
+            System.err.println("Interrupted");
+            return;
+        }
+
+        PrintStream out = System.out;
+        if(config.out != null) {
+            try {
+                out = new PrintStream(config.out);
+            } catch (FileNotFoundException e) {
+                System.err.println("Can't write " + config.out + ": "
+                 + e.getMessage());
+                System.exit(1);
+            }
+        }
+        Result total = new Result(-1);
+        for(Result interval : intervals) {
+            total.add(interval);
+        }
+        if(config.format.equals("csv")) {
+            writeCsv(out, config, intervals, total);
+        } else {
+            writeJson(out, config, intervals, total);
+        }
+        out.flush();
+        if(out != System.out) out.close();
+    }
+
+    //fills the table, runs the workers for warmup and duration, and returns
+    //the measured intervals in order
+    private static List<Result> run(Config config)
+     throws InterruptedException {
+        Zipf zipf = new Zipf(config.keys, config.zipf);
+        Student[] students = makeStudents(config.keys, config.seed);
+        Target target = createTarget(config.table, config.keys);
+        //insert the students of the lowest ranks, the most popular ones, so
+        //most finds hit to begin with
+        for(int rank = 0; rank < config.prefill; rank++) {
+            target.insert(students[rank]);
+        }
+
+        long intervalNanos = (long)(config.interval * 1e9);
+        long start = System.nanoTime();
+        long measureStart = start + (long)(config.warmup * 1e9);
+        long end = measureStart + (long)(config.duration * 1e9);
+        Worker[] workers = new Worker[config.threads];
+        for(int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(target, students, zipf, config.mix,
+             new SplittableRandom(config.seed * 31 + i), measureStart, end,
+             intervalNanos);
+            workers[i].start();
+        }
+        for(Worker worker : workers) {
+            worker.join();
+        }
+
+        //merge every worker's interval results by interval number
+        int count = (int)((end - measureStart + intervalNanos - 1)
+         / intervalNanos);
+        List<Result> intervals = new ArrayList<Result>();
+        for(int i = 0; i < count; i++) {
+            Result merged = new Result(i);
+            merged.startNanos = i * intervalNanos;
+            merged.endNanos = Math.min((i + 1) * intervalNanos,
+             end - measureStart);
+            intervals.add(merged);
+        }
+        for(Worker worker : workers) {
+            if(worker.failure != null) {
+                throw new IllegalStateException("Worker failed",
+                 worker.failure);
+            }
+            for(Result result : worker.results) {
+                intervals.get(result.interval).add(result);
+            }
+        }
+        return intervals;
+    }
+
+    //students for every key, with IDs shuffled across ranks so popular
+    //students aren't all next to each other in ID order
+    private static Student[] makeStudents(int keys, long seed) {
+        long[] ids = new long[keys];
+        for(int i = 0; i < keys; i++) {
+            ids[i] = 100000 + i;
+        }
+        Random random = new Random(seed);
+        for(int i = keys - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long temp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = temp;
+        }
+        Student[] students = new Student[keys];
+        for(int i = 0; i < keys; i++) {
+            students[i] = new Student(ids[i], "Name" + (i % 1000));
+        }
+        return students;
+    }
+
+    //a table under test. returns whether each operation found, inserted or
+    //deleted the student.
+    private interface Target {
+        boolean find(Student student);
+        boolean insert(Student student);
+        boolean delete(Student student);
+    }
+
+    private static Target createTarget(String name, int keys) {
+        switch(name) {
+            case "hashtable":
+                return locked(new HashTable<Student>(keys));
+            case "incremental": {
+                HashTable<Student> table = new HashTable<Student>(keys);
+                table.setIncrementalResize(true);
+                return locked(table);
+            }
+            case "triangular":
+                return locked(new HashTable<Student>(keys,
+                 ProbingStrategy.TRIANGULAR));
+            case "robinhood": {
+                RobinHoodHashTable<Student> table =
+                 new RobinHoodHashTable<Student>(keys);
+                return new Target() {
+                    public synchronized boolean find(Student s) {
+                        return table.find(s) != null;
+                    }
+                    public synchronized boolean insert(Student s) {
+                        return table.insert(s);
+                    }
+                    public synchronized boolean delete(Student s) {
+                        return table.delete(s);
+                    }
+                };
+            }
+            case "longkeyed": {
+                LongKeyedHashTable table = new LongKeyedHashTable(keys);
+                return new Target() {
+                    public synchronized boolean find(Student s) {
+                        return table.contains(s.getId());
+                    }
+                    public synchronized boolean insert(Student s) {
+                        return table.insert(s.getId(), s.getLastName());
+                    }
+                    public synchronized boolean delete(Student s) {
+                        return table.delete(s.getId());
+                    }
+                };
+            }
+            default: {
+                ConcurrentHashTable<Student> table =
+                 new ConcurrentHashTable<Student>(keys);
+                return new Target() {
+                    public boolean find(Student s) {
+                        return table.find(s) != null;
+                    }
+                    public boolean insert(Student s) {
+                        return table.insert(s);
+                    }
+                    public boolean delete(Student s) {
+                        return table.delete(s);
+                    }
+                };
+            }
+        }
+    }
+
+    //a HashTable behind a lock
+    private static Target locked(HashTable<Student> table) {
+        return new Target() {
+            public synchronized boolean find(Student s) {
+                return table.find(s) != null;
+            }
+            public synchronized boolean insert(Student s) {
+                return table.insert(s);
+            }
+            public synchronized boolean delete(Student s) {
+                return table.delete(s);
+            }
+        };
+    }
+
+    //runs operations until end, keeping a Result per interval
+    private static class Worker extends Thread {
+        private final Target target;
+        private final Student[] students;
+        private final Zipf zipf;
+        //running totals of the mix, to pick operations with one draw
+        private final int findBelow;
+        private final int insertBelow;
+        private final int mixTotal;
+        private final SplittableRandom random;
+        private final long measureStart;
+        private final long end;
+        private final long intervalNanos;
+        final List<Result> results = new ArrayList<Result>();
+        volatile Throwable failure;
+
+        Worker(Target target, Student[] students, Zipf zipf, int[] mix,
+         SplittableRandom random, long measureStart, long end,
+         long intervalNanos) {
+            this.target = target;
+            this.students = students;
+            this.zipf = zipf;
+            findBelow = mix[FIND];
+            insertBelow = mix[FIND] + mix[INSERT];
+            mixTotal = insertBelow + mix[DELETE];
+            this.random = random;
+            this.measureStart = measureStart;
+            this.end = end;
+            this.intervalNanos = intervalNanos;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                work();
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+
+        private void work() {
+            Result current = null;
+            long now = System.nanoTime();
+            while(now < end) {
+                //-1 while warming up, results of which are thrown away
+                int interval = now < measureStart ? -1
+                 : (int)((now - measureStart) / intervalNanos);
+                if(current == null || current.interval != interval) {
+                    current = new Result(interval);
+                    if(interval >= 0) results.add(current);
+                }
+
+                Student student = students[zipf.next(random)];
+                int pick = random.nextInt(mixTotal);
+                int op;
+                boolean success;
+                long before = System.nanoTime();
+                if(pick < findBelow) {
+                    op = FIND;
+                    success = target.find(student);
+                } else if(pick < insertBelow) {
+                    op = INSERT;
+                    success = target.insert(student);
+                } else {
+                    op = DELETE;
+                    success = target.delete(student);
+                }
+                now = System.nanoTime();
+                current.record(op, now - before, success);
+            }
+        }
+    }
+
+    //what happened in one interval, for one worker or merged over all
+    private static class Result {
+        //which interval this is, or -1 for the whole run
+        final int interval;
+        //when the interval starts and ends, relative to the start of
+        //measuring. only set on merged results.
+        long startNanos;
+        long endNanos;
+        final Histogram[] latencies = new Histogram[OP_NAMES.length];
+        //how many operations of each kind found, inserted or deleted
+        final long[] successes = new long[OP_NAMES.length];
+
+        Result(int interval) {
+            this.interval = interval;
+            for(int i = 0; i < latencies.length; i++) {
+                latencies[i] = new Histogram();
+            }
+        }
+
+        void record(int op, long nanos, boolean success) {
+            latencies[op].record(nanos);
+            if(success) successes[op]++;
+        }
+
+        void add(Result other) {
+            for(int i = 0; i < latencies.length; i++) {
+                latencies[i].add(other.latencies[i]);
+                successes[i] += other.successes[i];
+            }
+            endNanos = Math.max(endNanos, other.endNanos);
+        }
+
+        //all operations' latencies together
+        Histogram all() {
+            Histogram all = new Histogram();
+            for(Histogram histogram : latencies) {
+                all.add(histogram);
+            }
+            return all;
+        }
+    }
+
+    /**
+     * A latency histogram with a fixed relative precision, like
+     * HdrHistogram's. Values below 128 each get a bucket, and every power
+     * of two above that is split into 64 buckets, so any recorded value is
+     * reported within 1/64 of what it was, from nanoseconds to centuries,
+     * in under 4000 buckets. Recording is an array increment, and
+     * histograms can be added together.
+     */
+    static class Histogram {
+        //values below 2^SUB_BITS get a bucket each, and each power of two
+        //above that is split into 2^(SUB_BITS - 1) buckets
+        private static final int SUB_BITS = 7;
+        private static final int HALF = 1 << (SUB_BITS - 1);
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * HALF;
+
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long min = Long.MAX_VALUE;
+        private long max;
+        private long sum;
+
+        /**
+         * Records one value.
+         * @param value The value to record. Negative values count as 0.
+         */
+        void record(long value) {
+            if(value < 0) value = 0;
+            counts[bucket(value)]++;
+            count++;
+            sum += value;
+            if(value < min) min = value;
+            if(value > max) max = value;
+        }
+
+        //the bucket value falls in
+        private static int bucket(long value) {
+            if(value < 2 * HALF) return (int)value;
+            //shift the value down so its top SUB_BITS bits are left,
+            //which are between HALF and 2 * HALF, and count one group of
+            //HALF buckets per bit shifted out
+            int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return (shift + 1) * HALF + (int)(value >>> shift) - HALF;
+        }
+
+        //the largest value that falls in bucket
+        private static long highestIn(int bucket) {
+            if(bucket < 2 * HALF) return bucket;
+            int shift = bucket / HALF - 1;
+            long top = bucket % HALF + HALF;
+            return ((top + 1) << shift) - 1;
+        }
+
+        /**
+         * Adds every value recorded in other to this histogram.
+         * @param other The histogram to add
+         */
+        void add(Histogram other) {
+            for(int i = 0; i < BUCKETS; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * Returns the value that percentile percent of the recorded values
+         * are at or below, rounded up to the top of its bucket but never
+         * above the largest recorded value.
+         * @param percentile The percentile, from 0 to 100
+         * @return The value at percentile, or 0 if nothing was recorded
+         */
+        long valueAt(double percentile) {
+            if(count == 0) return 0;
+            long rank = Math.max(1, (long)Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for(int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if(seen >= rank) return Math.min(highestIn(i), max);
+            }
+            return max;
+        }
+
+        long count() {
+            return count;
+        }
+
+        long min() {
+            return count == 0 ? 0 : min;
+        }
+
+        long max() {
+            return max;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double)sum / count;
+        }
+    }
+
+    /**
+     * Draws ranks from 0 up to but not including n with a Zipfian
+     * distribution, where rank k is drawn in proportion to 1 / (k + 1)^s,
+     * using the method from Gray et al., "Quickly Generating Billion-Record
+     * Synthetic Databases". Setup sums n terms, and each draw is constant
+     * time. An exponent of 0 is uniform.
+     */
+    static class Zipf {
+        private final int n;
+        private final double theta;
+        private final double zetaN;
+        private final double alpha;
+        private final double eta;
+        //draws below these pick ranks 0 and 1 directly
+        private final double firstBound;
+        private final double secondBound;
+
+        /**
+         * Sets up a distribution over n ranks.
+         * @param n How many ranks there are
+         * @param theta The exponent, at least 0 and under 1
+         */
+        Zipf(int n, double theta) {
+            this.n = n;
+            this.theta = theta;
+            double zeta = 0;
+            for(int i = 1; i <= n; i++) {
+                zeta += 1 / Math.pow(i, theta);
+            }
+            zetaN = zeta;
+            double zeta2 = 1 + 1 / Math.pow(2, theta);
+            alpha = 1 / (1 - theta);
+            eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetaN);
+            firstBound = 1;
+            secondBound = 1 + Math.pow(0.5, theta);
+        }
+
+        /**
+         * Draws a rank.
+         * @param random Where to get randomness from
+         * @return A rank from 0 up to but not including n
+         */
+        int next(SplittableRandom random) {
+            if(theta == 0) return random.nextInt(n);
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if(uz < firstBound) return 0;
+            if(uz < secondBound && n > 1) return 1;
+            int rank = (int)(n * Math.pow(eta * u - eta + 1, alpha));
+            return Math.min(rank, n - 1);
+        }
+    }
+
+    //columns shared by the csv header and rows
+    private static final String CSV_HEADER = "table,threads,mix,keys,zipf,"
+     + "interval,start_s,end_s,op,ops,ops_per_s,successes,mean_ns,min_ns,"
+     + "p50_ns,p90_ns,p99_ns,p99.9_ns,p99.99_ns,max_ns";
+
+    private static void writeCsv(PrintStream out, Config config,
+     List<Result> intervals, Result total) {
+        out.println(CSV_HEADER);
+        for(Result interval : intervals) {
+            writeCsvRows(out, config, Integer.toString(interval.interval),
+             interval);
+        }
+        writeCsvRows(out, config, "total", total);
+    }
+
+    //one row for all operations, then one per kind of operation
+    private static void writeCsvRows(PrintStream out, Config config,
+     String label, Result result) {
+        String prefix = String.format(Locale.ROOT, "%s,%d,%s,%d,%s,%s,%.3f,%.3f,",
+         config.table, config.threads, config.mixString(), config.keys,
+         config.zipf, label, result.startNanos / 1e9, result.endNanos / 1e9);
+        double seconds = (result.endNanos - result.startNanos) / 1e9;
+        long allSuccesses = 0;
+        for(long successes : result.successes) {
+            allSuccesses += successes;
+        }
+        out.println(prefix + csvStats("all", result.all(), allSuccesses,
+         seconds));
+        for(int op = 0; op < OP_NAMES.length; op++) {
+            out.println(prefix + csvStats(OP_NAMES[op], result.latencies[op],
+             result.successes[op], seconds));
+        }
+    }
+
+    private static String csvStats(String op, Histogram histogram,
+     long successes, double seconds) {
+        StringBuilder row = new StringBuilder();
+        row.append(op).append(',').append(histogram.count()).append(',');
+        row.append(String.format(Locale.ROOT, "%.1f,", histogram.count()
+         / seconds));
+        row.append(successes).append(',');
+        row.append(String.format(Locale.ROOT, "%.1f,", histogram.mean()));
+        row.append(histogram.min());
+        for(double percentile : PERCENTILES) {
+            row.append(',').append(histogram.valueAt(percentile));
+        }
+        row.append(',').append(histogram.max());
+        return row.toString();
+    }
+
+    private static void writeJson(PrintStream out, Config config,
+     List<Result> intervals, Result total) {
+        out.println("{");
+        out.println("  \"config\": {\"table\": \"" + config.table
+         + "\", \"threads\": " + config.threads
+         + ", \"mix\": \"" + config.mixString()
+         + "\", \"keys\": " + config.keys
+         + ", \"prefill\": " + config.prefill
+         + ", \"zipf\": " + config.zipf
+         + ", \"warmup_s\": " + config.warmup
+         + ", \"duration_s\": " + config.duration
+         + ", \"interval_s\": " + config.interval
+         + ", \"seed\": " + config.seed + "},");
+        out.println("  \"intervals\": [");
+        for(int i = 0; i < intervals.size(); i++) {
+            out.print("    " + jsonResult(intervals.get(i)));
+            out.println(i + 1 < intervals.size() ? "," : "");
+        }
+        out.println("  ],");
+        out.println("  \"total\": " + jsonResult(total));
+        out.println("}");
+    }
+
+    private static String jsonResult(Result result) {
+        double seconds = (result.endNanos - result.startNanos) / 1e9;
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT,
+         "{\"start_s\": %.3f, \"end_s\": %.3f, ", result.startNanos / 1e9,
+         result.endNanos / 1e9));
+        long allSuccesses = 0;
+        for(long successes : result.successes) {
+            allSuccesses += successes;
+        }
+        json.append("\"all\": ").append(jsonStats(result.all(), allSuccesses,
+         seconds));
+        for(int op = 0; op < OP_NAMES.length; op++) {
+            json.append(", \"").append(OP_NAMES[op]).append("\": ");
+            json.append(jsonStats(result.latencies[op], result.successes[op],
+             seconds));
+        }
+        return json.append('}').toString();
+    }
+
+    private static String jsonStats(Histogram histogram, long successes,
+     double seconds) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"ops\": ").append(histogram.count());
+        json.append(String.format(Locale.ROOT, ", \"ops_per_s\": %.1f",
+         histogram.count() / seconds));
+        json.append(", \"successes\": ").append(successes);
+        json.append(String.format(Locale.ROOT, ", \"mean_ns\": %.1f",
+         histogram.mean()));
+        json.append(", \"min_ns\": ").append(histogram.min());
+        for(double percentile : PERCENTILES) {
+            json.append(", \"p").append(percentileName(percentile));
+            json.append("_ns\": ").append(histogram.valueAt(percentile));
+        }
+        json.append(", \"max_ns\": ").append(histogram.max());
+        return json.append('}').toString();
+    }
+
+    //50 for 50.0, 99.9 for 99.9
+    private static String percentileName(double percentile) {
+        if(percentile == Math.rint(percentile)) {
+            return Long.toString((long)percentile);
+        }
+        return Double.toString(percentile);
+    }
+}
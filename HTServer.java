@@ -0,0 +1,538 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Serves a HashTable of Students to other programs over a loopback TCP
+ * socket, as a faster way in than HTDriver's menu. One thread runs a
+ * Selector over every connection and does all the work, so the table
+ * needs no locking and is only ever touched from that thread.
+ *
+ * Clients send commands as lines of UTF-8 text and may send as many as
+ * they like without waiting for answers. Responses come back in the same
+ * order. A client that stops reading its responses stops being read from,
+ * rather than having them pile up here: commands already read wait to be
+ * run until its responses drain, and a SCAN's students are taken when it
+ * runs but only written out as fast as the client reads them.
+ *
+ * Protocol: a command is a word and its arguments separated by spaces.
+ * Every response starts with a line that is OK followed by its result, or
+ * ERR followed by a message.
+ *   ADD id name [id name ...]  -> OK and a 1 or 0 per student, for
+ *                                 inserted or already present
+ *   DEL id [id ...]            -> OK and a 1 or 0 per ID, for deleted or
+ *                                 not found
+ *   FIND id [id ...]           -> OK and the number of IDs, then a line per
+ *                                 ID: the ID and name if found, just the ID
+ *                                 if not
+ *   COUNT                      -> OK and the number of students
+ *   SCAN [prefix]              -> OK and the number of students, then a
+ *                                 line of ID and name for each student,
+ *                                 or each whose last name starts with
+ *                                 prefix, in name order. ERR if that's
+ *                                 more than 65536 students, since they're
+ *                                 all taken at once.
+ *   QUIT                       -> OK, then the connection is closed
+ * Commands are case insensitive, IDs are positive, and names can't
+ * contain spaces.
+ *
+ * Usage: java HTServer port inputFile
+ * Loads inputFile like HTDriver and serves it on port (0 picks a free one)
+ * until killed.
+ */
+public class HTServer implements Closeable {
+
+    //the longest command line we'll take
+    private static final int MAX_LINE = 1 << 16;
+    //stop reading from a client once this many bytes of responses are
+    //waiting to be sent to it
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;
+    private static final int READ_BUFFER_SIZE = 1 << 14;
+    //how many of a SCAN's students are written out at a time
+    private static final int SCAN_BATCH = 1024;
+    //the most students a SCAN will take. Taking them holds up every other
+    //client, so a scan of a whole large table is refused rather than
+    //stalling the server for as long as it takes to copy.
+    private static final int MAX_SCAN = 1 << 16;
+
+    private final HashTable<Student> table;
+    private final StudentNameIndex nameIndex;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    //one client's buffers
+    private static class Connection {
+        final SocketChannel channel;
+        //bytes read from the client. Those before consumed have been run,
+        //and those from consumed to scanned hold no end of line.
+        ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        int consumed;
+        int scanned;
+        //responses waiting to be written, in order
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+        int pendingOutput;
+        //the students a SCAN has yet to send, from scanNext on. Commands
+        //after the SCAN wait until they've all been sent.
+        Student[] scan;
+        int scanNext;
+        //set once the client has stopped sending
+        boolean ended;
+        //set by QUIT, the connection closes once out is empty
+        boolean closing;
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    //thrown for a bad command, and sent back as ERR
+    private static class CommandException extends Exception {
+        private static final long serialVersionUID = 1L;
+        public CommandException(String message) {super(message);}
+    }
+
+    /**
+     * Starts serving table on the loopback interface. The server indexes
+     * the table's last names for SCAN, replacing any listener it has.
+     * @param table The students to serve. Nothing else should use the
+     * table while it's being served.
+     * @param port The port to listen on, or 0 for any free port
+     * @throws IOException if the port can't be listened on
+     */
+    public HTServer(HashTable<Student> table, int port) throws IOException {
+        this.table = table;
+        nameIndex = new StudentNameIndex(table);
+        selector = Selector.open();
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(
+             new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            selector.close();
+            throw e;
+        }
+        thread = new Thread(this::selectLoop, "HTServer-" + getPort());
+        thread.start();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     * @return The port
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    private void selectLoop() {
+        try {
+            while(!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if(!key.isValid()) continue;
+                    if(key.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException e) {
+                            //out of file descriptors or the like, the
+                            //client can try again
+                            System.err.println("HTServer: " + e.getMessage());
+                        }
+                        continue;
+                    }
+                    Connection connection = (Connection)key.attachment();
+                    try {
+                        if(key.isReadable()) read(key, connection);
+                        if(key.isValid() && key.isWritable()) {
+                            write(key, connection);
+                        }
+                    } catch (IOException e) {
+                        //the client went away, or sent something we can't
+                        //follow, so drop it
+                        disconnect(key);
+                    } catch (RuntimeException e) {
+                        //a bug serving this client mustn't stop the others
+                        System.err.println("HTServer: " + e);
+                        disconnect(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if(!closed) {
+                System.err.println("HTServer: " + e.getMessage());
+            }
+        } finally {
+            for(SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    //closing anyway
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                //closing anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if(channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ,
+         new Connection(channel));
+    }
+
+    private static void disconnect(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            //it's gone either way
+        }
+    }
+
+    //reads what the client has sent and answers as much of it as there's
+    //room for
+    private void read(SelectionKey key, Connection connection)
+     throws IOException {
+        ByteBuffer in = connection.in;
+        //drop the lines already run to make room for more
+        if(connection.consumed > 0) {
+            in.flip();
+            in.position(connection.consumed);
+            in.compact();
+            connection.scanned -= connection.consumed;
+            connection.consumed = 0;
+        }
+        if(!in.hasRemaining()) {
+            //we only read once every whole line has been run, so a full
+            //buffer is one unfinished line
+            if(in.capacity() >= MAX_LINE) {
+                respond(connection, "ERR Line too long\n");
+                connection.closing = true;
+                write(key, connection);
+                return;
+            }
+            //a long batch command, make room for the rest of it
+            ByteBuffer bigger = ByteBuffer.allocate(in.capacity() * 2);
+            in.flip();
+            bigger.put(in);
+            connection.in = in = bigger;
+        }
+        if(connection.channel.read(in) < 0) {
+            connection.ended = true;
+        }
+        write(key, connection);
+    }
+
+    //sends as much of the waiting output as the socket takes, making more
+    //as it goes, and decides what to wait for next
+    private void write(SelectionKey key, Connection connection)
+     throws IOException {
+        do {
+            while(!connection.out.isEmpty()) {
+                ByteBuffer buffer = connection.out.peek();
+                int written = connection.channel.write(buffer);
+                connection.pendingOutput -= written;
+                if(buffer.hasRemaining()) break;
+                connection.out.poll();
+            }
+        } while(produce(connection));
+        if(connection.out.isEmpty() && connection.closing) {
+            disconnect(key);
+            return;
+        }
+        //produce stops short of running every whole line only once the
+        //output is full, so below that there's nothing left but to read
+        int interest = 0;
+        if(!connection.out.isEmpty()) interest |= SelectionKey.OP_WRITE;
+        if(!connection.closing && !connection.ended
+         && connection.pendingOutput < MAX_PENDING_OUTPUT) {
+            interest |= SelectionKey.OP_READ;
+        }
+        key.interestOps(interest);
+    }
+
+    //runs the client's waiting commands and carries on any SCAN, until
+    //they're done or MAX_PENDING_OUTPUT bytes of responses are waiting.
+    //returns whether there's any new output.
+    private boolean produce(Connection connection) {
+        //responses go out many to a buffer, so a client pipelining many
+        //small commands doesn't cost a write call each
+        StringBuilder responses = new StringBuilder();
+        while(!connection.closing
+         && connection.pendingOutput + responses.length() < MAX_PENDING_OUTPUT) {
+            if(connection.scan != null) {
+                continueScan(connection, responses);
+                continue;
+            }
+            String line = nextLine(connection);
+            if(line == null) {
+                //the client's done sending. answer what it sent, then close.
+                if(connection.ended) connection.closing = true;
+                break;
+            }
+            execute(line, connection, responses);
+        }
+        if(responses.length() == 0) return false;
+        respond(connection, responses);
+        return true;
+    }
+
+    //takes the next whole line out of the client's input, or returns null
+    //if there isn't one yet
+    private static String nextLine(Connection connection) {
+        ByteBuffer in = connection.in;
+        for(int i = connection.scanned; i < in.position(); i++) {
+            if(in.get(i) != '\n') continue;
+            int start = connection.consumed;
+            int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+            connection.consumed = i + 1;
+            connection.scanned = i + 1;
+            return new String(in.array(), start, end - start,
+             StandardCharsets.UTF_8);
+        }
+        connection.scanned = in.position();
+        return null;
+    }
+
+    private static void respond(Connection connection, CharSequence response) {
+        ByteBuffer buffer = ByteBuffer.wrap(
+         response.toString().getBytes(StandardCharsets.UTF_8));
+        connection.out.add(buffer);
+        connection.pendingOutput += buffer.remaining();
+    }
+
+    //runs one command line and appends its response to response
+    private void execute(String line, Connection connection,
+     StringBuilder response) {
+        String[] words = line.trim().split("\\s+");
+        int start = response.length();
+        try {
+            switch(words[0].toUpperCase()) {
+                case "ADD":
+                    add(words, response);
+                    break;
+                case "DEL":
+                    delete(words, response);
+                    break;
+                case "FIND":
+                    find(words, response);
+                    break;
+                case "COUNT":
+                    if(words.length != 1) {
+                        throw new CommandException("COUNT takes no arguments");
+                    }
+                    response.append("OK ").append(table.elementCount())
+                     .append('\n');
+                    break;
+                case "SCAN":
+                    scan(words, connection, response);
+                    break;
+                case "QUIT":
+                    response.append("OK\n");
+                    connection.closing = true;
+                    break;
+                case "":
+                    throw new CommandException("Empty command");
+                default:
+                    throw new CommandException("Unknown command " + words[0]);
+            }
+        } catch (CommandException e) {
+            response.setLength(start);
+            response.append("ERR ").append(e.getMessage()).append('\n');
+        } catch (RuntimeException e) {
+            //a bug, or a table that refused an insert. only this command
+            //fails, though an ADD may have inserted the students before
+            //the one that threw.
+            System.err.println("HTServer: " + e);
+            response.setLength(start);
+            response.append("ERR Internal error: ").append(e).append('\n');
+        }
+    }
+
+    private void add(String[] words, StringBuilder response)
+     throws CommandException {
+        if(words.length < 3 || words.length % 2 == 0) {
+            throw new CommandException("ADD takes pairs of id and name");
+        }
+        //check every student before inserting any, so a bad one doesn't
+        //leave half the batch inserted
+        Student[] students = new Student[words.length / 2];
+        for(int i = 0; i < students.length; i++) {
+            students[i] = new Student(parseId(words[2 * i + 1]), words[2 * i + 2]);
+        }
+        response.append("OK");
+        for(Student student : students) {
+            response.append(table.insert(student) ? " 1" : " 0");
+        }
+        response.append('\n');
+    }
+
+    private void delete(String[] words, StringBuilder response)
+     throws CommandException {
+        Student[] keys = parseKeys(words, "DEL");
+        response.append("OK");
+        for(Student key : keys) {
+            response.append(table.delete(key) ? " 1" : " 0");
+        }
+        response.append('\n');
+    }
+
+    private void find(String[] words, StringBuilder response)
+     throws CommandException {
+        Student[] keys = parseKeys(words, "FIND");
+        Student[] found = new Student[keys.length];
+        table.findAll(keys, found);
+        response.append("OK ").append(keys.length).append('\n');
+        for(int i = 0; i < keys.length; i++) {
+            response.append(keys[i].getId());
+            if(found[i] != null) {
+                response.append(' ').append(found[i].getLastName());
+            }
+            response.append('\n');
+        }
+    }
+
+    //answers with the count, and leaves the students to be sent in
+    //batches by continueScan
+    private void scan(String[] words, Connection connection,
+     StringBuilder response) throws CommandException {
+        if(words.length > 2) {
+            throw new CommandException("SCAN takes at most one prefix");
+        }
+        //take the students now, as the table may change before the last of
+        //them are sent. count them first, so a big scan is refused before
+        //any copying.
+        int count = words.length == 2
+         ? nameIndex.countPrefix(words[1], MAX_SCAN) : table.elementCount();
+        if(count > MAX_SCAN) {
+            throw new CommandException("SCAN can send at most " + MAX_SCAN
+             + " students, use a longer prefix");
+        }
+        Student[] students;
+        if(words.length == 2) {
+            students = nameIndex.findPrefix(words[1]).toArray(new Student[0]);
+        } else {
+            students = new Student[count];
+            int i = 0;
+            for(Student student : table) {
+                students[i++] = student;
+            }
+        }
+        response.append("OK ").append(students.length).append('\n');
+        if(students.length > 0) {
+            connection.scan = students;
+            connection.scanNext = 0;
+        }
+    }
+
+    //appends the next batch of a SCAN's students
+    private static void continueScan(Connection connection,
+     StringBuilder responses) {
+        Student[] students = connection.scan;
+        int end = Math.min(connection.scanNext + SCAN_BATCH, students.length);
+        for(int i = connection.scanNext; i < end; i++) {
+            appendStudent(responses, students[i]);
+        }
+        if(end == students.length) {
+            connection.scan = null;
+        } else {
+            connection.scanNext = end;
+        }
+    }
+
+    private static void appendStudent(StringBuilder response, Student student) {
+        response.append(student.getId()).append(' ')
+         .append(student.getLastName()).append('\n');
+    }
+
+    //makes search students from the IDs after the command word
+    private static Student[] parseKeys(String[] words, String command)
+     throws CommandException {
+        if(words.length < 2) {
+            throw new CommandException(command + " takes at least one id");
+        }
+        Student[] keys = new Student[words.length - 1];
+        for(int i = 0; i < keys.length; i++) {
+            keys[i] = new Student(parseId(words[i + 1]), null);
+        }
+        return keys;
+    }
+
+    private static long parseId(String word) throws CommandException {
+        try {
+            long id = Long.parseLong(word);
+            if(id > 0) return id;
+        } catch (NumberFormatException e) {}
+        throw new CommandException("Invalid id " + word);
+    }
+
+    /**
+     * Stops the server and closes every connection. Responses not sent
+     * yet are dropped.
+     * @throws IOException if the server socket can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        serverChannel.close();
+    }
+
+    /**
+     * Loads a file of students and serves it until killed.
+     */
+    public static void main(String[] args) {
+        if(args.length != 2) {
+            System.err.println("Usage: java HTServer port inputFile");
+            System.exit(1);
+        }
+        try {
+            int port = Integer.parseInt(args[0]);
+            StudentLoader.Result result =
+             new StudentLoader().load(Paths.get(args[1]));
+            System.out.println("Loaded " + result.getAccepted()
+             + " students (" + result.getDuplicates() + " duplicates, "
+             + result.getRejected() + " invalid records skipped).");
+            HTServer server = new HTServer(result.getTable(), port);
+            System.out.println("Serving on port " + server.getPort());
+        } catch (NumberFormatException e) {
+            System.err.println("Not a number: " + e.getMessage());
+            System.exit(1);
+        } catch (NoSuchFileException | InvalidPathException e) {
+            System.err.println("File not found.");
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Can't start the server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
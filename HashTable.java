@@ -1,23 +1,39 @@
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author Daniel Johnson, Jonathon Elfar
- * A Hash Table implementation of a set of Objects.
- * Hashes Objects and stores them in an array with open addressing and
- * quadratic probing. Supports insert, find, and delete operations.
+ * A Hash Table implementation of a set of elements of type E.
+ * Hashes elements and stores them in an array with open addressing and,
+ * by default, quadratic probing. Another ProbingStrategy can be chosen
+ * when the table is created. Supports insert, find, and delete operations.
+ *
+ * Growing normally moves every element into the new array at once. With
+ * setIncrementalResize(true), the old and new arrays are kept side by
+ * side instead, and each insert, find, and delete moves a few more cells
+ * across, so no single call pays for the whole resize.
+ *
+ * A Listener can be attached with setListener to hear about every change
+ * to the set, to keep something like a secondary index in step with it.
+ * @param <E> The type of element in the set
  */
-public class HashTable {
+public class HashTable<E> implements Iterable<E> {
     
     //an entry in the hash table
-    private class HashEntry {
+    private static class HashEntry<E> {
         //the element of the entry
-        public Object element;
+        public E element;
         //lazy deletion -- whether this element is actually in the set,
         //or if it used to be in the set but was deleted.
         public boolean active;
         //basic constructor, creates an active HashEntry with an element.
-        public HashEntry(Object element) {
+        public HashEntry(E element) {
             this.element = element;
             this.active = true;
         }
@@ -26,12 +42,100 @@ public class HashTable {
     //the array to store our HashEntries. For each cell: null means nothing
     //has been entered, an inactive HashEntry represents a deleted entry,
     //and an active HashEntry represents an element in the set.
-    private HashEntry[] table;
+    private HashEntry<E>[] table;
     //the number of occupied cells (active OR inactive) so that we know
-    //when we need to expand the table. Since we're using quadratic probing,
-    //we want the table size to be the smallest prime larger than twice the
-    //number of occupied cells.
+    //when we need to expand the table. With quadratic probing, we want the
+    //table size to be the smallest prime larger than twice the number of
+    //occupied cells. Other strategies have their own limits.
     private int numOccupiedCells;
+    //the number of active cells, i.e. the number of elements in the set.
+    //numOccupiedCells - numActive is the number of deleted (inactive) cells.
+    private int numActive;
+    //once deleted cells take up this fraction of the table, delete
+    //compacts the table so probe chains don't keep getting longer
+    private final double tombstoneThreshold;
+    //how the array is sized and probed
+    private final ProbingStrategy strategy;
+    //mixed into every hash code, see Hashing. UNMIXED until an insert
+    //probes too far, then changed by reseed.
+    private int seed = Hashing.UNMIXED;
+    //whether we've reseeded since the table last grew. If probes are
+    //still long after a reseed, the keys' hash codes are equal and a new
+    //seed can't help, so we don't keep trying until the table grows.
+    private boolean reseeded;
+
+    //during an incremental resize, the array we're moving out of, or null
+    //if no resize is in progress. Elements not moved yet are still here,
+    //and moved cells are replaced with MOVED. Nothing is ever inserted
+    //into it. numOccupiedCells only counts cells of table.
+    private HashEntry<E>[] oldTable;
+    //the next cell of oldTable to move
+    private int migrateCursor;
+    //whether resizes move cells a few at a time
+    private boolean incrementalResize;
+    //counts changes to the set, so iterators can tell if it was changed
+    //while they were walking it
+    private int modCount;
+
+    //the tombstone threshold used if the caller doesn't give one
+    private static final double DEFAULT_TOMBSTONE_THRESHOLD = 0.25;
+    //how many items the bulk operations hash before probing for them
+    private static final int BATCH_SIZE = 64;
+    //an insert that probes past this many cells means keys are colliding
+    //far more than random ones ever would, from structured hash codes,
+    //keys picked to collide, or bad luck with the seed, so the table
+    //reseeds and rehashes
+    private static final int LONG_PROBE = 64;
+    //how many cells of oldTable each operation moves during an incremental
+    //resize. New arrays are at least twice as big as the elements being
+    //moved, so this finishes long before the new array fills up.
+    private static final int MIGRATE_STEP = 8;
+    //put in place of the cells of oldTable that have been moved. It's
+    //inactive, so probes carry on past it, just like a deleted cell.
+    @SuppressWarnings("rawtypes")
+    private static final HashEntry MOVED = new HashEntry<Object>(null);
+    static {
+        MOVED.active = false;
+    }
+
+    //written by hashBatch so the JIT can't skip its cell reads
+    private int batchSink;
+
+    //statistics about this table, or null if they're turned off
+    private HashTableStats stats;
+    //how many cells past the home cell the last getIndexForKey call looked
+    //at, for the statistics
+    private int lastProbeLength;
+
+    //told about every change to the set, or null
+    private Listener<? super E> listener;
+
+    /**
+     * Hears about every change to a HashTable's set, however it's made:
+     * insert, delete, the batch operations, makeEmpty, or an iterator's
+     * remove. Rehashing and resizing don't change the set, so they aren't
+     * reported. Called on the thread making the change, after it's made.
+     * @param <E> The type of element in the set
+     */
+    public interface Listener<E> {
+        /**
+         * Called after an element is inserted.
+         * @param element The element inserted
+         */
+        void inserted(E element);
+
+        /**
+         * Called after an element is deleted.
+         * @param element The element that was in the set, not the item
+         * passed to delete
+         */
+        void deleted(E element);
+
+        /**
+         * Called after makeEmpty deletes every element.
+         */
+        void cleared();
+    }
 
     /**
      * Creates an empty HashTable with a array size that's good for holding
@@ -40,53 +144,102 @@ public class HashTable {
      * Used to determine the optimal array size for storing the data.
      */
     public HashTable(int elements) {
-        //create an empty HashTable, with a table sized by the smallest prime
-        //number larger than or equal to twice the number of expected elements
-        table = new HashEntry[findPrime(elements*2)];
-        numOccupiedCells = 0; //the table is empty right now.
+        this(elements, DEFAULT_TOMBSTONE_THRESHOLD, ProbingStrategy.QUADRATIC);
     }
 
-    //finds the smallest prime larger than or equal to "start"
-    private int findPrime(int start) {
-        while(!isPrime(start)) {
-            start++;
-            //increment our value until it's prime
-        }
-        return start;
+    /**
+     * Creates an empty HashTable that sizes and probes its array with
+     * strategy.
+     * @param elements How many elements can be expected to be inserted.
+     * @param strategy How to size the array and probe for elements
+     */
+    public HashTable(int elements, ProbingStrategy strategy) {
+        this(elements, DEFAULT_TOMBSTONE_THRESHOLD, strategy);
+    }
+
+    /**
+     * Creates an empty HashTable with a array size that's good for holding
+     * element elements.
+     * @param elements How many elements can be expected to be inserted.
+     * Used to determine the optimal array size for storing the data.
+     * @param tombstoneThreshold The fraction of the table that deleted
+     * cells may take up before the table is compacted. Must be greater
+     * than 0 and at most 1.
+     */
+    public HashTable(int elements, double tombstoneThreshold) {
+        this(elements, tombstoneThreshold, ProbingStrategy.QUADRATIC);
     }
-    //adapted from
-    //returns if n is prime or not
-    private boolean isPrime(int n) {
-        //handle n <= 2
-        if (n<2) return false;
 
-        for(int i = n-1; i > 1; i--) {
-            if(n%i == 0)
-                return false;
+    /**
+     * Creates an empty HashTable with a array size that's good for holding
+     * element elements.
+     * @param elements How many elements can be expected to be inserted.
+     * Used to determine the optimal array size for storing the data.
+     * @param tombstoneThreshold The fraction of the table that deleted
+     * cells may take up before the table is compacted. Must be greater
+     * than 0 and at most 1.
+     * @param strategy How to size the array and probe for elements
+     */
+    public HashTable(int elements, double tombstoneThreshold,
+     ProbingStrategy strategy) {
+        if(strategy == null) {
+            throw new NullPointerException("Probing strategy must not be null.");
         }
-        return true;
+        if(!(tombstoneThreshold > 0 && tombstoneThreshold <= 1)) {
+            throw new IllegalArgumentException(
+             "Tombstone threshold must be in (0, 1].");
+        }
+        this.tombstoneThreshold = tombstoneThreshold;
+        this.strategy = strategy;
+        //create an empty HashTable. for quadratic probing, the table is sized
+        //by the smallest prime number larger than or equal to twice the
+        //number of expected elements
+        table = newTable(strategy.capacityFor(elements));
+        numOccupiedCells = 0; //the table is empty right now.
+        numActive = 0;
+    }
+
+    //creates an empty array of HashEntries. Java can't create generic
+    //arrays directly, so we make a raw one and cast it.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <E> HashEntry<E>[] newTable(int size) {
+        return (HashEntry<E>[])new HashEntry[size];
     }
 
     //iterator for iterating through the hash table
-    private class Iter implements Iterator {
+    private class Iter implements Iterator<E> {
+        //the array we're walking, in case the table gets resized under us
+        private final HashEntry<E>[] cells;
         //the index of the table that we're on now
         private int cursor;
+        //the index of the element next returned, for remove, or -1
+        private int lastReturned = -1;
+        //modCount when we last knew what the table looked like
+        private int expectedModCount;
         public Iter() {
+            //only table is walked, so move everything into it first
+            finishMigration();
+            cells = table;
+            expectedModCount = modCount;
             //initialize the cursor to the first active index in the table
             cursor = findNextActive(0);
         }
         public boolean hasNext() {
             //we have a next if the cursor is still within the table's
             //boundaries.
-            return cursor < table.length;
+            return cursor < cells.length;
         }
-        public Object next() {
+        public E next() {
+            if(modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
             if(!hasNext()) {
                 throw new NoSuchElementException();
             }
             //get the current value, move cursor to the next active element
             //that's at least 1 past the current element, and return value
-            Object value = table[cursor].element;
+            E value = cells[cursor].element;
+            lastReturned = cursor;
             cursor = findNextActive(cursor + 1);
             return value;
         }
@@ -95,87 +248,366 @@ public class HashTable {
             //keep incrementing index until we get to the end of the table,
             //or until we hit an active cell (keep going while it's null
             //or inactive)
-            while(index < table.length
-             && (table[index] == null || !table[index].active)) {
+            while(index < cells.length
+             && (cells[index] == null || !cells[index].active)) {
                 index++;
             }
             return index;
         }
         public void remove() {
-            throw new UnsupportedOperationException();
+            if(lastReturned < 0) {
+                throw new IllegalStateException();
+            }
+            if(modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            //just make it inactive. compacting would move the cells we
+            //haven't got to yet, so that waits for the next delete.
+            cells[lastReturned].active = false;
+            numActive--;
+            expectedModCount = ++modCount;
+            if(listener != null) {
+                listener.deleted(cells[lastReturned].element);
+            }
+            lastReturned = -1;
+        }
+    }
+
+    //splits the table by cell ranges, for streams. Works like Iter, and
+    //also fails fast if the table is changed.
+    private class Split implements Spliterator<E> {
+        private final HashEntry<E>[] cells;
+        //the next cell to look at, and one past the last
+        private int index;
+        private final int fence;
+        //roughly how many elements are left, exact until we're split
+        private int estimate;
+        private final int expectedModCount;
+
+        Split(HashEntry<E>[] cells, int index, int fence, int estimate,
+         int expectedModCount) {
+            this.cells = cells;
+            this.index = index;
+            this.fence = fence;
+            this.estimate = estimate;
+            this.expectedModCount = expectedModCount;
+        }
+
+        public Spliterator<E> trySplit() {
+            int mid = (index + fence) >>> 1;
+            if(index >= mid) return null;
+            //give away the first half of our cells
+            Split prefix = new Split(cells, index, mid, estimate >>>= 1,
+             expectedModCount);
+            index = mid;
+            return prefix;
+        }
+
+        public boolean tryAdvance(Consumer<? super E> action) {
+            if(action == null) throw new NullPointerException();
+            while(index < fence) {
+                HashEntry<E> hashEntry = cells[index++];
+                if(hashEntry != null && hashEntry.active) {
+                    action.accept(hashEntry.element);
+                    if(modCount != expectedModCount) {
+                        throw new ConcurrentModificationException();
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void forEachRemaining(Consumer<? super E> action) {
+            if(action == null) throw new NullPointerException();
+            for(; index < fence; index++) {
+                HashEntry<E> hashEntry = cells[index];
+                if(hashEntry != null && hashEntry.active) {
+                    action.accept(hashEntry.element);
+                }
+            }
+            if(modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        public long estimateSize() {
+            return estimate;
+        }
+
+        public int characteristics() {
+            //only the unsplit spliterator knows its size exactly
+            return (index == 0 && fence == cells.length ? SIZED : 0)
+             | DISTINCT | NONNULL;
         }
     }
     
     /**
      * Inserts item into the set.
-     * @param item The Object to add to the set
+     * @param item The element to add to the set
+     * @return true if item was inserted, false if it was already present
+     * @throws IllegalStateException if too many elements share item's hash
+     * code, see Hashing.MAX_PROBE
      */
-    public boolean insert(Object item) {
+    public boolean insert(E item) {
         //don't try to do anything with a null item
         if(item == null) return false;
+        migrateSome();
 
         //get the index that we can place item into
         int index = getIndexForKey(table, item, true);
-        //set stopOnInactive to true, because we can overwrite
+        //set reuseInactive to true, because we can overwrite
         //an inactive entry
+        if(oldTable != null && !isActive(table[index])
+         && findInOldTable(item) != null) {
+            //it's in the set, it just hasn't been moved yet
+            if(stats != null) {
+                stats.recordInsert(lastProbeLength, false);
+            }
+            return false;
+        }
+        return insertAt(index, item);
+    }
 
+    //puts item into the cell at index, which getIndexForKey picked with
+    //reuseInactive set to true. returns false if item was already there.
+    private boolean insertAt(int index, E item) {
+        //growing probes too, so remember how long this one was
+        int probeLength = lastProbeLength;
+        //a chain this long after reseeding is keys with equal hash codes,
+        //which no seed can separate. refuse before changing anything.
+        if(probeLength > Hashing.MAX_PROBE && reseeded
+         && (table[index] == null || !table[index].active)) {
+            throw Hashing.tooManyCollisions(item);
+        }
+        if(stats != null) {
+            stats.recordInsert(lastProbeLength,
+             table[index] == null || !table[index].active);
+        }
         //if the entry at that index is null,
         if(table[index] == null) {
             //then create a new HashEntry for that spot
-            table[index] = new HashEntry(item);
+            table[index] = new HashEntry<E>(item);
+            numActive++;
             //if the (now incremented) number of occupied cells
-            //is too large for quadratic probing, rehash to the next
-            //optimal size
-            if(++numOccupiedCells >= (table.length/2)) {
-                rehash(findPrime(table.length*2));
+            //is too large for our probing strategy, rehash
+            if(++numOccupiedCells >= strategy.maxOccupied(table.length)) {
+                growOrCompact();
             }
         } else if(!table[index].active) {
             //if inactive, we can just update it to be active again
-            table[index] = new HashEntry(item);
+            table[index] = new HashEntry<E>(item);
+            numActive++;
             //since occupiedcells didn't get incremented, we don't need to
             //check if rehashing is necessary.
         } else {
             return false;
         }
+        modCount++;
+        if(probeLength > LONG_PROBE && !reseeded) {
+            reseed();
+        }
+        if(listener != null) {
+            listener.inserted(item);
+        }
         return true;
     }
 
-    //rehashes the entire table into a new table with size newSize
+    //starts mixing hash codes with a new seed and rehashes everything with
+    //it, to break up the long probe chains we had
+    private void reseed() {
+        seed = Hashing.newSeed();
+        reseeded = true;
+        if(stats != null) {
+            stats.recordReseed();
+        }
+        rehash(table.length);
+    }
+
+    //called when the table is full (half full, for quadratic probing). if
+    //most occupied cells are just deleted ones, clearing them out is
+    //enough. otherwise, grow to the next optimal size.
+    private void growOrCompact() {
+        int newSize = numActive < strategy.maxOccupied(table.length)/2
+         ? table.length : strategy.grow(table.length);
+        if(oldTable != null) {
+            //the array we're resizing into filled up before everything was
+            //moved, so move the rest all at once. only one resize happens
+            //at a time.
+            rehash(newSize);
+        } else {
+            resize(newSize);
+        }
+    }
+
+    //resizes to newSize, a few cells at a time if incrementalResize is on
+    private void resize(int newSize) {
+        if(incrementalResize) {
+            startMigration(newSize);
+        } else {
+            rehash(newSize);
+        }
+    }
+
+    //rehashes the entire table into a new table with size newSize. Also
+    //finishes off any incremental resize.
     private void rehash(int newSize) {
+        long startTime = stats != null ? System.nanoTime() : 0;
         //make a new array.
-        HashEntry[] newTable = new HashEntry[newSize];
-        int newTableIndex;
+        HashEntry<E>[] newTable = newTable(newSize);
 
         //reset the number of occupied cells (since we won't rehash inactives)
-        numOccupiedCells = 0;
+        numOccupiedCells = copyActive(table, newTable);
+        if(oldTable != null) {
+            //whatever hadn't been moved yet goes in too
+            numOccupiedCells += copyActive(oldTable, newTable);
+            oldTable = null;
+        }
 
-        for(int i = 0; i < table.length; i++) {
+        if(newSize != table.length) {
+            //a different size spreads keys differently, so the seed
+            //deserves another chance
+            reseeded = false;
+        }
+        table = newTable; //finally, make our table point to the new table
+        modCount++;
+        if(stats != null) {
+            stats.recordRehash(System.nanoTime() - startTime);
+        }
+    }
+
+    //puts every active entry of from into the empty cells of to, and
+    //returns how many there were
+    private int copyActive(HashEntry<E>[] from, HashEntry<E>[] to) {
+        int copied = 0;
+        for(int i = 0; i < from.length; i++) {
             //loop through the table, find every active cell
-            if(table[i] != null && table[i].active) {
+            if(from[i] != null && from[i].active) {
                 //get a new index for it in the new table
-                newTableIndex = getIndexForKey(newTable, table[i].element, true);
-                newTable[newTableIndex] = table[i]; //and put the entry in the table
-                numOccupiedCells++; //we've occupied one more cell
+                int newTableIndex = getIndexForKey(to, from[i].element, true);
+                to[newTableIndex] = from[i]; //and put the entry in the table
+                copied++; //we've occupied one more cell
             }
         }
+        return copied;
+    }
 
-        table = newTable; //finally, make our table point to the new table
+    //starts an incremental resize into a new empty array of size newSize.
+    //the elements are moved by later calls to migrateSome.
+    private void startMigration(int newSize) {
+        long startTime = stats != null ? System.nanoTime() : 0;
+        if(newSize != table.length) {
+            reseeded = false;
+        }
+        oldTable = table;
+        table = newTable(newSize);
+        numOccupiedCells = 0;
+        migrateCursor = 0;
+        modCount++;
+        if(stats != null) {
+            stats.recordRehash(System.nanoTime() - startTime);
+        }
+    }
+
+    //moves the next few cells of an incremental resize, if there is one
+    private void migrateSome() {
+        if(oldTable != null) {
+            migrate(MIGRATE_STEP);
+        }
+    }
+
+    //moves whatever is left of an incremental resize, if there is one
+    private void finishMigration() {
+        if(oldTable != null) {
+            migrate(oldTable.length - migrateCursor);
+        }
+    }
+
+    //moves the next cells cells of oldTable into table
+    private void migrate(int cells) {
+        int end = Math.min(oldTable.length, migrateCursor + cells);
+        while(migrateCursor < end) {
+            HashEntry<E> hashEntry = oldTable[migrateCursor];
+            if(hashEntry != null && hashEntry.active) {
+                if(numOccupiedCells + 1 >= strategy.maxOccupied(table.length)) {
+                    //no room to move it without going past what the probing
+                    //strategy allows, so finish with a full rehash
+                    growOrCompact();
+                    return;
+                }
+                //it can't be in table already, so this finds a free cell
+                int index = getIndexForKey(table, hashEntry.element, true);
+                if(table[index] == null) {
+                    numOccupiedCells++;
+                }
+                table[index] = hashEntry;
+                //the entry object now belongs to table, so mark the old
+                //cell with MOVED rather than making the entry inactive
+                oldTable[migrateCursor] = movedEntry();
+            }
+            migrateCursor++;
+        }
+        if(migrateCursor == oldTable.length) {
+            oldTable = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> HashEntry<E> movedEntry() {
+        return (HashEntry<E>)MOVED;
+    }
+
+    //returns whether hashEntry holds an element of the set
+    private static boolean isActive(HashEntry<?> hashEntry) {
+        return hashEntry != null && hashEntry.active;
+    }
+
+    //during an incremental resize, returns key's active entry in oldTable,
+    //or null if it isn't there. adds the probes to lastProbeLength.
+    private HashEntry<E> findInOldTable(Object key) {
+        int probes = lastProbeLength;
+        HashEntry<E> hashEntry = oldTable[getIndexForKey(oldTable, key, false)];
+        lastProbeLength += probes;
+        return isActive(hashEntry) ? hashEntry : null;
+    }
+
+    /**
+     * Turns incremental resizing on or off. While it's on, growing or
+     * compacting the table moves a few cells on every insert, find, and
+     * delete rather than all of them at once, which keeps any one call
+     * from taking long. Turning it off finishes any resize in progress.
+     * @param incremental Whether resizes should be incremental
+     */
+    public void setIncrementalResize(boolean incremental) {
+        incrementalResize = incremental;
+        if(!incremental) {
+            finishMigration();
+        }
     }
 
     /**
      * Finds and returns item from the set, or null if it's not in the set.
-     * @param item The item to find and return
+     * @param item The item to find and return. Any object equal to the
+     * element being looked for works, it doesn't need to be an E.
      * @return The found item, or null if nothing is found.
      */
-    public Object find(Object item) {
+    public E find(Object item) {
         //don't try to find null items
         if(item == null) return null;
-        //get the index, set stopOnInactive to false since the object
-        //might be past the inactive value
-        HashEntry hashEntry = table[getIndexForKey(table, item, false)];
+        migrateSome();
+        //get the index, set reuseInactive to false since we only care
+        //about where the object is
+        HashEntry<E> hashEntry = table[getIndexForKey(table, item, false)];
+        if(oldTable != null && !isActive(hashEntry)) {
+            hashEntry = findInOldTable(item);
+        }
+        boolean found = isActive(hashEntry);
+        if(stats != null) {
+            stats.recordFind(lastProbeLength, found);
+        }
         //if it didn't find it (null) or it's inactive, return null
         //to signal that we couldn't find it.
-        if(hashEntry == null || !hashEntry.active) {
+        if(!found) {
             return null;
         }
         //otherwise, return the element.
@@ -189,19 +621,205 @@ public class HashTable {
      * Finds and deletes item from the set.
      * Does nothing if item is not in the set.
      * @param item The item to delete
+     * @return true if item was deleted, false if it wasn't in the set
      */
     public boolean delete(Object item) {
         if(item == null) return false;
+        migrateSome();
         //find the value, like in the find method
-        HashEntry hashEntry = table[getIndexForKey(table, item, false)];
+        HashEntry<E> hashEntry = table[getIndexForKey(table, item, false)];
+        if(oldTable != null && !isActive(hashEntry)) {
+            hashEntry = findInOldTable(item);
+        }
+        return deleteEntry(hashEntry);
+    }
+
+    //deletes the element in hashEntry, a cell of table or oldTable, if
+    //there is one
+    private boolean deleteEntry(HashEntry<E> hashEntry) {
+        if(stats != null) {
+            stats.recordDelete(lastProbeLength,
+             hashEntry != null && hashEntry.active);
+        }
         //if it found it (not null), set it to inactive.
         if(hashEntry != null && hashEntry.active) {
             hashEntry.active = false;
+            numActive--;
+            modCount++;
+            if(listener != null) {
+                listener.deleted(hashEntry.element);
+            }
+            //if deleted cells have piled up, rehash at the same size to
+            //throw them away, so finds don't have to probe past them.
+            //not while a resize is going, it's throwing them away already.
+            if(oldTable == null
+             && numOccupiedCells - numActive >= table.length * tombstoneThreshold) {
+                resize(table.length);
+            }
             return true;
         }
         return false;
     }
 
+    /**
+     * Makes sure the table can hold elements elements without having to
+     * rehash along the way.
+     * @param elements The total number of elements the set should be able
+     * to hold
+     */
+    public void ensureCapacity(int elements) {
+        finishMigration();
+        //deleted cells count against the table too, so if we need to
+        //rehash anyway we might as well size for just the live elements
+        if(numOccupiedCells - numActive + (long)elements
+         >= strategy.maxOccupied(table.length)) {
+            rehash(strategy.capacityFor(elements + 1L));
+        }
+    }
+
+    /**
+     * Inserts every item in items into the set. The table is grown once
+     * for the whole batch, rather than rehashing as it fills up, even if
+     * incremental resizing is on.
+     * @param items The elements to add to the set. Null items are skipped.
+     * @return How many items were inserted (not already in the set)
+     * @throws IllegalStateException if too many elements share an item's
+     * hash code. Items before it stay inserted.
+     */
+    public int insertAll(E[] items) {
+        ensureCapacity(numActive + items.length);
+        int inserted = 0;
+        int[] homes = new int[Math.min(BATCH_SIZE, items.length)];
+        for(int start = 0; start < items.length; start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, items.length);
+            int length = hashBatch(items, start, end, homes);
+            int batchSeed = seed;
+            for(int i = start; i < end; i++) {
+                if(items[i] == null) continue;
+                //a compaction can't change the length, but check anyway so
+                //a stale home index can never be used. a long probe can
+                //make the table reseed, which moves every home.
+                int home = table.length == length && seed == batchSeed
+                 ? homes[i - start]
+                 : homeIndex(table, items[i]);
+                if(insertAt(getIndexForKey(table, items[i], home, true),
+                 items[i])) {
+                    inserted++;
+                }
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Inserts every item in items into the set, like insertAll(E[]).
+     * @param items The elements to add to the set
+     * @return How many items were inserted (not already in the set)
+     */
+    @SuppressWarnings("unchecked")
+    public int insertAll(Collection<? extends E> items) {
+        return insertAll((E[])items.toArray());
+    }
+
+    /**
+     * Finds every item in items. results[i] is set to the element equal to
+     * items[i], or null if there isn't one.
+     * @param items The items to find
+     * @param results Where to put the found elements. Must be at least as
+     * long as items.
+     * @return How many items were found
+     */
+    public int findAll(Object[] items, E[] results) {
+        if(results.length < items.length) {
+            throw new IllegalArgumentException(
+             "results must be at least as long as items.");
+        }
+        //the batch only looks in table, so finish any resize first
+        finishMigration();
+        int found = 0;
+        int[] homes = new int[Math.min(BATCH_SIZE, items.length)];
+        for(int start = 0; start < items.length; start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, items.length);
+            hashBatch(items, start, end, homes);
+            for(int i = start; i < end; i++) {
+                results[i] = null;
+                if(items[i] == null) continue;
+                HashEntry<E> hashEntry =
+                 table[getIndexForKey(table, items[i], homes[i - start], false)];
+                boolean hit = hashEntry != null && hashEntry.active;
+                if(stats != null) {
+                    stats.recordFind(lastProbeLength, hit);
+                }
+                if(hit) {
+                    results[i] = hashEntry.element;
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Deletes every item in items from the set.
+     * @param items The items to delete. Items not in the set are skipped.
+     * @return How many items were deleted
+     */
+    public int deleteAll(Object[] items) {
+        finishMigration();
+        int deleted = 0;
+        int[] homes = new int[Math.min(BATCH_SIZE, items.length)];
+        for(int start = 0; start < items.length; start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, items.length);
+            int length = hashBatch(items, start, end, homes);
+            for(int i = start; i < end; i++) {
+                if(items[i] == null) continue;
+                if(oldTable != null) {
+                    //a compaction started partway through the batch, so
+                    //items may be in either array
+                    if(delete(items[i])) deleted++;
+                    continue;
+                }
+                int home = table.length == length ? homes[i - start]
+                 : homeIndex(table, items[i]);
+                if(deleteEntry(
+                 table[getIndexForKey(table, items[i], home, false)])) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes every item in items from the set, like deleteAll(Object[]).
+     * @param items The items to delete
+     * @return How many items were deleted
+     */
+    public int deleteAll(Collection<?> items) {
+        return deleteAll(items.toArray());
+    }
+
+    //First pass of a batch: hashes items[start..end) into homes, then
+    //reads the first cell of each probe chain. The reads don't depend on
+    //each other, so the CPU can have their cache misses in flight at the
+    //same time, and the probing pass that follows mostly finds the cells
+    //already in cache. Returns the table length the homes are valid for.
+    private int hashBatch(Object[] items, int start, int end, int[] homes) {
+        for(int i = start; i < end; i++) {
+            if(items[i] != null) {
+                homes[i - start] = homeIndex(table, items[i]);
+            }
+        }
+        int touched = 0;
+        for(int i = start; i < end; i++) {
+            if(items[i] != null && table[homes[i - start]] != null) {
+                touched++;
+            }
+        }
+        batchSink = touched;
+        return table.length;
+    }
+
     //This is the method that does the hashing and quadratic probing.
 
     //curTable: the table to hash into. Usually just table, but sometimes
@@ -210,25 +828,40 @@ public class HashTable {
     //key: the Object to hash. Can be used to find an available position for
     //this Object, or to find if the Object is already in the table.
 
-    //stopOnInactive: Whether or not to stop probing when we find an inactive
-    //cell. For example, when inserting, we want to stop and overwrite inactive
-    //cells. For finding, our data may exist past an inactive cell.
+    //reuseInactive: Whether or not to hand back an inactive cell we passed
+    //when the key isn't in the table. For example, when inserting, we want to
+    //overwrite inactive cells. We still probe past them, though, since our
+    //data may exist past an inactive cell.
 
     //Returns an index for curTable that has one of the following values:
     //null: The item was not found, but this is where it could be inserted
-    //inactive cell: (if stopOnInactive is true) The item was found, but
-    //is inactive.
+    //inactive cell: The item was found, but is inactive, or (if
+    //reuseInactive is true) the item was not found and this is the first
+    //deleted cell on its probe chain.
     //active cell: The item was found here.
 
-    private int getIndexForKey(HashEntry[] curTable, Object key,
-     boolean stopOnInactive) {
-        //get the position that it should be placed in before any probing
-        int originalHash = Math.abs(key.hashCode()) % curTable.length;
+    private int getIndexForKey(HashEntry<E>[] curTable, Object key,
+     boolean reuseInactive) {
+        return getIndexForKey(curTable, key, homeIndex(curTable, key),
+         reuseInactive);
+    }
+
+    //returns the position key should be placed in before any probing
+    private int homeIndex(HashEntry<E>[] curTable, Object key) {
+        return strategy.home(Hashing.hashOf(key, seed), curTable.length);
+    }
+
+    //same as above, but starts from a home position the caller already
+    //worked out with homeIndex
+    private int getIndexForKey(HashEntry<E>[] curTable, Object key,
+     int originalHash, boolean reuseInactive) {
         //hash will move around, but start it out at the optimal hash position
         int hash = originalHash;
-        //for quadratic probing, we will increment this each time and then check
-        //originalHash + quadraticCounter^2.
-        int quadraticCounter = 1;
+        //we will increment this each time and ask the strategy where to look
+        //next. for quadratic probing, that's originalHash + attempt^2.
+        int attempt = 1;
+        //the first inactive cell we probe past, or -1 if there isn't one
+        int firstInactive = -1;
 
         //stop probing when any of the following occur:
 
@@ -237,25 +870,113 @@ public class HashTable {
         //is not in the table. For insert, it's where the item should be
         //inserted.
 
-        //OR we hit an inactive cell AND we're supposed to stop on inactives
-        //This is set to true on inserts, because we can overwrite inactives.
-
         //OR when we find an entry that matches our key. For find, this means
         //we've found our element. For insert, this means that the element
         //is already in the set. Each of these cases will be handled
         //by the calling method.
         while(
          curTable[hash] != null
-         && (!stopOnInactive || curTable[hash].active)
          && !key.equals(curTable[hash].element)
         ) {
-            //quadratic probe
-            hash = (originalHash + quadraticCounter * quadraticCounter) % curTable.length;
-            quadraticCounter++;
+            //remember the first inactive cell, inserts can overwrite it
+            if(reuseInactive && firstInactive < 0 && !curTable[hash].active) {
+                firstInactive = hash;
+            }
+            //probe
+            hash = strategy.probe(originalHash, attempt, curTable.length);
+            attempt++;
+        }
+        lastProbeLength = attempt - 1;
+        //if the key isn't active in the table, an earlier inactive cell is
+        //a better place for it than the end of the chain
+        if(firstInactive >= 0
+         && (curTable[hash] == null || !curTable[hash].active)) {
+            return firstInactive;
         }
         return hash;
     }
 
+    /**
+     * Sets the listener told about every change to the set. A table has
+     * at most one, so this replaces any listener set before.
+     * @param listener The new listener, or null for none
+     */
+    public void setListener(Listener<? super E> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the listener told about every change to the set.
+     * @return The listener, or null if there isn't one
+     */
+    public Listener<? super E> getListener() {
+        return listener;
+    }
+
+    /**
+     * Starts keeping statistics about this table, if it isn't already.
+     * Every operation gets a little slower while statistics are on.
+     * @return The table's statistics
+     */
+    public HashTableStats enableStats() {
+        if(stats == null) {
+            stats = new HashTableStats(new StatsSource());
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the table's statistics.
+     * @return The statistics, or null if enableStats hasn't been called
+     */
+    public HashTableStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Stops keeping statistics. If they were registered with JMX, they
+     * stay registered until HashTableStats.unregister is called.
+     */
+    public void disableStats() {
+        stats = null;
+    }
+
+    //gives HashTableStats a look at the table. It's called from whatever
+    //thread reads the statistics, so it only ever reads, and its answers
+    //are approximate while the table is being changed.
+    private class StatsSource implements HashTableStats.Source {
+        public int capacity() {
+            return table.length;
+        }
+        public int elementCount() {
+            return numActive;
+        }
+        public int occupiedCells() {
+            return numOccupiedCells;
+        }
+        public void scanClusters(long[] clusterLengths, long[] homeSlots) {
+            HashEntry<E>[] curTable = table;
+            int[] perHome = new int[curTable.length];
+            int run = 0;
+            for(int i = 0; i < curTable.length; i++) {
+                HashEntry<E> hashEntry = curTable[i];
+                if(hashEntry == null) {
+                    if(run > 0) clusterLengths[HashTableStats.bucketFor(run)]++;
+                    run = 0;
+                    continue;
+                }
+                run++;
+                if(hashEntry.active) {
+                    perHome[homeIndex(curTable, hashEntry.element)]++;
+                }
+            }
+            if(run > 0) clusterLengths[HashTableStats.bucketFor(run)]++;
+            for(int count : perHome) {
+                homeSlots[HashTableStats.bucketFor(count)]++;
+            }
+        }
+    }
+
     /**
      * Prints the internal structure of the array used to hold the set.
      */
@@ -269,6 +990,17 @@ public class HashTable {
                 System.out.println(table[i].element + ", " + (table[i].active ? "active" : "inactive"));
             }
         }
+        if(oldTable != null) {
+            //the rest of an incremental resize, not moved yet
+            System.out.println("resizing, moved " + migrateCursor + " of "
+             + oldTable.length + " old cells:");
+            for(int i = migrateCursor; i < oldTable.length; i++) {
+                if(isActive(oldTable[i])) {
+                    System.out.println("old [" + i + "]: "
+                     + oldTable[i].element + ", active");
+                }
+            }
+        }
     }
 
     /**
@@ -276,14 +1008,8 @@ public class HashTable {
      * @return The number of elements in the set
      */
     public int elementCount() {
-        int count = 0;
-        for(int i = 0; i < table.length; i++) {
-            if(table[i] != null && table[i].active) {
-                count++;
-            }
-        }
-        return count;
-        //count all active entries
+        //we keep track of active entries as we go
+        return numActive;
     }
 
     /**
@@ -291,15 +1017,7 @@ public class HashTable {
      * @return true if the table is empty, false otherwise
      */
     public boolean isEmpty() {
-        for(int i = 0; i < table.length; i++) {
-            if(table[i] != null && table[i].active) {
-                return false; //return false as soon
-                //as we find an active element
-            }
-        }
-        return true;
-        //otherwise, return true, we went through the whole table
-        //and there were no active cells
+        return numActive == 0;
     }
 
     /**
@@ -307,19 +1025,77 @@ public class HashTable {
      */
     public void makeEmpty() {
         //reset the array, and reset the number of occupied cells
-        table = new HashEntry[table.length];
+        table = newTable(table.length);
+        oldTable = null;
         numOccupiedCells = 0;
+        numActive = 0;
+        modCount++;
+        if(listener != null) {
+            listener.cleared();
+        }
+    }
+
+    /**
+     * Returns an iterator over the elements in the set. The iterator's
+     * remove deletes the last element returned, but never compacts the
+     * table, so deleted cells are only cleared out by a later delete.
+     * Changing the set any other way while iterating makes the iterator
+     * throw a ConcurrentModificationException.
+     * @return An iterator over the set
+     */
+    public Iterator<E> iterator() {
+        return new Iter();
+    }
+
+    /**
+     * Runs action on every element in the set. Walks the array directly,
+     * without creating an iterator.
+     * @param action What to do with each element
+     * @throws ConcurrentModificationException if action changes the set
+     */
+    @Override
+    public void forEach(Consumer<? super E> action) {
+        if(action == null) throw new NullPointerException();
+        finishMigration();
+        HashEntry<E>[] cells = table;
+        int expectedModCount = modCount;
+        for(int i = 0; i < cells.length; i++) {
+            HashEntry<E> hashEntry = cells[i];
+            if(hashEntry != null && hashEntry.active) {
+                action.accept(hashEntry.element);
+                if(modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a Spliterator over the elements in the set, which splits the
+     * array into ranges of cells so parallel streams can share them out.
+     * The set must not be changed while it's in use.
+     * @return A Spliterator over the set
+     */
+    @Override
+    public Spliterator<E> spliterator() {
+        finishMigration();
+        return new Split(table, 0, table.length, numActive, modCount);
+    }
+
+    /**
+     * Returns a stream of the elements in the set. Call parallel on it to
+     * have it split across the common fork/join pool.
+     * @return A stream over the set
+     */
+    public Stream<E> stream() {
+        return StreamSupport.stream(spliterator(), false);
     }
 
     /**
      * Prints the elements in the set.
      */
     public void outputData() {
-        //use an iterator to print out each item.
-        Iter iter = new Iter();
-        while(iter.hasNext()) {
-            Object item = iter.next();
-            System.out.println(item + ", active");
-        }
+        //print out each item.
+        forEach(item -> System.out.println(item + ", active"));
     }
 }
@@ -0,0 +1,261 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Statistics about how a HashTable is behaving: probe lengths, hit and
+ * miss counts, rehashes, and how full and clustered the table is.
+ * A table only keeps statistics after HashTable.enableStats is called,
+ * and they can be published over JMX with register.
+ *
+ * Histograms share one bucket layout: bucket i for i below 16 counts the
+ * value i exactly, and bucket i from 16 up counts values from 2^(i-12)
+ * up to but not including 2^(i-11). A probe length is how many cells were
+ * looked at past the element's home cell.
+ */
+public class HashTableStats implements HashTableStatsMBean {
+
+    //how many histogram buckets there are, enough for any int
+    static final int NUM_BUCKETS = 44;
+    //values below this get a bucket each
+    private static final int EXACT_BUCKETS = 16;
+
+    //what the stats need from the table they describe
+    interface Source {
+        int capacity();
+        int elementCount();
+        int occupiedCells();
+        //walks the cells, adding the length of each run of occupied cells
+        //to clusterLengths, and how many elements hash to each home cell
+        //to homeSlots
+        void scanClusters(long[] clusterLengths, long[] homeSlots);
+    }
+
+    private final Source source;
+
+    private final LongAdder findHits = new LongAdder();
+    private final LongAdder findMisses = new LongAdder();
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder duplicateInserts = new LongAdder();
+    private final LongAdder deletes = new LongAdder();
+    private final LongAdder deleteMisses = new LongAdder();
+    private final LongAdder findProbeTotal = new LongAdder();
+    private final AtomicLongArray findProbes = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLongArray insertProbes = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLongArray deleteProbes = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder rehashCount = new LongAdder();
+    private final LongAdder rehashTotalNanos = new LongAdder();
+    private final LongAdder reseedCount = new LongAdder();
+    //only the table's own thread updates this, so a volatile is enough
+    private volatile long rehashMaxNanos;
+
+    //the name this is registered under with JMX, or null if it isn't
+    private ObjectName registeredName;
+
+    HashTableStats(Source source) {
+        this.source = source;
+    }
+
+    //returns which histogram bucket value goes in
+    static int bucketFor(long value) {
+        if(value < EXACT_BUCKETS) {
+            return (int)Math.max(value, 0);
+        }
+        return Math.min(NUM_BUCKETS - 1,
+         EXACT_BUCKETS + (63 - Long.numberOfLeadingZeros(value)) - 4);
+    }
+
+    void recordFind(int probes, boolean hit) {
+        (hit ? findHits : findMisses).increment();
+        findProbeTotal.add(probes);
+        findProbes.incrementAndGet(bucketFor(probes));
+    }
+
+    void recordInsert(int probes, boolean inserted) {
+        (inserted ? inserts : duplicateInserts).increment();
+        insertProbes.incrementAndGet(bucketFor(probes));
+    }
+
+    void recordDelete(int probes, boolean deleted) {
+        (deleted ? deletes : deleteMisses).increment();
+        deleteProbes.incrementAndGet(bucketFor(probes));
+    }
+
+    void recordRehash(long nanos) {
+        rehashCount.increment();
+        rehashTotalNanos.add(nanos);
+        if(nanos > rehashMaxNanos) {
+            rehashMaxNanos = nanos;
+        }
+    }
+
+    void recordReseed() {
+        reseedCount.increment();
+    }
+
+    /**
+     * Publishes these statistics on the platform MBean server, under
+     * "HashTable:type=HashTableStats,name=" followed by name.
+     * @param name What to call this table in JMX
+     * @throws JMException if the name is taken or invalid
+     */
+    public synchronized void register(String name) throws JMException {
+        if(registeredName != null) {
+            unregister();
+        }
+        ObjectName objectName = new ObjectName(
+         "HashTable:type=HashTableStats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registeredName = objectName;
+    }
+
+    /**
+     * Removes these statistics from the platform MBean server, if register
+     * was called.
+     * @throws JMException if they can't be unregistered
+     */
+    public synchronized void unregister() throws JMException {
+        if(registeredName == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if(server.isRegistered(registeredName)) {
+            server.unregisterMBean(registeredName);
+        }
+        registeredName = null;
+    }
+
+    public long getFindHits() {
+        return findHits.sum();
+    }
+
+    public long getFindMisses() {
+        return findMisses.sum();
+    }
+
+    public long getInserts() {
+        return inserts.sum();
+    }
+
+    public long getDuplicateInserts() {
+        return duplicateInserts.sum();
+    }
+
+    public long getDeletes() {
+        return deletes.sum();
+    }
+
+    public long getDeleteMisses() {
+        return deleteMisses.sum();
+    }
+
+    public long[] getFindProbeHistogram() {
+        return toArray(findProbes);
+    }
+
+    public long[] getInsertProbeHistogram() {
+        return toArray(insertProbes);
+    }
+
+    public long[] getDeleteProbeHistogram() {
+        return toArray(deleteProbes);
+    }
+
+    public double getMeanFindProbeLength() {
+        long finds = findHits.sum() + findMisses.sum();
+        return finds == 0 ? 0 : (double)findProbeTotal.sum() / finds;
+    }
+
+    public long getRehashCount() {
+        return rehashCount.sum();
+    }
+
+    public long getRehashTotalNanos() {
+        return rehashTotalNanos.sum();
+    }
+
+    public long getRehashMaxNanos() {
+        return rehashMaxNanos;
+    }
+
+    /**
+     * Returns how many times the table picked a new hash seed because an
+     * insert probed far too long.
+     * @return The number of reseeds
+     */
+    public long getReseedCount() {
+        return reseedCount.sum();
+    }
+
+    public int getCapacity() {
+        return source.capacity();
+    }
+
+    public int getElementCount() {
+        return source.elementCount();
+    }
+
+    public double getLoadFactor() {
+        return (double)source.occupiedCells() / source.capacity();
+    }
+
+    public double getTombstoneRatio() {
+        return (double)(source.occupiedCells() - source.elementCount())
+         / source.capacity();
+    }
+
+    /**
+     * Returns a histogram of how long the runs of occupied cells are.
+     * Walks the whole table, so this is slow on big tables.
+     * @return The cluster length histogram
+     */
+    public long[] getClusterLengthHistogram() {
+        long[] clusterLengths = new long[NUM_BUCKETS];
+        source.scanClusters(clusterLengths, new long[NUM_BUCKETS]);
+        return clusterLengths;
+    }
+
+    /**
+     * Returns a histogram of how many elements hash to each home cell, so
+     * bucket 0 counts home cells nothing hashes to. Walks the whole table,
+     * so this is slow on big tables.
+     * @return The home cell histogram
+     */
+    public long[] getHomeSlotHistogram() {
+        long[] homeSlots = new long[NUM_BUCKETS];
+        source.scanClusters(new long[NUM_BUCKETS], homeSlots);
+        return homeSlots;
+    }
+
+    /**
+     * Sets every counter and histogram back to zero.
+     */
+    public void reset() {
+        findHits.reset();
+        findMisses.reset();
+        inserts.reset();
+        duplicateInserts.reset();
+        deletes.reset();
+        deleteMisses.reset();
+        findProbeTotal.reset();
+        for(int i = 0; i < NUM_BUCKETS; i++) {
+            findProbes.set(i, 0);
+            insertProbes.set(i, 0);
+            deleteProbes.set(i, 0);
+        }
+        rehashCount.reset();
+        rehashTotalNanos.reset();
+        rehashMaxNanos = 0;
+        reseedCount.reset();
+    }
+
+    private static long[] toArray(AtomicLongArray histogram) {
+        long[] counts = new long[histogram.length()];
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * The attributes and operations HashTableStats exposes over JMX.
+ * Histograms are arrays of counts; see HashTableStats for what each
+ * bucket means.
+ */
+public interface HashTableStatsMBean {
+
+    long getFindHits();
+
+    long getFindMisses();
+
+    long getInserts();
+
+    long getDuplicateInserts();
+
+    long getDeletes();
+
+    long getDeleteMisses();
+
+    long[] getFindProbeHistogram();
+
+    long[] getInsertProbeHistogram();
+
+    long[] getDeleteProbeHistogram();
+
+    double getMeanFindProbeLength();
+
+    long getRehashCount();
+
+    long getRehashTotalNanos();
+
+    long getRehashMaxNanos();
+
+    long getReseedCount();
+
+    int getCapacity();
+
+    int getElementCount();
+
+    double getLoadFactor();
+
+    double getTombstoneRatio();
+
+    long[] getClusterLengthHistogram();
+
+    long[] getHomeSlotHistogram();
+
+    void reset();
+}
@@ -0,0 +1,158 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Mixes hash codes before the tables turn them into cell indexes.
+ * hashCode is often weak: Student's is just its ID folded into an int, so
+ * IDs in structured ranges can land on repeating cells, and anyone who
+ * picks the IDs can make them collide. Mixing with MurmurHash3's
+ * finalizer, seeded with a random number per table, spreads those
+ * patterns out, and nobody can work out ahead of time which keys will
+ * collide in a given table.
+ *
+ * Mixing also spreads out keys that were fine to begin with, though. IDs
+ * handed out in order never collide in a prime sized table, and mixed
+ * they collide as often as random ones. So HashTable and
+ * LongKeyedHashTable start out UNMIXED, and only pick a seed once an
+ * insert probes far longer than it should. Tables that don't watch their
+ * probe lengths mix from the start.
+ *
+ * Mixing can't separate keys whose hash codes are equal, since they mix
+ * to the same value under any seed, and folding a 64 bit ID into an int
+ * makes equal hash codes easy to find. So the tables hash keys with
+ * hashOf, which mixes the whole 64 bit key of a LongHashed key like
+ * Student, as the long keyed tables do with their IDs. Different students
+ * then only collide by chance, however their IDs were picked. For other
+ * keys the tables refuse to insert once a probe passes MAX_PROBE after
+ * mixing, rather than letting every operation on keys sharing a hash code
+ * slow down without limit.
+ */
+final class Hashing {
+
+    //all static, never created
+    private Hashing() {}
+
+    //the seed of a table that uses hash codes as they are
+    static final int UNMIXED = 0;
+
+    //an insert that probes past this many cells in a table that's mixing
+    //its hash codes is looking at keys with equal hash codes. Random ones
+    //never get close, at the loads the tables allow.
+    static final int MAX_PROBE = 1 << 12;
+
+    /**
+     * Returns the exception a table throws instead of inserting key, when
+     * so many keys share its hash code that the probe passed MAX_PROBE.
+     * @param key The key that couldn't be inserted
+     * @return The exception to throw
+     */
+    static IllegalStateException tooManyCollisions(Object key) {
+        return new IllegalStateException("Too many keys share the hash code "
+         + key.hashCode() + " to insert " + key);
+    }
+
+    /**
+     * Returns a random seed for a table, never UNMIXED.
+     * @return A seed
+     */
+    static int newSeed() {
+        int seed;
+        do {
+            seed = ThreadLocalRandom.current().nextInt();
+        } while(seed == UNMIXED);
+        return seed;
+    }
+
+    /**
+     * Mixes a hash code with a table's seed. Every bit of the result
+     * depends on every bit of hash.
+     * @param hash The hash code to mix
+     * @param seed The table's seed
+     * @return The mixed hash code, or hash if seed is UNMIXED
+     */
+    static int mix(int hash, int seed) {
+        if(seed == UNMIXED) return hash;
+        //MurmurHash3's fmix32
+        int h = hash ^ seed;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Hashes a key for a table with the given seed. A LongHashed key is
+     * mixed from its whole hash key, anything else from its hashCode.
+     * @param key The key to hash
+     * @param seed The table's seed
+     * @return The mixed hash code, or key.hashCode() if seed is UNMIXED
+     */
+    static int hashOf(Object key, int seed) {
+        if(key instanceof LongHashed) {
+            return mix(((LongHashed)key).hashKey(), seed);
+        }
+        return mix(key.hashCode(), seed);
+    }
+
+    /**
+     * Mixes a 64 bit key with a table's seed, down to an int. Unlike mixing
+     * Long.hashCode(key), keys whose high and low halves XOR to the same
+     * value don't collide.
+     * @param key The key to mix
+     * @param seed The table's seed
+     * @return The mixed hash code, or Long.hashCode(key) if seed is
+     * UNMIXED
+     */
+    static int mix(long key, int seed) {
+        if(seed == UNMIXED) return Long.hashCode(key);
+        //seeded in both halves
+        return (int)fmix64(key ^ (seed * 0x9e3779b97f4a7c15L));
+    }
+
+    /**
+     * Hashes a string to 64 bits with a seed. Unlike String.hashCode,
+     * strings that differ only hash the same by chance, one time in 2^64,
+     * so the result can stand in for the string where equal hash codes
+     * would be a problem.
+     * @param string The string to hash
+     * @param seed The seed
+     * @return The hash
+     */
+    static long hash(CharSequence string, int seed) {
+        long h = (seed * 0x9e3779b97f4a7c15L) ^ string.length();
+        //take the chars four at a time. fmix64 never maps two values to
+        //the same one, so strings only collide if some state does.
+        for(int i = 0; i < string.length(); i += 4) {
+            long chunk = 0;
+            for(int j = i; j < Math.min(i + 4, string.length()); j++) {
+                chunk = chunk << 16 | string.charAt(j);
+            }
+            h = fmix64(h ^ chunk);
+        }
+        return fmix64(h);
+    }
+
+    //MurmurHash3's 64 bit finalizer
+    private static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Turns a hash code into a cell index for a table of any size.
+     * Never negative, unlike Math.abs(hash) % length, which is when hash is
+     * Integer.MIN_VALUE.
+     * @param hash A hash code, usually mixed
+     * @param length The table length
+     * @return An index from 0 up to but not including length
+     */
+    static int index(int hash, int length) {
+        return (hash & 0x7fffffff) % length;
+    }
+}
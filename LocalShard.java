@@ -0,0 +1,89 @@
+import java.util.Arrays;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A Shard held in this JVM, in a LongKeyedHashTable. ShardServer serves
+ * one of these to other processes. Thread safe: every method locks the
+ * shard, since the table isn't thread safe.
+ */
+public class LocalShard implements Shard {
+
+    private final LongKeyedHashTable table;
+
+    /**
+     * Creates an empty shard with room for elements students.
+     * @param elements How many students can be expected to be inserted.
+     */
+    public LocalShard(int elements) {
+        this(new LongKeyedHashTable(elements));
+    }
+
+    /**
+     * Creates a shard holding table. The shard takes table over, so
+     * nothing else should use it afterwards.
+     * @param table The students to start with
+     */
+    public LocalShard(LongKeyedHashTable table) {
+        this.table = table;
+    }
+
+    @Override
+    public synchronized boolean insert(long id, String lastName) {
+        return table.insert(id, lastName);
+    }
+
+    @Override
+    public synchronized String find(long id) {
+        return table.find(id);
+    }
+
+    @Override
+    public synchronized boolean delete(long id) {
+        return table.delete(id);
+    }
+
+    @Override
+    public synchronized int insertAll(long[] ids, String[] lastNames) {
+        return table.insertAll(ids, lastNames);
+    }
+
+    @Override
+    public synchronized int elementCount() {
+        return table.elementCount();
+    }
+
+    @Override
+    public synchronized Batch copyRanges(int[] starts, int[] ends) {
+        long[] ids = new long[16];
+        String[] lastNames = new String[16];
+        int count = 0;
+        for(int i = 0; i < table.capacity(); i++) {
+            if(table.stateAt(i) == LongKeyedHashTable.ACTIVE
+             && ShardedHashTable.inRanges(
+              ShardedHashTable.ringPosition(table.idAt(i)), starts, ends)) {
+                if(count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                    lastNames = Arrays.copyOf(lastNames, count * 2);
+                }
+                ids[count] = table.idAt(i);
+                lastNames[count] = table.nameAt(i);
+                count++;
+            }
+        }
+        return new Batch(Arrays.copyOf(ids, count),
+         Arrays.copyOf(lastNames, count));
+    }
+
+    @Override
+    public synchronized int deleteRanges(int[] starts, int[] ends) {
+        //collect first, since deleting can compact the table under us
+        return table.deleteAll(copyRanges(starts, ends).ids);
+    }
+
+    /**
+     * Does nothing, a local shard holds no outside resources.
+     */
+    @Override
+    public void close() {
+    }
+}
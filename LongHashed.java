@@ -0,0 +1,16 @@
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A key with a 64 bit hash, for keys whose hashCode throws information
+ * away. The tables mix hashKey instead of hashCode for these, through
+ * Hashing.hashOf, so keys that fold to the same int still only collide
+ * by chance. Equal keys must have equal hash keys, and hashCode must be
+ * Long.hashCode(hashKey()), which is what an unmixed table uses.
+ */
+interface LongHashed {
+
+    /**
+     * Returns the key's 64 bit hash.
+     * @return The hash
+     */
+    long hashKey();
+}
@@ -0,0 +1,508 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A Hash Table of Students keyed by their primitive long IDs.
+ * Instead of storing an entry Object per record, IDs, last names and cell
+ * states are kept in flat parallel arrays. Uses the same open addressing
+ * and quadratic probing as HashTable, and like HashTable starts mixing
+ * keys with a random seed if an insert probes too far. Supports
+ * insert, find, and delete operations without creating any Student or
+ * boxed key.
+ *
+ * Last names are interned in a NameDictionary, so each cell holds an int
+ * handle instead of a String, and a name repeated across many students is
+ * stored once. find decodes the name when it's asked for.
+ */
+public class LongKeyedHashTable {
+
+    //possible states for a cell. EMPTY means nothing has been entered,
+    //INACTIVE represents a deleted entry, and ACTIVE represents a student
+    //in the table.
+    static final byte EMPTY = 0;
+    static final byte ACTIVE = 1;
+    static final byte INACTIVE = 2;
+
+    //the parallel arrays holding our cells. A cell at index i is made up of
+    //ids[i], names[i] and states[i]. names holds handles into dictionary.
+    private long[] ids;
+    private int[] names;
+    private byte[] states;
+    //every last name inserted since the dictionary was last rebuilt
+    private NameDictionary dictionary = new NameDictionary();
+    //the number of occupied cells (active OR inactive) so that we know
+    //when we need to expand the table, just like in HashTable.
+    private int numOccupiedCells;
+    //the number of active cells. numOccupiedCells - numActive is the number
+    //of deleted cells.
+    private int numActive;
+    //once deleted cells take up this fraction of the table, delete
+    //compacts the table, just like in HashTable
+    private final double tombstoneThreshold;
+
+    //mixed into every ID, see Hashing. UNMIXED until an insert probes
+    //too far.
+    private int seed = Hashing.UNMIXED;
+    //whether we've reseeded since the table last grew, like in HashTable
+    private boolean reseeded;
+    //how many cells past the home cell the last getIndexForKey call looked
+    private int lastProbeLength;
+
+    //the tombstone threshold used if the caller doesn't give one
+    private static final double DEFAULT_TOMBSTONE_THRESHOLD = 0.25;
+    //how many IDs the bulk operations hash before probing for them
+    private static final int BATCH_SIZE = 64;
+    //inserts that probe past this many cells make the table reseed, just
+    //like in HashTable
+    private static final int LONG_PROBE = 64;
+
+    //written by hashBatch so the JIT can't skip its cell reads
+    private int batchSink;
+
+    /**
+     * Creates an empty LongKeyedHashTable with an array size that's good for
+     * holding elements students.
+     * @param elements How many students can be expected to be inserted.
+     * Used to determine the optimal array size for storing the data.
+     */
+    public LongKeyedHashTable(int elements) {
+        this(elements, DEFAULT_TOMBSTONE_THRESHOLD);
+    }
+
+    /**
+     * Creates an empty LongKeyedHashTable with an array size that's good for
+     * holding elements students.
+     * @param elements How many students can be expected to be inserted.
+     * @param tombstoneThreshold The fraction of the table that deleted
+     * cells may take up before the table is compacted. Must be greater
+     * than 0 and at most 1.
+     */
+    public LongKeyedHashTable(int elements, double tombstoneThreshold) {
+        if(!(tombstoneThreshold > 0 && tombstoneThreshold <= 1)) {
+            throw new IllegalArgumentException(
+             "Tombstone threshold must be in (0, 1].");
+        }
+        this.tombstoneThreshold = tombstoneThreshold;
+        //size the arrays by the smallest prime number larger than or equal
+        //to twice the number of expected elements
+        allocate(Primes.nextPrime((long)elements*2));
+        numOccupiedCells = 0; //the table is empty right now.
+        numActive = 0;
+    }
+
+    //creates fresh, empty parallel arrays of the given size
+    private void allocate(int size) {
+        ids = new long[size];
+        names = new int[size];
+        states = new byte[size];
+    }
+
+    /**
+     * Inserts a student into the table.
+     * @param id The student's ID number
+     * @param lastName The student's last name
+     * @return true if the student was inserted, false if the ID is taken
+     */
+    public boolean insert(long id, String lastName) {
+        //get the index that we can place the student into. reuse
+        //inactive cells, because we can overwrite them
+        return insertAt(getIndexForKey(ids, states, id, true), id, lastName);
+    }
+
+    //puts a student into the cell at index, which getIndexForKey picked
+    //with reuseInactive set to true. returns false if the ID was there.
+    private boolean insertAt(int index, long id, String lastName) {
+        //growing probes too, so remember how long this one was
+        int probeLength = lastProbeLength;
+        if(states[index] == EMPTY) {
+            ids[index] = id;
+            names[index] = dictionary.intern(lastName);
+            states[index] = ACTIVE;
+            numActive++;
+            //if the (now incremented) number of occupied cells is too large
+            //for quadratic probing, rehash
+            if(++numOccupiedCells >= (states.length/2)) {
+                growOrCompact();
+            }
+        } else if(states[index] == INACTIVE) {
+            //reuse the deleted cell, occupied cells doesn't change
+            ids[index] = id;
+            names[index] = dictionary.intern(lastName);
+            states[index] = ACTIVE;
+            numActive++;
+        } else {
+            return false;
+        }
+        if(probeLength > LONG_PROBE && !reseeded) {
+            //IDs are colliding far more than random ones would, so mix
+            //them differently
+            seed = Hashing.newSeed();
+            reseeded = true;
+            rehash(states.length);
+        }
+        return true;
+    }
+
+    //called when the table is half full. clears out deleted cells if they
+    //make up most of it, otherwise grows to the next optimal size.
+    private void growOrCompact() {
+        if(numActive < states.length/4) {
+            rehash(states.length);
+        } else {
+            rehash(Primes.nextPrime((long)states.length*2));
+        }
+    }
+
+    //rehashes every active cell into new arrays of size newSize
+    private void rehash(int newSize) {
+        long[] oldIds = ids;
+        int[] oldNames = names;
+        byte[] oldStates = states;
+        if(newSize != oldStates.length) {
+            //a different size spreads IDs differently, so the seed
+            //deserves another chance
+            reseeded = false;
+        }
+        allocate(newSize);
+        //the dictionary never forgets a name, so once most of its names
+        //belong to deleted students, start a new one with only the names
+        //still in use
+        NameDictionary oldDictionary = dictionary;
+        if(oldDictionary.size() > 2 * numActive) {
+            dictionary = new NameDictionary(numActive);
+        }
+
+        //reset the number of occupied cells (since we won't rehash inactives)
+        numOccupiedCells = 0;
+
+        for(int i = 0; i < oldStates.length; i++) {
+            if(oldStates[i] == ACTIVE) {
+                int index = getIndexForKey(ids, states, oldIds[i], true);
+                ids[index] = oldIds[i];
+                names[index] = dictionary == oldDictionary ? oldNames[i]
+                 : oldDictionary.copyTo(oldNames[i], dictionary);
+                states[index] = ACTIVE;
+                numOccupiedCells++;
+            }
+        }
+    }
+
+    /**
+     * Finds the last name of the student with the given ID.
+     * @param id The ID to look up
+     * @return The student's last name, or null if nothing is found.
+     */
+    public String find(long id) {
+        int index = getIndexForKey(ids, states, id, false);
+        //only active cells hold a student
+        return states[index] == ACTIVE ? dictionary.name(names[index]) : null;
+    }
+
+    /**
+     * Returns whether a student with the given ID is in the table.
+     * @param id The ID to look up
+     * @return true if the ID is in the table, false otherwise
+     */
+    public boolean contains(long id) {
+        return states[getIndexForKey(ids, states, id, false)] == ACTIVE;
+    }
+
+    /**
+     * Finds and deletes the student with the given ID.
+     * Does nothing if the ID is not in the table.
+     * @param id The ID of the student to delete
+     * @return true if a student was deleted, false otherwise
+     */
+    public boolean delete(long id) {
+        return deleteAt(getIndexForKey(ids, states, id, false));
+    }
+
+    //deletes the student in the cell at index, if there is one
+    private boolean deleteAt(int index) {
+        if(states[index] == ACTIVE) {
+            //lazy deletion, just like HashTable. the name stays in the
+            //dictionary until rehash rebuilds it.
+            states[index] = INACTIVE;
+            numActive--;
+            //throw away deleted cells once they pile up
+            if(numOccupiedCells - numActive >= states.length * tombstoneThreshold) {
+                rehash(states.length);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Makes sure the table can hold elements students without having to
+     * rehash along the way.
+     * @param elements The total number of students the table should be
+     * able to hold
+     */
+    public void ensureCapacity(int elements) {
+        if(numOccupiedCells - numActive + (long)elements >= states.length/2) {
+            rehash(Primes.nextPrime((long)elements*2 + 2));
+        }
+    }
+
+    /**
+     * Inserts a batch of students. The table is grown once for the whole
+     * batch, and each group of IDs is hashed before any of them are probed
+     * for, so the first cell reads of the group overlap in memory.
+     * @param ids The students' IDs
+     * @param lastNames The students' last names, parallel to ids
+     * @return How many students were inserted (IDs not already taken)
+     */
+    public int insertAll(long[] ids, String[] lastNames) {
+        if(lastNames.length < ids.length) {
+            throw new IllegalArgumentException(
+             "lastNames must be at least as long as ids.");
+        }
+        ensureCapacity(numActive + ids.length);
+        int inserted = 0;
+        int[] homes = new int[Math.min(BATCH_SIZE, ids.length)];
+        for(int start = 0; start < ids.length; start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, ids.length);
+            int length = hashBatch(ids, start, end, homes);
+            int batchSeed = seed;
+            for(int i = start; i < end; i++) {
+                //a long probe can make the table reseed, which moves every
+                //home
+                int home = states.length == length && seed == batchSeed
+                 ? homes[i - start] : homeIndex(states, ids[i]);
+                if(insertAt(getIndexForKey(this.ids, states, ids[i], home, true),
+                 ids[i], lastNames[i])) {
+                    inserted++;
+                }
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Finds the last names of a batch of students. results[i] is set to the
+     * last name for ids[i], or null if it isn't in the table.
+     * @param ids The IDs to look up
+     * @param results Where to put the last names. Must be at least as long
+     * as ids.
+     * @return How many IDs were found
+     */
+    public int findAll(long[] ids, String[] results) {
+        if(results.length < ids.length) {
+            throw new IllegalArgumentException(
+             "results must be at least as long as ids.");
+        }
+        int found = 0;
+        int[] homes = new int[Math.min(BATCH_SIZE, ids.length)];
+        for(int start = 0; start < ids.length; start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, ids.length);
+            hashBatch(ids, start, end, homes);
+            for(int i = start; i < end; i++) {
+                int index = getIndexForKey(this.ids, states, ids[i],
+                 homes[i - start], false);
+                if(states[index] == ACTIVE) {
+                    results[i] = dictionary.name(names[index]);
+                    found++;
+                } else {
+                    results[i] = null;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Deletes a batch of students.
+     * @param ids The IDs of the students to delete. IDs not in the table
+     * are skipped.
+     * @return How many students were deleted
+     */
+    public int deleteAll(long[] ids) {
+        int deleted = 0;
+        int[] homes = new int[Math.min(BATCH_SIZE, ids.length)];
+        for(int start = 0; start < ids.length; start += BATCH_SIZE) {
+            int end = Math.min(start + BATCH_SIZE, ids.length);
+            int length = hashBatch(ids, start, end, homes);
+            for(int i = start; i < end; i++) {
+                //a compaction keeps the length, but never trust stale homes
+                int home = states.length == length ? homes[i - start]
+                 : homeIndex(states, ids[i]);
+                if(deleteAt(getIndexForKey(this.ids, states, ids[i], home,
+                 false))) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    //First pass of a batch, like HashTable.hashBatch: works out the home
+    //cell of ids[start..end) and reads each home cell's state, so the cache
+    //misses overlap before probing starts. Returns the table length the
+    //homes are valid for.
+    private int hashBatch(long[] batchIds, int start, int end, int[] homes) {
+        for(int i = start; i < end; i++) {
+            homes[i - start] = homeIndex(states, batchIds[i]);
+        }
+        int touched = 0;
+        for(int i = start; i < end; i++) {
+            touched += states[homes[i - start]];
+        }
+        batchSink = touched;
+        return states.length;
+    }
+
+    //returns the position key should be placed in before any probing. hashes
+    //the same way Student does, or once mixing is on, mixes all 64 bits of
+    //the id, all without boxing it.
+    private int homeIndex(byte[] curStates, long key) {
+        return homeIndex(key, seed, curStates.length);
+    }
+
+    //returns the home position of key in a table of the given length, mixed
+    //with seed. MappedStudentTable probes saved tables with this too, so it
+    //has to stay in step with getIndexForKey.
+    static int homeIndex(long key, int seed, int length) {
+        return Hashing.index(Hashing.mix(key, seed), length);
+    }
+
+    //Does the hashing and quadratic probing, with the same rules as
+    //HashTable.getIndexForKey. Returns an index whose state is one of:
+    //EMPTY: The id was not found, but this is where it could be inserted
+    //INACTIVE: (if reuseInactive is true) the id was not found, and this is
+    //the first deleted cell on its probe chain
+    //ACTIVE: The id was found here.
+    private int getIndexForKey(long[] curIds, byte[] curStates, long key,
+     boolean reuseInactive) {
+        return getIndexForKey(curIds, curStates, key,
+         homeIndex(curStates, key), reuseInactive);
+    }
+
+    //same as above, but starts from a home position the caller already
+    //worked out with homeIndex
+    private int getIndexForKey(long[] curIds, byte[] curStates, long key,
+     int originalHash, boolean reuseInactive) {
+        int hash = originalHash;
+        int quadraticCounter = 1;
+        int firstInactive = -1;
+
+        //deleted cells don't keep their ids, so only active cells can match
+        while(
+         curStates[hash] != EMPTY
+         && !(curStates[hash] == ACTIVE && curIds[hash] == key)
+        ) {
+            if(reuseInactive && firstInactive < 0 && curStates[hash] == INACTIVE) {
+                firstInactive = hash;
+            }
+            //quadratic probe
+            hash = (int)((originalHash + (long)quadraticCounter * quadraticCounter) % curStates.length);
+            quadraticCounter++;
+        }
+        lastProbeLength = quadraticCounter - 1;
+        if(firstInactive >= 0 && curStates[hash] == EMPTY) {
+            return firstInactive;
+        }
+        return hash;
+    }
+
+    /**
+     * Prints the internal structure of the arrays used to hold the table.
+     */
+    public void printTable() {
+        for(int i = 0; i < states.length; i++) {
+            System.out.print("[" + i + "]: " );
+            if(states[i] == EMPTY) {
+                System.out.println("empty");
+            } else {
+                //deleted cells have no name, and may hold a handle from an
+                //older dictionary
+                System.out.println(ids[i] + ", "
+                 + (states[i] == ACTIVE ? dictionary.name(names[i]) : null)
+                 + ", " + (states[i] == ACTIVE ? "active" : "inactive"));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of students in the table.
+     * @return The number of students in the table
+     */
+    public int elementCount() {
+        return numActive;
+    }
+
+    /**
+     * Returns whether or not the table is empty.
+     * @return true if the table is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return numActive == 0;
+    }
+
+    /**
+     * Empties the table.
+     */
+    public void makeEmpty() {
+        allocate(states.length);
+        dictionary = new NameDictionary();
+        numOccupiedCells = 0;
+        numActive = 0;
+    }
+
+    /**
+     * Saves the table to path, in the layout MappedStudentTable.open reads.
+     * @param path The file to write. Replaced if it already exists.
+     * @throws IOException if the file can't be written
+     */
+    public void save(Path path) throws IOException {
+        MappedStudentTable.save(this, path);
+    }
+
+    //the number of cells in the table, for MappedStudentTable
+    int capacity() {
+        return states.length;
+    }
+
+    //the seed IDs are mixed with, or UNMIXED, for MappedStudentTable
+    int seed() {
+        return seed;
+    }
+
+    //whether the cell at index is active, inactive or empty, using the same
+    //byte values MappedStudentTable writes to disk
+    byte stateAt(int index) {
+        return states[index];
+    }
+
+    long idAt(int index) {
+        return ids[index];
+    }
+
+    String nameAt(int index) {
+        return dictionary.name(names[index]);
+    }
+
+    //the handle of the name in the active cell at index, and the
+    //dictionary it's from, so MappedStudentTable can write each distinct
+    //name once
+    int nameHandleAt(int index) {
+        return names[index];
+    }
+
+    NameDictionary dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Prints the students in the table.
+     */
+    public void outputData() {
+        for(int i = 0; i < states.length; i++) {
+            if(states[i] == ACTIVE) {
+                System.out.println(ids[i] + ", " + dictionary.name(names[i])
+                 + ", active");
+            }
+        }
+    }
+}
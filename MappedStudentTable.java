@@ -0,0 +1,329 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A read only LongKeyedHashTable that lives in a memory mapped file.
+ * save writes a table's probed cell array to disk as is, and open maps
+ * the file back in and answers lookups straight from the mapping, so
+ * reopening a table of any size takes no parsing, no rehashing, and no
+ * heap beyond the String returned by find.
+ *
+ * File layout (all numbers big endian):
+ * header, 32 bytes: magic, version, capacity, element count (ints),
+ * offset of the name region (long), the seed IDs were mixed with
+ * (int, 0 if they weren't), 4 reserved bytes.
+ * cells, 16 bytes each, capacity of them: id (long), offset of the name
+ * in the name region (unsigned int), state (byte), 3 padding bytes.
+ * name region: names, each an unsigned short byte length (0xFFFF for a
+ * null name) followed by the name in UTF-8. Cells of students with the
+ * same name point at the same copy of it.
+ */
+public class MappedStudentTable implements Closeable {
+
+    //identifies our files, "HTS1"
+    private static final int MAGIC = 0x48545331;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int CELL_SIZE = 16;
+    //offsets of the fields within a cell
+    private static final int ID_OFFSET = 0;
+    private static final int NAME_OFFSET = 8;
+    private static final int STATE_OFFSET = 12;
+    //marks a null name in the name region
+    private static final int NULL_NAME = 0xFFFF;
+    //the longest name we can store
+    private static final int MAX_NAME_BYTES = 0xFFFE;
+    //the name region is addressed by unsigned ints
+    private static final long MAX_NAME_REGION = 0xFFFFFFFFL;
+
+    //a single mapping can't be larger than 2GB, so big files are mapped as
+    //several chunks. This is a multiple of CELL_SIZE, so a cell never
+    //spans two chunks.
+    private static final int CHUNK_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final int capacity;
+    private final int count;
+    private final long nameRegionOffset;
+    private final int seed;
+
+    //use open to create one
+    private MappedStudentTable(FileChannel channel, MappedByteBuffer[] chunks,
+     int capacity, int count, long nameRegionOffset, int seed) {
+        this.channel = channel;
+        this.chunks = chunks;
+        this.capacity = capacity;
+        this.count = count;
+        this.nameRegionOffset = nameRegionOffset;
+        this.seed = seed;
+    }
+
+    /**
+     * Writes table to path. The file is written and forced next to path,
+     * then moved into place, so a crash never leaves a half written table
+     * at path. If the save fails, the file next to path is deleted and
+     * path is left as it was.
+     * @param table The table to save
+     * @param path The file to write. Replaced if it already exists.
+     * @throws IOException if the file can't be written
+     */
+    public static void save(LongKeyedHashTable table, Path path)
+     throws IOException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        boolean saved = false;
+        try {
+            write(table, tempPath);
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+             StandardCopyOption.ATOMIC_MOVE);
+            saved = true;
+        } finally {
+            if(!saved) {
+                Files.deleteIfExists(tempPath);
+            }
+        }
+        //the rename isn't durable until the directory is forced too
+        DurableHashTable.syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    //writes table to path and forces it to disk
+    private static void write(LongKeyedHashTable table, Path path)
+     throws IOException {
+        int capacity = table.capacity();
+        try(FileChannel channel = FileChannel.open(path,
+         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+         StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+             Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(capacity);
+            out.writeInt(table.elementCount());
+            out.writeLong(HEADER_SIZE + (long)capacity * CELL_SIZE);
+            out.writeInt(table.seed());
+            out.writeInt(0);
+
+            //first the cells. students with the same name share one copy
+            //of it in the name region, so each distinct name gets an offset
+            //the first time a cell uses it. -1 marks names not placed yet.
+            NameDictionary dictionary = table.dictionary();
+            long[] nameOffsets = new long[dictionary.size()];
+            Arrays.fill(nameOffsets, -1);
+            long nullNameOffset = -1;
+            //the handles of the names in the order they were placed, and
+            //their UTF-8 bytes
+            int[] placed = new int[dictionary.size() + 1];
+            int placedCount = 0;
+            byte[][] encoded = new byte[dictionary.size()][];
+            long nameOffset = 0;
+            for(int i = 0; i < capacity; i++) {
+                byte state = table.stateAt(i);
+                long offset = 0;
+                if(state == LongKeyedHashTable.ACTIVE) {
+                    int handle = table.nameHandleAt(i);
+                    if(handle == NameDictionary.NULL_NAME) {
+                        if(nullNameOffset < 0) {
+                            nullNameOffset = nameOffset;
+                            placed[placedCount++] = handle;
+                            nameOffset += 2;
+                        }
+                        offset = nullNameOffset;
+                    } else {
+                        if(nameOffsets[handle] < 0) {
+                            try {
+                                encoded[handle] = dictionary.utf8(handle);
+                            } catch (CharacterCodingException e) {
+                                throw new IOException(
+                                 "Name can't be saved as UTF-8: "
+                                 + dictionary.name(handle), e);
+                            }
+                            if(encoded[handle].length > MAX_NAME_BYTES) {
+                                throw new IOException(
+                                 "Name is too long to save: "
+                                 + dictionary.name(handle));
+                            }
+                            nameOffsets[handle] = nameOffset;
+                            placed[placedCount++] = handle;
+                            nameOffset += 2 + encoded[handle].length;
+                        }
+                        offset = nameOffsets[handle];
+                    }
+                    if(nameOffset > MAX_NAME_REGION) {
+                        throw new IOException("Names take up too much space.");
+                    }
+                }
+                out.writeLong(state == LongKeyedHashTable.ACTIVE ? table.idAt(i) : 0);
+                out.writeInt((int)offset);
+                out.writeByte(state);
+                out.write(0);
+                out.writeShort(0);
+            }
+
+            //then the names, in the order they were placed
+            for(int i = 0; i < placedCount; i++) {
+                int handle = placed[i];
+                if(handle == NameDictionary.NULL_NAME) {
+                    out.writeShort(NULL_NAME);
+                } else {
+                    out.writeShort(encoded[handle].length);
+                    out.write(encoded[handle]);
+                }
+            }
+            out.flush();
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Maps a table written by save.
+     * @param path The file to open
+     * @return The mapped table
+     * @throws IOException if the file can't be read or isn't a saved table
+     */
+    public static MappedStudentTable open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            MappedByteBuffer[] chunks =
+             new MappedByteBuffer[(int)((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+            for(int i = 0; i < chunks.length; i++) {
+                long position = (long)i * CHUNK_SIZE;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                 position, Math.min(CHUNK_SIZE, size - position));
+            }
+            if(size < HEADER_SIZE || chunks[0].getInt(0) != MAGIC) {
+                throw new IOException(path + " is not a saved table.");
+            }
+            int version = chunks[0].getInt(4);
+            if(version != VERSION) {
+                throw new IOException(path + " has unsupported version "
+                 + version + ".");
+            }
+            int capacity = chunks[0].getInt(8);
+            int count = chunks[0].getInt(12);
+            long nameRegionOffset = chunks[0].getLong(16);
+            if(capacity <= 0
+             || nameRegionOffset != HEADER_SIZE + (long)capacity * CELL_SIZE
+             || nameRegionOffset > size) {
+                throw new IOException(path + " is corrupt.");
+            }
+            return new MappedStudentTable(channel, chunks, capacity, count,
+             nameRegionOffset, chunks[0].getInt(24));
+        } catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds the last name of the student with the given ID.
+     * @param id The ID to look up
+     * @return The student's last name, or null if nothing is found.
+     */
+    public String find(long id) {
+        int index = indexOf(id);
+        return index < 0 ? null : readName(index);
+    }
+
+    /**
+     * Returns whether a student with the given ID is in the table. Doesn't
+     * allocate anything.
+     * @param id The ID to look up
+     * @return true if the ID is in the table, false otherwise
+     */
+    public boolean contains(long id) {
+        return indexOf(id) >= 0;
+    }
+
+    //probes the mapped cells exactly like LongKeyedHashTable does, and
+    //returns the index of the active cell holding id, or -1
+    private int indexOf(long id) {
+        int originalHash = LongKeyedHashTable.homeIndex(id, seed, capacity);
+        int hash = originalHash;
+        int quadraticCounter = 1;
+        while(true) {
+            long cell = cellPosition(hash);
+            byte state = chunk(cell).get(offsetInChunk(cell) + STATE_OFFSET);
+            if(state == LongKeyedHashTable.EMPTY) {
+                return -1;
+            }
+            if(state == LongKeyedHashTable.ACTIVE
+             && chunk(cell).getLong(offsetInChunk(cell) + ID_OFFSET) == id) {
+                return hash;
+            }
+            hash = (int)((originalHash + (long)quadraticCounter * quadraticCounter) % capacity);
+            quadraticCounter++;
+        }
+    }
+
+    //reads the name of the active cell at index out of the name region
+    private String readName(int index) {
+        long cell = cellPosition(index);
+        long position = nameRegionOffset + Integer.toUnsignedLong(
+         chunk(cell).getInt(offsetInChunk(cell) + NAME_OFFSET));
+        int length = (readByte(position) & 0xFF) << 8
+         | (readByte(position + 1) & 0xFF);
+        if(length == NULL_NAME) return null;
+        byte[] bytes = new byte[length];
+        for(int i = 0; i < length; i++) {
+            //names may cross from one chunk into the next, so go a byte
+            //at a time. they're short, so this is cheap.
+            bytes[i] = readByte(position + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long cellPosition(int index) {
+        return HEADER_SIZE + (long)index * CELL_SIZE;
+    }
+
+    private MappedByteBuffer chunk(long position) {
+        return chunks[(int)(position / CHUNK_SIZE)];
+    }
+
+    private int offsetInChunk(long position) {
+        return (int)(position % CHUNK_SIZE);
+    }
+
+    private byte readByte(long position) {
+        return chunk(position).get(offsetInChunk(position));
+    }
+
+    /**
+     * Returns the number of students in the table.
+     * @return The number of students in the table
+     */
+    public int elementCount() {
+        return count;
+    }
+
+    /**
+     * Returns whether or not the table is empty.
+     * @return true if the table is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Closes the file. The mapping itself is released once this object is
+     * garbage collected, so don't use it after closing.
+     * @throws IOException if the file can't be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,344 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Stores names compactly, for tables that hold many records with few
+ * distinct names. Each distinct name is stored once, encoded in a shared
+ * byte array the way String stores its own characters: as Latin-1, one
+ * byte per character, if every character fits, and as UTF-16 otherwise.
+ * Both keep every char as it was, so any String comes back equal, even
+ * one with unpaired surrogates that UTF-8 can't encode, and a name can be
+ * compared with a stored one char by char without decoding it. intern
+ * hands back an int handle for a name, which a record keeps instead of a
+ * String, and name turns a handle back into a String when it's asked for.
+ *
+ * A record then costs 4 bytes for its name instead of a reference plus a
+ * String object and its character array, and the garbage collector has one
+ * byte array to trace instead of a String per record.
+ *
+ * Names are never removed, like String.intern, so a table whose names
+ * change over time should copy the ones it still uses into a new
+ * dictionary now and then, with copyTo. Not thread safe.
+ */
+public class NameDictionary {
+
+    /**
+     * The handle of a null name.
+     */
+    public static final int NULL_NAME = -1;
+
+    //set in a stored length when the name is UTF-16 rather than Latin-1
+    private static final int UTF16 = 0x80000000;
+    //the largest arena we can address
+    private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+    //how many recently decoded names to keep, a power of two
+    private static final int DECODED_CACHE_SIZE = 1024;
+
+    //a decoded name and its handle. Immutable, so readers on several
+    //threads can share the cache without locking.
+    private static final class Decoded {
+        final int handle;
+        final String name;
+        Decoded(int handle, String name) {
+            this.handle = handle;
+            this.name = name;
+        }
+    }
+    //the encoded names, back to back
+    private byte[] arena;
+    private int arenaSize;
+    //for each handle, where its name starts in the arena, its length in
+    //bytes (with UTF16 set if it's UTF-16), and its String hash code
+    private int[] starts;
+    private int[] lengths;
+    private int[] hashes;
+    //the number of names, and so the next handle
+    private int count;
+    //hash table from names to handles, using the same quadratic probing as
+    //HashTable. 0 is an empty cell, otherwise the cell holds handle + 1.
+    //Names are never removed, so there are no deleted cells.
+    private int[] slots;
+    //mixed into every hash code, see Hashing
+    private final int seed = Hashing.newSeed();
+    //recently decoded names, by handle modulo the cache size, so looking
+    //up the same few names over and over doesn't create a String each time
+    //while memory use stays fixed however many names there are
+    private final Decoded[] decoded = new Decoded[DECODED_CACHE_SIZE];
+
+    /**
+     * Creates an empty dictionary.
+     */
+    public NameDictionary() {
+        this(16);
+    }
+
+    /**
+     * Creates an empty dictionary with room for names distinct names
+     * before it has to grow.
+     * @param names How many distinct names can be expected
+     */
+    public NameDictionary(int names) {
+        int capacity = Math.max(names, 1);
+        starts = new int[capacity];
+        lengths = new int[capacity];
+        hashes = new int[capacity];
+        arena = new byte[(int)Math.min(MAX_ARENA, capacity * 8L)];
+        slots = new int[Primes.nextPrime((long)capacity*2)];
+    }
+
+    /**
+     * Returns the handle for name, adding name if it's new.
+     * @param name The name, or null
+     * @return name's handle, or NULL_NAME if name is null
+     */
+    public int intern(String name) {
+        if(name == null) return NULL_NAME;
+        int hash = name.hashCode();
+        int index = indexFor(hash);
+        int quadraticCounter = 1;
+        int originalHash = index;
+        while(slots[index] != 0) {
+            int handle = slots[index] - 1;
+            if(hashes[handle] == hash && matches(handle, name)) {
+                return handle;
+            }
+            index = (int)((originalHash
+             + (long)quadraticCounter * quadraticCounter) % slots.length);
+            quadraticCounter++;
+        }
+
+        //a new name, so encode it onto the end of the arena
+        int start = arenaSize;
+        int chars = name.length();
+        if(isLatin1(name)) {
+            reserve(chars);
+            for(int i = 0; i < chars; i++) {
+                arena[start + i] = (byte)name.charAt(i);
+            }
+            arenaSize += chars;
+            return add(index, start, chars, hash);
+        }
+        reserve(2L * chars);
+        for(int i = 0; i < chars; i++) {
+            char c = name.charAt(i);
+            arena[start + 2*i] = (byte)(c >>> 8);
+            arena[start + 2*i + 1] = (byte)c;
+        }
+        arenaSize += 2 * chars;
+        return add(index, start, 2 * chars | UTF16, hash);
+    }
+
+    /**
+     * Returns the name a handle stands for. Decodes it, unless it was
+     * decoded recently. Safe to call from several threads at once, as long
+     * as nothing is being interned.
+     * @param handle A handle from intern
+     * @return The name, or null for NULL_NAME
+     */
+    public String name(int handle) {
+        if(handle == NULL_NAME) return null;
+        int slot = handle & (DECODED_CACHE_SIZE - 1);
+        Decoded cached = decoded[slot];
+        if(cached != null && cached.handle == handle) return cached.name;
+        String name = decode(handle);
+        decoded[slot] = new Decoded(handle, name);
+        return name;
+    }
+
+    //decodes the name with handle into a new String
+    private String decode(int handle) {
+        int length = lengths[handle];
+        int start = starts[handle];
+        if((length & UTF16) == 0) {
+            return new String(arena, start, length,
+             StandardCharsets.ISO_8859_1);
+        }
+        //by hand, since the UTF_16 charsets replace unpaired surrogates
+        char[] chars = new char[(length & ~UTF16) / 2];
+        for(int i = 0; i < chars.length; i++) {
+            chars[i] = charAt(start, i);
+        }
+        return new String(chars);
+    }
+
+    //the char at index of the UTF-16 name starting at start
+    private char charAt(int start, int index) {
+        return (char)((arena[start + 2*index] & 0xFF) << 8
+         | arena[start + 2*index + 1] & 0xFF);
+    }
+
+    /**
+     * Returns the name a handle stands for, encoded as UTF-8.
+     * @param handle A handle from intern, not NULL_NAME
+     * @return The name's UTF-8 bytes, in a new array
+     * @throws CharacterCodingException if the name has an unpaired
+     * surrogate, which UTF-8 has no encoding for
+     */
+    public byte[] utf8(int handle) throws CharacterCodingException {
+        int start = starts[handle];
+        int length = lengths[handle];
+        if((length & UTF16) != 0) {
+            //String.getBytes would quietly turn unpaired surrogates into ?
+            ByteBuffer encoded = StandardCharsets.UTF_8.newEncoder()
+             .encode(CharBuffer.wrap(decode(handle)));
+            byte[] bytes = new byte[encoded.remaining()];
+            encoded.get(bytes);
+            return bytes;
+        }
+        //Latin-1 is the same as UTF-8 unless it has characters above 0x7F
+        for(int i = start; i < start + length; i++) {
+            if(arena[i] < 0) {
+                return decode(handle).getBytes(StandardCharsets.UTF_8);
+            }
+        }
+        return Arrays.copyOfRange(arena, start, start + length);
+    }
+
+    /**
+     * Adds the name with handle to another dictionary without decoding it,
+     * for building a fresh dictionary of only the names still in use.
+     * @param handle A handle from this dictionary's intern, or NULL_NAME
+     * @param to The dictionary to add the name to
+     * @return The name's handle in to
+     */
+    public int copyTo(int handle, NameDictionary to) {
+        if(handle == NULL_NAME) return NULL_NAME;
+        return to.internEncoded(arena, starts[handle], lengths[handle],
+         hashes[handle]);
+    }
+
+    //intern for a name that's already encoded, by either dictionary, in
+    //source. Equal names always encode the same way, so comparing bytes
+    //is enough.
+    private int internEncoded(byte[] source, int start, int length,
+     int hash) {
+        int bytes = length & ~UTF16;
+        int index = indexFor(hash);
+        int quadraticCounter = 1;
+        int originalHash = index;
+        while(slots[index] != 0) {
+            int handle = slots[index] - 1;
+            if(hashes[handle] == hash && lengths[handle] == length
+             && sameBytes(starts[handle], source, start, bytes)) {
+                return handle;
+            }
+            index = (int)((originalHash
+             + (long)quadraticCounter * quadraticCounter) % slots.length);
+            quadraticCounter++;
+        }
+        reserve(bytes);
+        System.arraycopy(source, start, arena, arenaSize, bytes);
+        int newStart = arenaSize;
+        arenaSize += bytes;
+        return add(index, newStart, length, hash);
+    }
+
+    //records a new name in the empty slot at index, and returns its handle
+    private int add(int index, int start, int length, int hash) {
+        if(count == starts.length) {
+            int capacity = count * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+        }
+        int handle = count++;
+        starts[handle] = start;
+        lengths[handle] = length;
+        hashes[handle] = hash;
+        slots[index] = handle + 1;
+        //keep the slots at most half full, just like HashTable
+        if(count >= slots.length / 2) {
+            rehash(Primes.nextPrime((long)slots.length*2));
+        }
+        return handle;
+    }
+
+    //moves every handle into a new slot array of size newSize
+    private void rehash(int newSize) {
+        slots = new int[newSize];
+        for(int handle = 0; handle < count; handle++) {
+            int originalHash = indexFor(hashes[handle]);
+            int index = originalHash;
+            int quadraticCounter = 1;
+            while(slots[index] != 0) {
+                index = (int)((originalHash
+                 + (long)quadraticCounter * quadraticCounter) % slots.length);
+                quadraticCounter++;
+            }
+            slots[index] = handle + 1;
+        }
+    }
+
+    private int indexFor(int hash) {
+        return Hashing.index(Hashing.mix(hash, seed), slots.length);
+    }
+
+    //makes room for length more bytes in the arena
+    private void reserve(long length) {
+        long needed = arenaSize + length;
+        if(needed > MAX_ARENA) {
+            throw new IllegalStateException("Too many names to store");
+        }
+        if(needed > arena.length) {
+            arena = Arrays.copyOf(arena,
+             (int)Math.min(MAX_ARENA, Math.max(needed, 2L * arena.length)));
+        }
+    }
+
+    //whether the name with handle is name, compared char by char without
+    //decoding it. A Latin-1 name and a UTF-16 one always differ in some
+    //char, so there's no need to work out which one name would be.
+    private boolean matches(int handle, String name) {
+        int length = lengths[handle];
+        int start = starts[handle];
+        if((length & UTF16) != 0) {
+            if((length & ~UTF16) != 2 * name.length()) return false;
+            for(int i = 0; i < name.length(); i++) {
+                if(charAt(start, i) != name.charAt(i)) return false;
+            }
+            return true;
+        }
+        if(length != name.length()) return false;
+        for(int i = 0; i < length; i++) {
+            if((arena[start + i] & 0xFF) != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    //whether bytes bytes of the arena from start match source from
+    //sourceStart
+    private boolean sameBytes(int start, byte[] source, int sourceStart,
+     int bytes) {
+        for(int i = 0; i < bytes; i++) {
+            if(arena[start + i] != source[sourceStart + i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isLatin1(String name) {
+        for(int i = 0; i < name.length(); i++) {
+            if(name.charAt(i) > 0xFF) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns how many distinct names are stored.
+     * @return The number of names
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns how many bytes the encoded names take up.
+     * @return The size of the arena in use
+     */
+    public int encodedSize() {
+        return arenaSize;
+    }
+}
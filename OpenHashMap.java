@@ -0,0 +1,294 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A Hash Table implementation of a map from keys of type K to values of
+ * type V. Uses the same open addressing, quadratic probing and lazy
+ * deletion as HashTable, with keys, values and cell states kept in
+ * parallel arrays. Lookups take the key itself, so there's no need to
+ * build a stand-in element or cast the result.
+ * @param <K> The type of key in the map
+ * @param <V> The type of value in the map
+ */
+public class OpenHashMap<K, V> {
+
+    //possible states for a cell, just like in LongKeyedHashTable
+    private static final byte EMPTY = 0;
+    private static final byte ACTIVE = 1;
+    private static final byte INACTIVE = 2;
+
+    //the tombstone threshold used if the caller doesn't give one
+    private static final double DEFAULT_TOMBSTONE_THRESHOLD = 0.25;
+
+    //the parallel arrays holding our cells. A cell at index i is made up of
+    //keys[i], values[i] and states[i].
+    private Object[] keys;
+    private Object[] values;
+    private byte[] states;
+    //the number of occupied cells (active OR inactive), used to decide
+    //when to grow
+    private int numOccupiedCells;
+    //the number of active cells, i.e. the number of mappings
+    private int numActive;
+    //once deleted cells take up this fraction of the table, remove
+    //compacts the table
+    private final double tombstoneThreshold;
+    //mixed into every hash code, see Hashing
+    private final int seed = Hashing.newSeed();
+
+    /**
+     * Creates an empty OpenHashMap with an array size that's good for
+     * holding elements mappings.
+     * @param elements How many mappings can be expected to be added.
+     */
+    public OpenHashMap(int elements) {
+        this(elements, DEFAULT_TOMBSTONE_THRESHOLD);
+    }
+
+    /**
+     * Creates an empty OpenHashMap with an array size that's good for
+     * holding elements mappings.
+     * @param elements How many mappings can be expected to be added.
+     * @param tombstoneThreshold The fraction of the table that deleted
+     * cells may take up before the table is compacted. Must be greater
+     * than 0 and at most 1.
+     */
+    public OpenHashMap(int elements, double tombstoneThreshold) {
+        if(!(tombstoneThreshold > 0 && tombstoneThreshold <= 1)) {
+            throw new IllegalArgumentException(
+             "Tombstone threshold must be in (0, 1].");
+        }
+        this.tombstoneThreshold = tombstoneThreshold;
+        allocate(Primes.nextPrime((long)elements*2));
+    }
+
+    //creates fresh, empty parallel arrays of the given size
+    private void allocate(int size) {
+        keys = new Object[size];
+        values = new Object[size];
+        states = new byte[size];
+        numOccupiedCells = 0;
+        numActive = 0;
+    }
+
+    /**
+     * Maps key to value, replacing any value key already had.
+     * @param key The key to add. Must not be null.
+     * @param value The value to associate with key
+     * @return The value key used to have, or null if it had none
+     * @throws IllegalStateException if too many keys share key's hash code
+     */
+    public V put(K key, V value) {
+        if(key == null) {
+            throw new NullPointerException("Keys must not be null.");
+        }
+        int index = getIndexForKey(keys, states, key, true);
+        if(states[index] == ACTIVE) {
+            V oldValue = valueAt(index);
+            values[index] = value;
+            return oldValue;
+        }
+        boolean wasEmpty = states[index] == EMPTY;
+        keys[index] = key;
+        values[index] = value;
+        states[index] = ACTIVE;
+        numActive++;
+        //only a brand new cell makes the table fuller
+        if(wasEmpty && ++numOccupiedCells >= (states.length/2)) {
+            growOrCompact();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value mapped to key, or null if key isn't in the map.
+     * @param key The key to look up
+     * @return key's value, or null if nothing is found
+     */
+    public V get(Object key) {
+        if(key == null) return null;
+        int index = getIndexForKey(keys, states, key, false);
+        return states[index] == ACTIVE ? valueAt(index) : null;
+    }
+
+    /**
+     * Returns whether key is in the map.
+     * @param key The key to look up
+     * @return true if key is in the map, false otherwise
+     */
+    public boolean containsKey(Object key) {
+        if(key == null) return false;
+        return states[getIndexForKey(keys, states, key, false)] == ACTIVE;
+    }
+
+    /**
+     * Removes key and its value from the map.
+     * Does nothing if key is not in the map.
+     * @param key The key to remove
+     * @return The value key had, or null if it wasn't in the map
+     */
+    public V remove(Object key) {
+        if(key == null) return null;
+        int index = getIndexForKey(keys, states, key, false);
+        if(states[index] != ACTIVE) return null;
+        V oldValue = valueAt(index);
+        //lazy deletion. drop the key and value so they can be collected.
+        states[index] = INACTIVE;
+        keys[index] = null;
+        values[index] = null;
+        numActive--;
+        if(numOccupiedCells - numActive >= states.length * tombstoneThreshold) {
+            rehash(states.length);
+        }
+        return oldValue;
+    }
+
+    //values are only ever set through put, so this cast is safe
+    @SuppressWarnings("unchecked")
+    private V valueAt(int index) {
+        return (V)values[index];
+    }
+
+    //called when the table is half full. clears out deleted cells if they
+    //make up most of it, otherwise grows to the next optimal size.
+    private void growOrCompact() {
+        if(numActive < states.length/4) {
+            rehash(states.length);
+        } else {
+            rehash(Primes.nextPrime((long)states.length*2));
+        }
+    }
+
+    //rehashes every active cell into new arrays of size newSize
+    private void rehash(int newSize) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        byte[] oldStates = states;
+        int active = numActive;
+        allocate(newSize);
+        for(int i = 0; i < oldStates.length; i++) {
+            if(oldStates[i] == ACTIVE) {
+                //the new arrays have no deleted cells to reuse, and
+                //moving keys mustn't trip the MAX_PROBE check on inserts
+                int index = getIndexForKey(keys, states, oldKeys[i], false);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                states[index] = ACTIVE;
+            }
+        }
+        numOccupiedCells = active;
+        numActive = active;
+    }
+
+    //Does the hashing and quadratic probing, with the same rules as
+    //HashTable.getIndexForKey. Returns an index whose state is one of:
+    //EMPTY: The key was not found, but this is where it could be inserted
+    //INACTIVE: (if reuseInactive is true) the key was not found, and this
+    //is the first deleted cell on its probe chain
+    //ACTIVE: The key was found here.
+    private int getIndexForKey(Object[] curKeys, byte[] curStates, Object key,
+     boolean reuseInactive) {
+        int originalHash = Hashing.index(Hashing.hashOf(key, seed),
+         curStates.length);
+        int hash = originalHash;
+        int quadraticCounter = 1;
+        int firstInactive = -1;
+
+        //deleted cells don't keep their keys, so only active cells can match
+        while(
+         curStates[hash] != EMPTY
+         && !(curStates[hash] == ACTIVE && key.equals(curKeys[hash]))
+        ) {
+            if(reuseInactive && firstInactive < 0 && curStates[hash] == INACTIVE) {
+                firstInactive = hash;
+            }
+            //keys are mixed from the start, so a chain this long is keys
+            //with equal hash codes, and putting one more would only make
+            //it longer
+            if(reuseInactive && quadraticCounter > Hashing.MAX_PROBE) {
+                throw Hashing.tooManyCollisions(key);
+            }
+            //quadratic probe
+            hash = (int)((originalHash + (long)quadraticCounter * quadraticCounter) % curStates.length);
+            quadraticCounter++;
+        }
+        if(firstInactive >= 0 && curStates[hash] == EMPTY) {
+            return firstInactive;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the number of mappings in the map.
+     * @return The number of mappings in the map
+     */
+    public int size() {
+        return numActive;
+    }
+
+    /**
+     * Returns whether or not the map is empty.
+     * @return true if the map is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return numActive == 0;
+    }
+
+    /**
+     * Removes every mapping from the map.
+     */
+    public void clear() {
+        allocate(states.length);
+    }
+
+    /**
+     * Calls action with every key and value in the map.
+     * @param action What to do with each mapping
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for(int i = 0; i < states.length; i++) {
+            if(states[i] == ACTIVE) {
+                action.accept((K)keys[i], (V)values[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns an iterator over the keys in the map.
+     * @return An iterator over the keys
+     */
+    public Iterator<K> keyIterator() {
+        return new KeyIter();
+    }
+
+    //iterator over the keys of active cells
+    private class KeyIter implements Iterator<K> {
+        //the index of the table that we're on now
+        private int cursor = findNextActive(0);
+        public boolean hasNext() {
+            return cursor < states.length;
+        }
+        @SuppressWarnings("unchecked")
+        public K next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            K key = (K)keys[cursor];
+            cursor = findNextActive(cursor + 1);
+            return key;
+        }
+        //returns the next active cell greater than or equal to index
+        private int findNextActive(int index) {
+            while(index < states.length && states[index] != ACTIVE) {
+                index++;
+            }
+            return index;
+        }
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
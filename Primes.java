@@ -0,0 +1,101 @@
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Plans table capacities for the quadratic probing hash tables.
+ * Quadratic probing needs a prime table size, so this finds primes using a
+ * deterministic Miller-Rabin test instead of trial division. Checking a
+ * candidate takes a few dozen multiplications no matter how large it is,
+ * so growing even a very large table only costs microseconds.
+ */
+final class Primes {
+
+    //the largest array size most JVMs will allow
+    static final int MAX_TABLE_SIZE = Integer.MAX_VALUE - 8;
+
+    //Miller-Rabin with these bases is exact for every n < 4,759,123,141,
+    //which covers the whole int range.
+    private static final int[] WITNESSES = {2, 7, 61};
+
+    //small primes used to reject most candidates before Miller-Rabin
+    private static final int[] SMALL_PRIMES = {
+        2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53, 59, 61
+    };
+
+    //no instances, this is just a holder for static methods
+    private Primes() {}
+
+    /**
+     * Finds the smallest prime larger than or equal to start.
+     * @param start The lower bound for the prime. Taken as a long so callers
+     * can pass doubled sizes without worrying about overflow.
+     * @return The smallest prime that is at least start
+     * @throws IllegalStateException if no such prime fits in an array
+     */
+    static int nextPrime(long start) {
+        if(start <= 2) return 2;
+        //only odd numbers can be prime from here on
+        long candidate = start | 1;
+        while(candidate <= MAX_TABLE_SIZE) {
+            if(isPrime((int)candidate)) {
+                return (int)candidate;
+            }
+            candidate += 2;
+        }
+        throw new IllegalStateException("Table size " + start
+         + " is too large");
+    }
+
+    /**
+     * Returns if n is prime or not.
+     * @param n The number to check
+     * @return true if n is prime, false otherwise
+     */
+    static boolean isPrime(int n) {
+        //handle n < 2
+        if(n < 2) return false;
+
+        //trial divide by a few small primes first, this is cheap and
+        //takes care of most composites
+        for(int p : SMALL_PRIMES) {
+            if(n == p) return true;
+            if(n % p == 0) return false;
+        }
+
+        //write n - 1 as d * 2^s with d odd
+        int d = n - 1;
+        int s = Integer.numberOfTrailingZeros(d);
+        d >>= s;
+
+        for(int a : WITNESSES) {
+            if(!passesWitness(a, d, s, n)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //one Miller-Rabin round: returns false if a proves n composite
+    private static boolean passesWitness(int a, int d, int s, int n) {
+        long x = powMod(a, d, n);
+        if(x == 1 || x == n - 1) return true;
+        for(int r = 1; r < s; r++) {
+            x = x * x % n;
+            if(x == n - 1) return true;
+        }
+        return false;
+    }
+
+    //computes base^exp mod m. m fits in an int, so every product fits
+    //in a long.
+    private static long powMod(long base, int exp, int m) {
+        long result = 1;
+        base %= m;
+        while(exp > 0) {
+            if((exp & 1) == 1) {
+                result = result * base % m;
+            }
+            base = base * base % m;
+            exp >>= 1;
+        }
+        return result;
+    }
+}
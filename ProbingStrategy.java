@@ -0,0 +1,118 @@
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Decides how HashTable sizes its array and where it looks for an element.
+ * A strategy picks the home cell for a hash code, the sequence of cells
+ * probed after it, and how full the table may get before it has to grow.
+ * The probe sequence must reach an empty cell whenever the table is no
+ * fuller than maxOccupied allows.
+ */
+public interface ProbingStrategy {
+
+    /**
+     * Quadratic probing over prime sized tables, kept at most half full.
+     * This is what HashTable has always done.
+     */
+    ProbingStrategy QUADRATIC = new Quadratic();
+
+    /**
+     * Probing by triangular numbers (home, home+1, home+3, home+6, ...)
+     * over power of two sized tables. This visits every cell, so the table
+     * can safely be three quarters full, and finding a cell only takes a
+     * bit mask instead of an integer division.
+     */
+    ProbingStrategy TRIANGULAR = new Triangular();
+
+    /**
+     * Returns the array size to use for holding elements elements.
+     * @param elements How many elements the table should hold
+     * @return The array size
+     */
+    int capacityFor(long elements);
+
+    /**
+     * Returns the array size to grow to from capacity.
+     * @param capacity The current array size
+     * @return The next bigger array size
+     */
+    int grow(int capacity);
+
+    /**
+     * Returns how many cells of a capacity sized array may be occupied
+     * (active or deleted) before the table has to grow.
+     * @param capacity The array size
+     * @return The most occupied cells allowed
+     */
+    int maxOccupied(int capacity);
+
+    /**
+     * Returns the home cell of a hash code.
+     * @param hash The element's hash code. Once a table sees long probes,
+     * it's mixed with the table's seed by Hashing.mix first.
+     * @param capacity The array size
+     * @return The first cell to look at
+     */
+    int home(int hash, int capacity);
+
+    /**
+     * Returns the cell to look at on a given attempt.
+     * @param home The home cell
+     * @param attempt How many cells have been looked at already, from 1
+     * @param capacity The array size
+     * @return The cell to look at next
+     */
+    int probe(int home, int attempt, int capacity);
+
+    //see QUADRATIC
+    final class Quadratic implements ProbingStrategy {
+        private Quadratic() {}
+        public int capacityFor(long elements) {
+            return Primes.nextPrime(elements*2);
+        }
+        public int grow(int capacity) {
+            return Primes.nextPrime((long)capacity*2);
+        }
+        public int maxOccupied(int capacity) {
+            return capacity/2;
+        }
+        public int home(int hash, int capacity) {
+            return Hashing.index(hash, capacity);
+        }
+        public int probe(int home, int attempt, int capacity) {
+            //square as a long, an int overflows past 46340 attempts
+            return (int)((home + (long)attempt * attempt) % capacity);
+        }
+    }
+
+    //see TRIANGULAR
+    final class Triangular implements ProbingStrategy {
+        //the largest power of two an array can be
+        private static final int MAX_CAPACITY = 1 << 30;
+        private Triangular() {}
+        public int capacityFor(long elements) {
+            //smallest power of two that's more than a third bigger
+            long needed = Math.max(2, elements + elements/3 + 1);
+            if(needed > MAX_CAPACITY) {
+                throw new IllegalStateException("Table size " + needed
+                 + " is too large");
+            }
+            return Integer.highestOneBit((int)needed - 1) << 1;
+        }
+        public int grow(int capacity) {
+            if(capacity >= MAX_CAPACITY) {
+                throw new IllegalStateException("Table is too large to grow");
+            }
+            return capacity << 1;
+        }
+        public int maxOccupied(int capacity) {
+            return capacity - capacity/4;
+        }
+        public int home(int hash, int capacity) {
+            //fold the high bits in, since the mask only keeps the low ones
+            return (hash ^ (hash >>> 16)) & (capacity - 1);
+        }
+        public int probe(int home, int attempt, int capacity) {
+            long offset = (long)attempt * (attempt + 1) >>> 1;
+            return (int)((home + offset) & (capacity - 1));
+        }
+    }
+}
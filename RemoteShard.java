@@ -0,0 +1,178 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A Shard served by a ShardServer in another process. Each call is one
+ * request and response over a single socket, so insertAll and copyRanges
+ * are the way to move many students at once. Thread safe: calls from several
+ * threads take turns on the connection.
+ *
+ * A call that fails partway, or gets no answer within the timeout, leaves
+ * no way to tell where the next response starts, so it closes the
+ * connection and every later call fails too. Make a new RemoteShard to
+ * reconnect. A request that can't be written at all, like one with a name
+ * too long for the protocol, fails before anything is sent and leaves the
+ * connection working.
+ */
+public class RemoteShard implements Shard {
+
+    //how long to wait to connect, and for each response, unless set
+    private static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    //why the connection was closed, once a call has failed partway
+    private Exception broken;
+
+    //reads the result of a request from its response
+    private interface Result<T> {
+        T read(DataInputStream response) throws IOException;
+    }
+
+    /**
+     * Connects to a ShardServer.
+     * @param host The server's host, usually "localhost"
+     * @param port The server's port
+     * @throws IOException if the server can't be reached
+     */
+    public RemoteShard(String host, int port) throws IOException {
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port),
+             DEFAULT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(DEFAULT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(
+             new BufferedInputStream(socket.getInputStream()));
+            out = new BufferedOutputStream(socket.getOutputStream());
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sets how long to wait for each response before giving up on the
+     * connection. Defaults to 30 seconds.
+     * @param millis The timeout in milliseconds, or 0 to wait forever
+     * @throws IOException if the socket won't take the timeout
+     */
+    public synchronized void setTimeout(int millis) throws IOException {
+        socket.setSoTimeout(millis);
+    }
+
+    @Override
+    public synchronized boolean insert(long id, String lastName)
+     throws IOException {
+        ShardServer.Message request = request(ShardServer.INSERT);
+        request.writeLong(id);
+        ShardServer.writeName(request, lastName);
+        return call(request, response -> response.readBoolean());
+    }
+
+    @Override
+    public synchronized String find(long id) throws IOException {
+        ShardServer.Message request = request(ShardServer.FIND);
+        request.writeLong(id);
+        return call(request, ShardServer::readName);
+    }
+
+    @Override
+    public synchronized boolean delete(long id) throws IOException {
+        ShardServer.Message request = request(ShardServer.DELETE);
+        request.writeLong(id);
+        return call(request, response -> response.readBoolean());
+    }
+
+    @Override
+    public synchronized int insertAll(long[] ids, String[] lastNames)
+     throws IOException {
+        if(lastNames.length < ids.length) {
+            throw new IllegalArgumentException(
+             "lastNames must be at least as long as ids.");
+        }
+        ShardServer.Message request = request(ShardServer.INSERT_ALL);
+        request.writeInt(ids.length);
+        for(int i = 0; i < ids.length; i++) {
+            request.writeLong(ids[i]);
+            ShardServer.writeName(request, lastNames[i]);
+        }
+        return call(request, response -> response.readInt());
+    }
+
+    @Override
+    public synchronized int elementCount() throws IOException {
+        return call(request(ShardServer.COUNT), response -> response.readInt());
+    }
+
+    @Override
+    public synchronized Batch copyRanges(int[] starts, int[] ends)
+     throws IOException {
+        ShardServer.Message request = request(ShardServer.COPY_RANGES);
+        ShardServer.writeRanges(request, starts, ends);
+        return call(request, ShardServer::readBatch);
+    }
+
+    @Override
+    public synchronized int deleteRanges(int[] starts, int[] ends)
+     throws IOException {
+        ShardServer.Message request = request(ShardServer.DELETE_RANGES);
+        ShardServer.writeRanges(request, starts, ends);
+        return call(request, response -> response.readInt());
+    }
+
+    //starts a request for op
+    private static ShardServer.Message request(byte op) throws IOException {
+        ShardServer.Message request = new ShardServer.Message();
+        request.writeByte(op);
+        return request;
+    }
+
+    //sends a whole request and reads its response
+    private <T> T call(ShardServer.Message request, Result<T> result)
+     throws IOException {
+        if(broken != null) {
+            throw new IOException("The connection to the shard was closed"
+             + " after an earlier call failed.", broken);
+        }
+        String error;
+        try {
+            request.sendTo(out);
+            out.flush();
+            int status = in.readUnsignedByte();
+            if(status == ShardServer.OK) return result.read(in);
+            if(status != ShardServer.ERROR) {
+                throw new IOException("Bad response status " + status);
+            }
+            error = in.readUTF();
+        } catch (IOException | RuntimeException e) {
+            //we can't tell how much of the request or response got through,
+            //so the connection can't be used again
+            broken = e;
+            try {
+                socket.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+        //the shard failed, but answered in full, so carry on using it
+        throw new IOException("Shard failed: " + error);
+    }
+
+    /**
+     * Closes the connection. The server keeps its students.
+     * @throws IOException if the socket can't be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        socket.close();
+    }
+}
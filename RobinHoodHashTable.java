@@ -0,0 +1,315 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A Hash Table implementation of a set of elements of type E, built to run
+ * nearly full. Uses Robin Hood hashing: linear probing where an element
+ * being inserted takes the cell of any element that is closer to its own
+ * home cell, so every element ends up about as far from home as the
+ * others. Deleting shifts the following elements back instead of leaving
+ * a deleted cell behind, so there is no lazy deletion and no compaction.
+ *
+ * Cells are two parallel arrays, the elements and their stored hash codes,
+ * with no entry objects. Tables are sized by powers of two and run at 7/8
+ * full by default, where HashTable runs at most half full.
+ * @param <E> The type of element in the set
+ */
+public class RobinHoodHashTable<E> implements Iterable<E> {
+
+    //how full the table may get if the caller doesn't say
+    private static final double DEFAULT_LOAD_FACTOR = 0.875;
+    //the largest power of two an array can be
+    private static final int MAX_CAPACITY = 1 << 30;
+    //marks a stored hash as belonging to an occupied cell, so 0 can mean
+    //empty. The table is never big enough for this bit to be part of a
+    //home cell index.
+    private static final int OCCUPIED = 0x80000000;
+
+    //the elements, and for each cell 0 if it's empty, or OCCUPIED plus the
+    //element's spread hash code. The hash lets us skip most equals calls
+    //and tells us how far each element is from home.
+    private Object[] elements;
+    private int[] hashes;
+    //the number of elements in the set
+    private int numActive;
+    //grow once numActive reaches this
+    private int maxActive;
+    private final double loadFactor;
+    //mixed into every hash code, see Hashing
+    private final int seed = Hashing.newSeed();
+    //how many cells the last indexOf looked at
+    private int lastProbeLength;
+
+    /**
+     * Creates an empty RobinHoodHashTable with an array size that's good
+     * for holding elements elements.
+     * @param elements How many elements can be expected to be inserted.
+     */
+    public RobinHoodHashTable(int elements) {
+        this(elements, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * Creates an empty RobinHoodHashTable with an array size that's good
+     * for holding elements elements at the given load factor.
+     * @param elements How many elements can be expected to be inserted.
+     * @param loadFactor How full the table may get before it grows. Must be
+     * greater than 0 and at most 0.95.
+     */
+    public RobinHoodHashTable(int elements, double loadFactor) {
+        if(!(loadFactor > 0 && loadFactor <= 0.95)) {
+            throw new IllegalArgumentException(
+             "Load factor must be in (0, 0.95].");
+        }
+        this.loadFactor = loadFactor;
+        allocate(capacityFor(elements));
+    }
+
+    //the smallest power of two that holds elements elements at loadFactor
+    private int capacityFor(long elements) {
+        long needed = Math.max(2, (long)Math.ceil((elements + 1) / loadFactor));
+        if(needed > MAX_CAPACITY) {
+            throw new IllegalStateException("Table size " + needed
+             + " is too large");
+        }
+        return Integer.highestOneBit((int)needed - 1) << 1;
+    }
+
+    private void allocate(int capacity) {
+        elements = new Object[capacity];
+        hashes = new int[capacity];
+        numActive = 0;
+        //always leave at least one cell empty so probes end
+        maxActive = Math.min(capacity - 1, (int)(capacity * loadFactor));
+    }
+
+    //hashes key with our seed, so all of its bits count towards the ones
+    //the mask keeps, and marks it occupied
+    private int spread(Object key) {
+        return Hashing.hashOf(key, seed) | OCCUPIED;
+    }
+
+    //how far the element in cell index is from its home cell
+    private int distance(int index) {
+        int mask = hashes.length - 1;
+        return (index - (hashes[index] & mask)) & mask;
+    }
+
+    /**
+     * Inserts item into the set.
+     * @param item The element to add to the set
+     * @return true if item was inserted, false if it was already present
+     * @throws IllegalStateException if too many elements share item's hash
+     * code, see Hashing.MAX_PROBE
+     */
+    public boolean insert(E item) {
+        if(item == null) return false;
+        if(indexOf(item) >= 0) return false;
+        //elements sharing item's hash all sit between its home and where
+        //the search stopped, and no seed can spread them out
+        if(lastProbeLength > Hashing.MAX_PROBE) {
+            throw Hashing.tooManyCollisions(item);
+        }
+        if(numActive >= maxActive) {
+            rehash(grow(hashes.length));
+        }
+        place(item, spread(item));
+        numActive++;
+        return true;
+    }
+
+    //puts an element we know isn't in the table into it, taking cells from
+    //elements that are closer to home along the way
+    private void place(Object item, int hash) {
+        int mask = hashes.length - 1;
+        int index = hash & mask;
+        int distance = 0;
+        while(true) {
+            if(hashes[index] == 0) {
+                elements[index] = item;
+                hashes[index] = hash;
+                return;
+            }
+            int existingDistance = distance(index);
+            if(existingDistance < distance) {
+                //this element is closer to home than we are, so we take its
+                //cell and carry on finding a place for it instead
+                Object displaced = elements[index];
+                int displacedHash = hashes[index];
+                elements[index] = item;
+                hashes[index] = hash;
+                item = displaced;
+                hash = displacedHash;
+                distance = existingDistance;
+            }
+            index = (index + 1) & mask;
+            distance++;
+        }
+    }
+
+    private int grow(int capacity) {
+        if(capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("Table is too large to grow");
+        }
+        return capacity << 1;
+    }
+
+    //moves every element into new arrays of size newSize
+    private void rehash(int newSize) {
+        Object[] oldElements = elements;
+        int[] oldHashes = hashes;
+        int active = numActive;
+        allocate(newSize);
+        for(int i = 0; i < oldHashes.length; i++) {
+            if(oldHashes[i] != 0) {
+                place(oldElements[i], oldHashes[i]);
+            }
+        }
+        numActive = active;
+    }
+
+    //returns the cell holding key, or -1 if it isn't in the table
+    private int indexOf(Object key) {
+        int hash = spread(key);
+        int mask = hashes.length - 1;
+        int index = hash & mask;
+        int distance = 0;
+        //once we reach an element closer to home than we'd be, key can't
+        //be any further along, since it would have taken that cell
+        while(hashes[index] != 0 && distance(index) >= distance) {
+            if(hashes[index] == hash && key.equals(elements[index])) {
+                lastProbeLength = distance;
+                return index;
+            }
+            index = (index + 1) & mask;
+            distance++;
+        }
+        lastProbeLength = distance;
+        return -1;
+    }
+
+    /**
+     * Finds and returns item from the set, or null if it's not in the set.
+     * @param item The item to find and return. Any object equal to the
+     * element being looked for works, it doesn't need to be an E.
+     * @return The found item, or null if nothing is found.
+     */
+    @SuppressWarnings("unchecked")
+    public E find(Object item) {
+        if(item == null) return null;
+        int index = indexOf(item);
+        //only elements passed to insert are ever stored, so this is an E
+        return index < 0 ? null : (E)elements[index];
+    }
+
+    /**
+     * Finds and deletes item from the set.
+     * Does nothing if item is not in the set.
+     * @param item The item to delete
+     * @return true if item was deleted, false if it wasn't in the set
+     */
+    public boolean delete(Object item) {
+        if(item == null) return false;
+        int index = indexOf(item);
+        if(index < 0) return false;
+        //shift every following element that isn't at home back one cell,
+        //which leaves the table as if item had never been inserted
+        int mask = hashes.length - 1;
+        int next = (index + 1) & mask;
+        while(hashes[next] != 0 && distance(next) > 0) {
+            elements[index] = elements[next];
+            hashes[index] = hashes[next];
+            index = next;
+            next = (next + 1) & mask;
+        }
+        elements[index] = null;
+        hashes[index] = 0;
+        numActive--;
+        return true;
+    }
+
+    /**
+     * Returns the number of elements in the set.
+     * @return The number of elements in the set
+     */
+    public int elementCount() {
+        return numActive;
+    }
+
+    /**
+     * Returns whether or not the set is empty.
+     * @return true if the table is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return numActive == 0;
+    }
+
+    /**
+     * Empties the set.
+     */
+    public void makeEmpty() {
+        allocate(hashes.length);
+    }
+
+    /**
+     * Returns an iterator over the elements in the set.
+     * @return An iterator over the set
+     */
+    public Iterator<E> iterator() {
+        return new Iter();
+    }
+
+    //iterator for iterating through the hash table
+    private class Iter implements Iterator<E> {
+        //the index of the table that we're on now
+        private int cursor = findNextActive(0);
+        public boolean hasNext() {
+            return cursor < hashes.length;
+        }
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            E value = (E)elements[cursor];
+            cursor = findNextActive(cursor + 1);
+            return value;
+        }
+        //returns the next occupied cell greater than or equal to index
+        private int findNextActive(int index) {
+            while(index < hashes.length && hashes[index] == 0) {
+                index++;
+            }
+            return index;
+        }
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Prints the internal structure of the array used to hold the set.
+     */
+    public void printTable() {
+        for(int i = 0; i < hashes.length; i++) {
+            System.out.print("[" + i + "]: " );
+            if(hashes[i] == 0) {
+                System.out.println("empty");
+            } else {
+                System.out.println(elements[i] + ", " + distance(i)
+                 + " from home");
+            }
+        }
+    }
+
+    /**
+     * Prints the elements in the set.
+     */
+    public void outputData() {
+        Iterator<E> iter = iterator();
+        while(iter.hasNext()) {
+            System.out.println(iter.next() + ", active");
+        }
+    }
+}
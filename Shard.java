@@ -0,0 +1,107 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * One partition of a ShardedHashTable: a table of Students keyed by their
+ * IDs, which may live in this JVM (LocalShard) or in another process
+ * (RemoteShard). Every method may have to talk to another process, so
+ * every method can throw IOException.
+ */
+public interface Shard extends Closeable {
+
+    /**
+     * Inserts a student.
+     * @param id The student's ID number
+     * @param lastName The student's last name
+     * @return true if the student was inserted, false if the ID is taken
+     * @throws IOException if the shard can't be reached
+     */
+    boolean insert(long id, String lastName) throws IOException;
+
+    /**
+     * Finds the last name of the student with the given ID.
+     * @param id The ID to look up
+     * @return The student's last name, or null if nothing is found.
+     * @throws IOException if the shard can't be reached
+     */
+    String find(long id) throws IOException;
+
+    /**
+     * Deletes the student with the given ID.
+     * @param id The ID of the student to delete
+     * @return true if a student was deleted, false otherwise
+     * @throws IOException if the shard can't be reached
+     */
+    boolean delete(long id) throws IOException;
+
+    /**
+     * Inserts a batch of students in one go.
+     * @param ids The students' IDs
+     * @param lastNames The students' last names, parallel to ids
+     * @return How many students were inserted (IDs not already taken)
+     * @throws IOException if the shard can't be reached
+     */
+    int insertAll(long[] ids, String[] lastNames) throws IOException;
+
+    /**
+     * Returns the number of students in the shard.
+     * @return The number of students in the shard
+     * @throws IOException if the shard can't be reached
+     */
+    int elementCount() throws IOException;
+
+    /**
+     * Returns a copy of every student whose ring position, from
+     * ShardedHashTable.ringPosition, is in any of the ranges
+     * (starts[i], ends[i]], found in one pass over the shard. A range wraps
+     * around past Integer.MAX_VALUE if its start is not less than its end,
+     * so a start equal to its end means every student. The students stay
+     * in the shard.
+     * @param starts The position just before each range
+     * @param ends The last position in each range, parallel to starts
+     * @return The students in the ranges
+     * @throws IOException if the shard can't be reached
+     */
+    Batch copyRanges(int[] starts, int[] ends) throws IOException;
+
+    /**
+     * Deletes every student whose ring position is in any of the ranges
+     * (starts[i], ends[i]], as copyRanges finds them.
+     * @param starts The position just before each range
+     * @param ends The last position in each range, parallel to starts
+     * @return How many students were deleted
+     * @throws IOException if the shard can't be reached
+     */
+    int deleteRanges(int[] starts, int[] ends) throws IOException;
+
+    /**
+     * A batch of students as parallel arrays of IDs and last names.
+     */
+    final class Batch {
+        public final long[] ids;
+        public final String[] lastNames;
+
+        /**
+         * Creates a batch from parallel arrays, which it keeps.
+         * @param ids The students' IDs
+         * @param lastNames The students' last names, parallel to ids
+         */
+        public Batch(long[] ids, String[] lastNames) {
+            if(ids.length != lastNames.length) {
+                throw new IllegalArgumentException(
+                 "ids and lastNames must be the same length.");
+            }
+            this.ids = ids;
+            this.lastNames = lastNames;
+        }
+
+        /**
+         * Returns how many students are in the batch.
+         * @return The number of students
+         */
+        public int size() {
+            return ids.length;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Serves a Shard to other processes over a loopback TCP socket, so a
+ * ShardedHashTable can spread its students over several JVM heaps.
+ * RemoteShard is the client. Each connection gets its own thread, and
+ * requests on one connection are answered in order.
+ *
+ * Protocol: every request is an operation byte followed by its arguments,
+ * and every response is a status byte, OK followed by the result, or
+ * ERROR followed by a message. Written with DataOutput, so numbers are big
+ * endian and names are a boolean (false for null) followed by writeUTF.
+ * Both ends build each message in memory before sending any of it, so a
+ * name too long for writeUTF, or any other failure partway through, never
+ * leaves half a message on the connection.
+ *   INSERT id name          -> boolean
+ *   FIND id                 -> name
+ *   DELETE id               -> boolean
+ *   INSERT_ALL batch        -> int
+ *   COUNT                   -> int
+ *   COPY_RANGES ranges      -> batch
+ *   DELETE_RANGES ranges    -> int
+ * where a batch is an int count followed by that many id, name pairs, and
+ * ranges are an int count followed by that many start, end pairs.
+ *
+ * Usage: java ShardServer port [elements]
+ * Serves a new, empty LocalShard on port (0 picks a free one) until
+ * killed.
+ */
+public class ShardServer implements Closeable {
+
+    //operations
+    static final byte INSERT = 1;
+    static final byte FIND = 2;
+    static final byte DELETE = 3;
+    static final byte INSERT_ALL = 4;
+    static final byte COUNT = 5;
+    static final byte COPY_RANGES = 6;
+    static final byte DELETE_RANGES = 7;
+    //response statuses
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    //the longest error message sent back, well inside writeUTF's limit
+    private static final int MAX_ERROR_LENGTH = 1 << 10;
+
+    private final Shard shard;
+    private final ServerSocket serverSocket;
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * Starts serving shard on the loopback interface.
+     * @param shard The shard to serve. Must be thread safe, like LocalShard.
+     * @param port The port to listen on, or 0 for any free port
+     * @throws IOException if the port can't be listened on
+     */
+    public ShardServer(Shard shard, int port) throws IOException {
+        this.shard = shard;
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::acceptLoop, "ShardServer-" + getPort());
+        acceptor.start();
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     * @return The port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while(!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread handler = new Thread(() -> serve(socket),
+                 "ShardServer-" + getPort() + "-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                //accept fails once close shuts the socket, which ends us
+                if(!closed) {
+                    System.err.println("ShardServer: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * A request or response being written, held in memory until it's
+     * complete and sent in one go.
+     */
+    static class Message extends DataOutputStream {
+        Message() {
+            super(new ByteArrayOutputStream());
+        }
+
+        /**
+         * Throws away everything written so far.
+         */
+        void reset() {
+            ((ByteArrayOutputStream)out).reset();
+            written = 0;
+        }
+
+        /**
+         * Writes the message to stream, without flushing it.
+         * @param stream Where to send the message
+         * @throws IOException if stream can't be written to
+         */
+        void sendTo(OutputStream stream) throws IOException {
+            ((ByteArrayOutputStream)out).writeTo(stream);
+        }
+    }
+
+    //answers requests from one client until it disconnects
+    private void serve(Socket socket) {
+        try(Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+             new BufferedInputStream(s.getInputStream()));
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            Message response = new Message();
+            int op;
+            while((op = in.read()) >= 0) {
+                Call call = readRequest(op, in);
+                response.reset();
+                if(call == null) {
+                    //we can't tell where the next request starts, so give
+                    //up on this connection
+                    writeError(response, "Unknown operation " + op);
+                    response.sendTo(out);
+                    out.flush();
+                    throw new IOException("Unknown operation " + op);
+                }
+                try {
+                    response.writeByte(OK);
+                    call.run(response);
+                } catch (IOException | RuntimeException e) {
+                    //the shard failed, or its answer can't be written
+                    response.reset();
+                    writeError(response, String.valueOf(e.getMessage()));
+                }
+                response.sendTo(out);
+                out.flush();
+            }
+        } catch (EOFException | SocketException e) {
+            //the client went away mid request
+        } catch (IOException e) {
+            if(!closed) {
+                System.err.println("ShardServer: " + e.getMessage());
+            }
+        }
+    }
+
+    //a request whose arguments have been read: runs it on the shard and
+    //writes its result
+    private interface Call {
+        void run(DataOutput response) throws IOException;
+    }
+
+    //reads the arguments of op, returning null if op isn't an operation
+    private Call readRequest(int op, DataInputStream in) throws IOException {
+        switch(op) {
+            case INSERT: {
+                long id = in.readLong();
+                String name = readName(in);
+                return response -> response.writeBoolean(shard.insert(id, name));
+            }
+            case FIND: {
+                long id = in.readLong();
+                return response -> writeName(response, shard.find(id));
+            }
+            case DELETE: {
+                long id = in.readLong();
+                return response -> response.writeBoolean(shard.delete(id));
+            }
+            case INSERT_ALL: {
+                Shard.Batch batch = readBatch(in);
+                return response -> response.writeInt(
+                 shard.insertAll(batch.ids, batch.lastNames));
+            }
+            case COUNT:
+                return response -> response.writeInt(shard.elementCount());
+            case COPY_RANGES: {
+                int[][] ranges = readRanges(in);
+                return response -> writeBatch(response,
+                 shard.copyRanges(ranges[0], ranges[1]));
+            }
+            case DELETE_RANGES: {
+                int[][] ranges = readRanges(in);
+                return response -> response.writeInt(
+                 shard.deleteRanges(ranges[0], ranges[1]));
+            }
+            default:
+                return null;
+        }
+    }
+
+    private static void writeError(DataOutput out, String message)
+     throws IOException {
+        if(message.length() > MAX_ERROR_LENGTH) {
+            message = message.substring(0, MAX_ERROR_LENGTH);
+        }
+        out.writeByte(ERROR);
+        out.writeUTF(message);
+    }
+
+    //names are nullable, so each has a flag in front of it
+    static void writeName(DataOutput out, String name) throws IOException {
+        out.writeBoolean(name != null);
+        if(name != null) out.writeUTF(name);
+    }
+
+    static String readName(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    static void writeBatch(DataOutput out, Shard.Batch batch)
+     throws IOException {
+        out.writeInt(batch.size());
+        for(int i = 0; i < batch.size(); i++) {
+            out.writeLong(batch.ids[i]);
+            writeName(out, batch.lastNames[i]);
+        }
+    }
+
+    static Shard.Batch readBatch(DataInput in) throws IOException {
+        int size = in.readInt();
+        if(size < 0) throw new IOException("Negative batch size " + size);
+        //grow as we go rather than trusting size, so a bad count can't make
+        //us allocate gigabytes up front
+        long[] ids = new long[Math.min(size, 1 << 16)];
+        String[] names = new String[ids.length];
+        for(int i = 0; i < size; i++) {
+            if(i == ids.length) {
+                ids = Arrays.copyOf(ids, (int)Math.min(size, 2L * i));
+                names = Arrays.copyOf(names, ids.length);
+            }
+            ids[i] = in.readLong();
+            names[i] = readName(in);
+        }
+        return new Shard.Batch(ids, names);
+    }
+
+    static void writeRanges(DataOutput out, int[] starts, int[] ends)
+     throws IOException {
+        if(starts.length != ends.length) {
+            throw new IllegalArgumentException(
+             "starts and ends must be the same length.");
+        }
+        out.writeInt(starts.length);
+        for(int i = 0; i < starts.length; i++) {
+            out.writeInt(starts[i]);
+            out.writeInt(ends[i]);
+        }
+    }
+
+    //returns the starts and the ends
+    static int[][] readRanges(DataInput in) throws IOException {
+        int size = in.readInt();
+        //a ring can't have more ranges than it has positions to start them,
+        //but it can have more than we'd want to allocate on a bad count
+        if(size < 0 || size > 1 << 20) {
+            throw new IOException("Bad range count " + size);
+        }
+        int[] starts = new int[size];
+        int[] ends = new int[size];
+        for(int i = 0; i < size; i++) {
+            starts[i] = in.readInt();
+            ends[i] = in.readInt();
+        }
+        return new int[][] {starts, ends};
+    }
+
+    /**
+     * Stops accepting connections. Connections already open are served
+     * until their clients close them.
+     * @throws IOException if the server socket can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+    }
+
+    /**
+     * Serves a new LocalShard until killed.
+     */
+    public static void main(String[] args) {
+        if(args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java ShardServer port [elements]");
+            System.exit(1);
+        }
+        try {
+            int port = Integer.parseInt(args[0]);
+            int elements = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+            ShardServer server = new ShardServer(new LocalShard(elements), port);
+            System.out.println("Serving a shard on port " + server.getPort());
+        } catch (NumberFormatException e) {
+            System.err.println("Not a number: " + e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Can't start the server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
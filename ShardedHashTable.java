@@ -0,0 +1,587 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A table of Students keyed by their IDs, partitioned over any number of
+ * Shards, which can be LocalShards in this JVM or RemoteShards in other
+ * processes. No shard's array has to hold more than its share of the
+ * students, and no JVM's heap has to hold more than its shards.
+ *
+ * Students are placed by consistent hashing. Every ID has a position on a
+ * ring of ints, and every shard owns several points on the ring (its
+ * virtual nodes). A student belongs to the shard owning the first point
+ * at or after its position, wrapping around, so each point owns the range
+ * of positions after the point before it. Adding or removing a shard only
+ * moves the students in the ranges that change hands, about 1/N of them,
+ * instead of rehashing everything.
+ *
+ * Shards can be added (taking a share from every shard), split (taking
+ * half of one shard), merged into another shard, or removed. insertAll
+ * sorts a batch by shard and sends each shard its part in one call.
+ *
+ * A range changes hands in two steps: its students are copied into the
+ * new owner and the ring is updated, then they're deleted from the old
+ * owner. Each shard giving up ranges is copied from in one pass, however
+ * many ranges it gives up. If a shard can't be reached partway, no student
+ * is lost. At worst the old owner keeps copies that are never found,
+ * which are cleared out before any range moves back to it, and which
+ * elementCount counts until then.
+ *
+ * Positions use a fixed seed, so every process puts an ID in the same
+ * place. Not thread safe, and the shards shouldn't be written to directly
+ * while they belong to the table.
+ */
+public class ShardedHashTable implements Closeable {
+
+    //how many points each shard gets on the ring if the caller doesn't say
+    private static final int DEFAULT_VIRTUAL_NODES = 64;
+    //mixed into every ring position. Fixed, unlike the tables' seeds, since
+    //positions have to agree between processes and runs.
+    private static final int RING_SEED = 0x5bd1e995;
+
+    //the ring: points sorted in increasing order, and the name of the
+    //shard owning each one
+    private int[] points = new int[0];
+    private String[] owners = new String[0];
+    //the shards, by name, in the order they were added
+    private final Map<String, Shard> shards = new LinkedHashMap<String, Shard>();
+    private final int virtualNodes;
+
+    /**
+     * Creates a table with no shards. Add at least one before using it.
+     */
+    public ShardedHashTable() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Creates a table with no shards. Add at least one before using it.
+     * @param virtualNodes How many points each shard added with addShard
+     * gets on the ring. More points spread students more evenly.
+     */
+    public ShardedHashTable(int virtualNodes) {
+        if(virtualNodes < 1) {
+            throw new IllegalArgumentException(
+             "Virtual nodes must be positive.");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Returns the ring position of a student ID. The same in every process.
+     * @param id The student's ID
+     * @return The ID's position on the ring
+     */
+    static int ringPosition(long id) {
+        return Hashing.mix(id, RING_SEED);
+    }
+
+    /**
+     * Returns whether position is in any of the ring ranges
+     * (starts[i], ends[i]].
+     * @param position A ring position
+     * @param starts The position just before each range
+     * @param ends The last position in each range, parallel to starts
+     * @return true if position is in one of the ranges
+     */
+    static boolean inRanges(int position, int[] starts, int[] ends) {
+        for(int i = 0; i < starts.length; i++) {
+            if(inRange(position, starts[i], ends[i])) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether position is in the ring range (start, end], which
+     * wraps around if start is not less than end.
+     * @param position A ring position
+     * @param start The position just before the range
+     * @param end The last position in the range
+     * @return true if position is in the range
+     */
+    static boolean inRange(int position, int start, int end) {
+        if(start < end) {
+            return position > start && position <= end;
+        }
+        return position > start || position <= end;
+    }
+
+    //the index of the point owning position
+    private int pointFor(int position) {
+        int index = Arrays.binarySearch(points, position);
+        if(index < 0) index = -index - 1;
+        return index == points.length ? 0 : index;
+    }
+
+    //the point before index, going around the ring
+    private int previousPoint(int index) {
+        return points[(index + points.length - 1) % points.length];
+    }
+
+    private Shard shardFor(long id) {
+        if(points.length == 0) {
+            throw new IllegalStateException("The table has no shards.");
+        }
+        return shards.get(owners[pointFor(ringPosition(id))]);
+    }
+
+    /**
+     * Inserts a student.
+     * @param id The student's ID number
+     * @param lastName The student's last name
+     * @return true if the student was inserted, false if the ID is taken
+     * @throws IOException if the student's shard can't be reached
+     */
+    public boolean insert(long id, String lastName) throws IOException {
+        return shardFor(id).insert(id, lastName);
+    }
+
+    /**
+     * Finds the last name of the student with the given ID.
+     * @param id The ID to look up
+     * @return The student's last name, or null if nothing is found.
+     * @throws IOException if the student's shard can't be reached
+     */
+    public String find(long id) throws IOException {
+        return shardFor(id).find(id);
+    }
+
+    /**
+     * Deletes the student with the given ID.
+     * @param id The ID of the student to delete
+     * @return true if a student was deleted, false otherwise
+     * @throws IOException if the student's shard can't be reached
+     */
+    public boolean delete(long id) throws IOException {
+        return shardFor(id).delete(id);
+    }
+
+    /**
+     * Inserts a batch of students, sending each shard its part of the
+     * batch in one call.
+     * @param ids The students' IDs
+     * @param lastNames The students' last names, parallel to ids
+     * @return How many students were inserted (IDs not already taken)
+     * @throws IOException if a shard can't be reached. Shards before it
+     * may already have inserted their part.
+     */
+    public int insertAll(long[] ids, String[] lastNames) throws IOException {
+        if(lastNames.length < ids.length) {
+            throw new IllegalArgumentException(
+             "lastNames must be at least as long as ids.");
+        }
+        if(points.length == 0) {
+            throw new IllegalStateException("The table has no shards.");
+        }
+        //work out which shard each student goes to, then send each shard
+        //its part
+        List<String> names = new ArrayList<String>(shards.keySet());
+        Map<String, Integer> shardIndexes = new LinkedHashMap<String, Integer>();
+        for(int i = 0; i < names.size(); i++) {
+            shardIndexes.put(names.get(i), i);
+        }
+        int[] shardOf = new int[ids.length];
+        int[] counts = new int[names.size()];
+        for(int i = 0; i < ids.length; i++) {
+            shardOf[i] = shardIndexes.get(owners[pointFor(ringPosition(ids[i]))]);
+            counts[shardOf[i]]++;
+        }
+        int inserted = 0;
+        for(int s = 0; s < names.size(); s++) {
+            if(counts[s] == 0) continue;
+            long[] partIds = new long[counts[s]];
+            String[] partNames = new String[counts[s]];
+            int next = 0;
+            for(int i = 0; i < ids.length; i++) {
+                if(shardOf[i] == s) {
+                    partIds[next] = ids[i];
+                    partNames[next] = lastNames[i];
+                    next++;
+                }
+            }
+            inserted += shards.get(names.get(s)).insertAll(partIds, partNames);
+        }
+        return inserted;
+    }
+
+    /**
+     * Returns the number of students in the table, asking every shard.
+     * @return The number of students in the table
+     * @throws IOException if a shard can't be reached
+     */
+    public long elementCount() throws IOException {
+        long count = 0;
+        for(Shard shard : shards.values()) {
+            count += shard.elementCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns whether or not the table is empty.
+     * @return true if the table is empty, false otherwise
+     * @throws IOException if a shard can't be reached
+     */
+    public boolean isEmpty() throws IOException {
+        return elementCount() == 0;
+    }
+
+    /**
+     * Returns the names of the shards, in the order they were added.
+     * @return The shard names
+     */
+    public List<String> shardNames() {
+        return Collections.unmodifiableList(
+         new ArrayList<String>(shards.keySet()));
+    }
+
+    /**
+     * Adds a shard, which takes a share of the ring from all the other
+     * shards. Only the students in that share move, into the new shard.
+     * @param name A name for the shard, unique in this table. Its points
+     * on the ring are worked out from the name, so re-adding a shard under
+     * the same name puts it back where it was.
+     * @param shard The shard, which should be empty
+     * @throws IOException if a shard can't be reached. The new shard keeps
+     * the shares it had been given from the shards before that one.
+     */
+    public void addShard(String name, Shard shard) throws IOException {
+        checkNewName(name);
+        //hash the whole name, as names with equal hash codes would
+        //otherwise get the same points, and all but the first of them would
+        //be pushed along to own next to nothing
+        long nameHash = Hashing.hash(name, RING_SEED);
+        int[] newPoints = new int[virtualNodes];
+        int added = 0;
+        for(int i = 0; i < virtualNodes; i++) {
+            int point = Hashing.mix(nameHash + i, RING_SEED);
+            //two points can't share a position, so move along to a free one
+            while(Arrays.binarySearch(points, point) >= 0
+             || contains(newPoints, added, point)) {
+                point++;
+            }
+            newPoints[added++] = point;
+        }
+        Arrays.sort(newPoints);
+        shards.put(name, shard);
+        claim(newPoints, name);
+    }
+
+    /**
+     * Splits a shard in two: a new shard takes the lower half of each of
+     * the existing shard's ranges, and about half of its students. No other
+     * shard is touched.
+     * @param existing The name of the shard to split
+     * @param name A name for the new shard, unique in this table
+     * @param shard The new shard, which should be empty
+     * @throws IOException if a shard can't be reached
+     */
+    public void splitShard(String existing, String name, Shard shard)
+     throws IOException {
+        requireShard(existing);
+        checkNewName(name);
+        int[] midpoints = new int[points.length];
+        int count = 0;
+        for(int i = 0; i < points.length; i++) {
+            if(!owners[i].equals(existing)) continue;
+            int start = previousPoint(i);
+            //the distance to the point, going up and around the ring
+            long width = points.length == 1 ? 1L << 32
+             : (points[i] - (long)start) & 0xFFFFFFFFL;
+            if(width < 2) continue;
+            int midpoint = (int)(start + width / 2);
+            if(midpoint != points[i]) midpoints[count++] = midpoint;
+        }
+        midpoints = Arrays.copyOf(midpoints, count);
+        //the range wrapping around the end of the ring can put its midpoint
+        //anywhere in the order
+        Arrays.sort(midpoints);
+        shards.put(name, shard);
+        claim(midpoints, name);
+    }
+
+    /**
+     * Merges one shard into another. Every range of from goes to into,
+     * along with from's students, and from leaves the table.
+     * @param from The name of the shard to merge away
+     * @param into The name of the shard to merge into
+     * @return The merged away shard, now empty, for the caller to close
+     * @throws IOException if a shard can't be reached. If only emptying
+     * from fails, its ranges have already gone to into, and merging again
+     * finishes the job.
+     */
+    public Shard mergeShard(String from, String into) throws IOException {
+        Shard source = requireShard(from);
+        Shard target = requireShard(into);
+        if(from.equals(into)) {
+            throw new IllegalArgumentException("Can't merge a shard into itself.");
+        }
+        int[][] ranges = rangesOf(from);
+        Shard.Batch batch = source.copyRanges(ranges[0], ranges[1]);
+        insertCopies(target, ranges[0], ranges[1], batch.ids, batch.lastNames);
+        for(int i = 0; i < owners.length; i++) {
+            if(owners[i].equals(from)) owners[i] = into;
+        }
+        empty(source);
+        shards.remove(from);
+        return source;
+    }
+
+    /**
+     * Removes a shard. Each of its ranges goes to the shard owning the
+     * next point on the ring, so its students are spread over the others.
+     * The shard is copied from once, then each shard taking ranges gets
+     * all of its ranges at once. If a shard can't be reached partway
+     * through, the ranges handed over so far stay moved, and the shard
+     * stays in the table with the rest. Calling removeShard again finishes
+     * it.
+     * @param name The name of the shard to remove
+     * @return The removed shard, now empty, for the caller to close
+     * @throws IOException if a shard can't be reached
+     */
+    public Shard removeShard(String name) throws IOException {
+        Shard source = requireShard(name);
+        boolean othersOnRing = false;
+        for(String owner : owners) {
+            if(!owner.equals(name)) othersOnRing = true;
+        }
+        if(!othersOnRing) {
+            throw new IllegalStateException(
+             "Can't remove the only shard, its students would have nowhere to go.");
+        }
+        //the shard that gets each of our points, and the points each gets
+        String[] heirs = new String[points.length];
+        Map<String, List<Integer>> inheritances =
+         new LinkedHashMap<String, List<Integer>>();
+        for(int i = 0; i < points.length; i++) {
+            if(!owners[i].equals(name)) continue;
+            int next = i;
+            do {
+                next = (next + 1) % points.length;
+            } while(owners[next].equals(name));
+            heirs[i] = owners[next];
+            inheritances.computeIfAbsent(heirs[i],
+             heir -> new ArrayList<Integer>()).add(i);
+        }
+        int[][] ranges = rangesOf(name);
+        Shard.Batch batch = source.copyRanges(ranges[0], ranges[1]);
+        String[] heirOf = new String[batch.size()];
+        for(int i = 0; i < batch.size(); i++) {
+            heirOf[i] = heirs[pointFor(ringPosition(batch.ids[i]))];
+        }
+        //points whose ranges have been handed over to another shard
+        boolean[] handedOver = new boolean[points.length];
+        try {
+            for(Map.Entry<String, List<Integer>> inheritance
+             : inheritances.entrySet()) {
+                String heir = inheritance.getKey();
+                List<Integer> inherited = inheritance.getValue();
+                int[] starts = new int[inherited.size()];
+                int[] ends = new int[inherited.size()];
+                for(int i = 0; i < starts.length; i++) {
+                    starts[i] = previousPoint(inherited.get(i));
+                    ends[i] = points[inherited.get(i)];
+                }
+                int count = 0;
+                for(String student : heirOf) {
+                    if(student.equals(heir)) count++;
+                }
+                long[] ids = new long[count];
+                String[] lastNames = new String[count];
+                count = 0;
+                for(int i = 0; i < heirOf.length; i++) {
+                    if(heirOf[i].equals(heir)) {
+                        ids[count] = batch.ids[i];
+                        lastNames[count] = batch.lastNames[i];
+                        count++;
+                    }
+                }
+                insertCopies(shards.get(heir), starts, ends, ids, lastNames);
+                for(int i : inherited) {
+                    owners[i] = heir;
+                    handedOver[i] = true;
+                }
+            }
+        } finally {
+            //a handed over point whose next point has the same owner routes
+            //nothing differently, so drop it. if we stopped partway through
+            //a run of the removed shard's points, the last one handed over
+            //is followed by one still ours, and has to stay.
+            boolean[] drop = new boolean[points.length];
+            for(int i = 0; i < points.length; i++) {
+                drop[i] = handedOver[i]
+                 && owners[(i + 1) % points.length].equals(owners[i]);
+            }
+            dropPoints(drop);
+        }
+        //if this fails, the shard stays in the table without any ranges,
+        //and removing it again empties it
+        empty(source);
+        shards.remove(name);
+        return source;
+    }
+
+    //takes the points marked in drop off the ring
+    private void dropPoints(boolean[] drop) {
+        int kept = 0;
+        for(int i = 0; i < points.length; i++) {
+            if(!drop[i]) {
+                points[kept] = points[i];
+                owners[kept] = owners[i];
+                kept++;
+            }
+        }
+        points = Arrays.copyOf(points, kept);
+        owners = Arrays.copyOf(owners, kept);
+    }
+
+    //returns the starts and the ends of the named shard's ranges
+    private int[][] rangesOf(String name) {
+        int[] starts = new int[points.length];
+        int[] ends = new int[points.length];
+        int count = 0;
+        for(int i = 0; i < points.length; i++) {
+            if(owners[i].equals(name)) {
+                starts[count] = previousPoint(i);
+                ends[count] = points[i];
+                count++;
+            }
+        }
+        return new int[][] {Arrays.copyOf(starts, count),
+         Arrays.copyOf(ends, count)};
+    }
+
+    //gives the sorted newPoints to the named shard, moving the students in
+    //the ranges they take over from the shards that owned them
+    private void claim(int[] newPoints, String name) throws IOException {
+        if(points.length == 0) {
+            addPoints(newPoints, name);
+            return;
+        }
+        //each new range starts at the point before it on the ring as it
+        //will be
+        int[] ring = Arrays.copyOf(points, points.length + newPoints.length);
+        System.arraycopy(newPoints, 0, ring, points.length, newPoints.length);
+        Arrays.sort(ring);
+        //a new point takes its range from the owner of the point after it.
+        //new points with no old point between them take from the same
+        //owner, so taking each owner's share in one go puts whole runs of
+        //them on the ring at a time, and their ranges stay as worked out.
+        Map<String, List<Integer>> shares = new LinkedHashMap<String, List<Integer>>();
+        for(int point : newPoints) {
+            shares.computeIfAbsent(owners[pointFor(point)],
+             owner -> new ArrayList<Integer>()).add(point);
+        }
+        Shard shard = shards.get(name);
+        for(Map.Entry<String, List<Integer>> share : shares.entrySet()) {
+            int[] starts = new int[share.getValue().size()];
+            int[] ends = new int[starts.length];
+            for(int i = 0; i < ends.length; i++) {
+                ends[i] = share.getValue().get(i);
+                int index = Arrays.binarySearch(ring, ends[i]);
+                starts[i] = ring[(index + ring.length - 1) % ring.length];
+            }
+            Shard previousOwner = shards.get(share.getKey());
+            Shard.Batch batch = previousOwner.copyRanges(starts, ends);
+            insertCopies(shard, starts, ends, batch.ids, batch.lastNames);
+            addPoints(ends, name);
+            previousOwner.deleteRanges(starts, ends);
+        }
+    }
+
+    //puts the sorted newPoints on the ring, owned by name
+    private void addPoints(int[] newPoints, String name) {
+        int[] mergedPoints = new int[points.length + newPoints.length];
+        String[] mergedOwners = new String[mergedPoints.length];
+        int old = 0;
+        int added = 0;
+        for(int i = 0; i < mergedPoints.length; i++) {
+            if(added == newPoints.length
+             || (old < points.length && points[old] < newPoints[added])) {
+                mergedPoints[i] = points[old];
+                mergedOwners[i] = owners[old];
+                old++;
+            } else {
+                mergedPoints[i] = newPoints[added];
+                mergedOwners[i] = name;
+                added++;
+            }
+        }
+        points = mergedPoints;
+        owners = mergedOwners;
+    }
+
+    //inserts students copied out of ranges of another shard into to, which
+    //doesn't own those ranges yet. Anything it has in them was left behind
+    //by a move that couldn't delete what it copied, so it's cleared first,
+    //and can't shadow the students coming in. If the insert fails, whatever
+    //got in is cleared again.
+    private static void insertCopies(Shard to, int[] starts, int[] ends,
+     long[] ids, String[] lastNames) throws IOException {
+        try {
+            to.deleteRanges(starts, ends);
+            to.insertAll(ids, lastNames);
+        } catch (IOException | RuntimeException e) {
+            try {
+                to.deleteRanges(starts, ends);
+            } catch (IOException | RuntimeException cleanupFailure) {
+                e.addSuppressed(cleanupFailure);
+            }
+            throw e;
+        }
+    }
+
+    //deletes every student in a shard that's leaving the table
+    private static void empty(Shard shard) throws IOException {
+        //a range that starts where it ends is the whole ring
+        shard.deleteRanges(new int[] {0}, new int[] {0});
+    }
+
+    private void checkNewName(String name) {
+        if(shards.containsKey(name)) {
+            throw new IllegalArgumentException("There's already a shard called "
+             + name + ".");
+        }
+    }
+
+    private Shard requireShard(String name) {
+        Shard shard = shards.get(name);
+        if(shard == null) {
+            throw new IllegalArgumentException("There's no shard called "
+             + name + ".");
+        }
+        return shard;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for(int i = 0; i < count; i++) {
+            if(values[i] == value) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Closes every shard. Remote shards keep their students on their
+     * servers.
+     * @throws IOException if a shard can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for(Shard shard : shards.values()) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if(failure == null) failure = e;
+            }
+        }
+        if(failure != null) throw failure;
+    }
+}
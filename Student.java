@@ -5,7 +5,7 @@
  * to be equal if their IDs are equal, and hash codes
  * are computed using only IDs.
  */
-class Student {
+class Student implements LongHashed {
     //student's id and last name
     private long id;
     private String lastName;
@@ -20,6 +20,22 @@ class Student {
         this.lastName = lastName;
     }
 
+    /**
+     * Returns the student's ID number.
+     * @return The student's ID
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Returns the student's last name.
+     * @return The student's last name
+     */
+    public String getLastName() {
+        return lastName;
+    }
+
     //override methods from Object.
     @Override
     public boolean equals(Object other) {
@@ -38,8 +54,14 @@ class Student {
 
     @Override
     public int hashCode() {
-        //give students hashcodes based on their ID.
-        Long key = new Long(id);
-        return key.hashCode(); //just use Long's hashCode method
+        //give students hashcodes based on their ID. Long.hashCode gives
+        //the same value as a boxed Long without allocating one.
+        return Long.hashCode(id);
+    }
+
+    //the whole ID, so the tables can mix all 64 bits of it
+    @Override
+    public long hashKey() {
+        return id;
     }
 }
\ No newline at end of file
@@ -0,0 +1,357 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Loads a file of student records into a HashTable of Students.
+ * The file format is the one HTDriver has always read: the first line
+ * holds the number of records, and each following line is a positive ID
+ * and a last name separated by whitespace. Only that many lines are read.
+ *
+ * The file is memory mapped and split into chunks that worker threads
+ * parse in parallel, straight from the mapped bytes with no Scanner or
+ * regular expressions. Each line only allocates its Student and last name.
+ * Chunks are inserted in file order with HashTable.insertAll as soon as
+ * they're parsed, so parsing and inserting overlap. Only a chunk per
+ * thread is parsed ahead of the one being inserted, so however big the
+ * file, at most that many chunks of parsed students are held at once.
+ * Lines longer than MAX_LINE_LENGTH bytes are rejected.
+ */
+public class StudentLoader {
+
+    //how many bytes of the file each parsing task handles
+    private static final int TASK_SIZE = 1 << 25;
+    //the longest line we'll parse, not counting its newline. Longer
+    //ones are rejected wherever they are, so a task never has to read
+    //more than this past the end of its range.
+    private static final int MAX_LINE_LENGTH = 1 << 16;
+
+    private final int threads;
+
+    /**
+     * Creates a loader that parses with one thread per available processor.
+     */
+    public StudentLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a loader that parses with the given number of threads.
+     * @param threads How many threads to parse with
+     */
+    public StudentLoader(int threads) {
+        if(threads < 1) {
+            throw new IllegalArgumentException(
+             "Must load with at least one thread.");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Thrown when a file isn't in the student record format.
+     */
+    public static class FormatException extends IOException {
+        private static final long serialVersionUID = 1L;
+        public FormatException(String message) {super(message);}
+    }
+
+    /**
+     * What a load produced: the table, and how many records went where.
+     */
+    public static class Result {
+        private final HashTable<Student> table;
+        private final long accepted;
+        private final long duplicates;
+        private final long rejected;
+
+        Result(HashTable<Student> table, long accepted, long duplicates,
+         long rejected) {
+            this.table = table;
+            this.accepted = accepted;
+            this.duplicates = duplicates;
+            this.rejected = rejected;
+        }
+
+        /**
+         * Returns the table the students were loaded into.
+         * @return The loaded table
+         */
+        public HashTable<Student> getTable() {
+            return table;
+        }
+
+        /**
+         * Returns how many records were inserted.
+         * @return The number of inserted records
+         */
+        public long getAccepted() {
+            return accepted;
+        }
+
+        /**
+         * Returns how many valid records had an ID that was already loaded.
+         * @return The number of duplicate records
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * Returns how many lines weren't valid student records.
+         * @return The number of rejected lines
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        @Override
+        public String toString() {
+            return accepted + " accepted, " + duplicates + " duplicates, "
+             + rejected + " rejected";
+        }
+    }
+
+    //the students parsed out of one task's range of the file
+    private static class Batch {
+        //the parsed students, in file order
+        Student[] students = new Student[1024];
+        //for each student, which line of the range it came from
+        int[] lines = new int[1024];
+        int size;
+        //how many lines started in the range, valid or not
+        int lineCount;
+
+        void add(Student student, int line) {
+            if(size == students.length) {
+                students = Arrays.copyOf(students, size * 2);
+                lines = Arrays.copyOf(lines, size * 2);
+            }
+            students[size] = student;
+            lines[size] = line;
+            size++;
+        }
+    }
+
+    /**
+     * Loads the student records in path into a new HashTable.
+     * @param path The file to load
+     * @return The table and counts of what was loaded
+     * @throws FormatException if the first line isn't a record count
+     * @throws IOException if the file can't be read
+     */
+    public Result load(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            //the header is short, so map just the start of the file for it
+            MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY,
+             0, Math.min(size, MAX_LINE_LENGTH));
+            int headerEnd = 0;
+            while(headerEnd < head.limit() && head.get(headerEnd) != '\n') {
+                headerEnd++;
+            }
+            if(headerEnd == head.limit() && size > head.limit()) {
+                throw new FormatException("First line is too long.");
+            }
+            long collectionSize = parseCount(head, headerEnd);
+            long dataStart = Math.min(size, headerEnd + 1L);
+
+            HashTable<Student> table = new HashTable<Student>(
+             (int)Math.min(collectionSize, Primes.MAX_TABLE_SIZE / 2));
+            return loadRecords(channel, dataStart, size, collectionSize, table);
+        }
+    }
+
+    //parses the record count from the first headerEnd bytes of head
+    private static long parseCount(MappedByteBuffer head, int headerEnd)
+     throws FormatException {
+        int pos = skipSpaces(head, 0, headerEnd);
+        boolean negative = pos < headerEnd && head.get(pos) == '-';
+        if(negative || (pos < headerEnd && head.get(pos) == '+')) pos++;
+        int digitsStart = pos;
+        long count = 0;
+        while(pos < headerEnd && isDigit(head.get(pos))) {
+            count = count * 10 + (head.get(pos) - '0');
+            if(count > Integer.MAX_VALUE) {
+                throw new FormatException("Collection size is too large.");
+            }
+            pos++;
+        }
+        //like Scanner.nextInt, ignore anything after the count
+        if(pos == digitsStart || (pos < headerEnd && !isSpace(head.get(pos)))) {
+            throw new FormatException("First line must contain collection size.");
+        }
+        //a negative count means there's nothing to read
+        return negative ? 0 : count;
+    }
+
+    //parses the ranges of the file in parallel, and inserts the results
+    //in order, stopping after collectionSize lines. keeps one range per
+    //thread in flight beyond the one being waited for, submitting the next
+    //as each is inserted.
+    private Result loadRecords(FileChannel channel, long dataStart, long size,
+     long collectionSize, HashTable<Student> table) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<Future<Batch>>();
+            long nextStart = dataStart;
+            long linesLeft = collectionSize;
+            long accepted = 0;
+            long duplicates = 0;
+            long rejected = 0;
+            while(linesLeft > 0) {
+                while(nextStart < size && inFlight.size() <= threads) {
+                    final long taskStart = nextStart;
+                    final long taskEnd = Math.min(size, nextStart + TASK_SIZE);
+                    final boolean first = nextStart == dataStart;
+                    inFlight.add(pool.submit(
+                     () -> parseRange(channel, taskStart, taskEnd, size, first)));
+                    nextStart = taskEnd;
+                }
+                if(inFlight.isEmpty()) break;
+                //polled, so the batch can be collected once it's inserted
+                Batch batch = get(inFlight.poll());
+                //only take the lines that are within the record count
+                int lines = (int)Math.min(batch.lineCount, linesLeft);
+                int valid = 0;
+                while(valid < batch.size && batch.lines[valid] < lines) {
+                    valid++;
+                }
+                Student[] students = valid == batch.students.length
+                 ? batch.students
+                 : Arrays.copyOf(batch.students, valid);
+                int inserted = table.insertAll(students);
+                accepted += inserted;
+                duplicates += valid - inserted;
+                rejected += lines - valid;
+                linesLeft -= lines;
+            }
+            return new Result(table, accepted, duplicates, rejected);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    //waits for a parsing task, passing its IOException along
+    private static Batch get(Future<Batch> future) throws IOException {
+        try {
+            return future.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading.", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IOException("Failed to parse records.", e.getCause());
+        }
+    }
+
+    //parses every line that starts in [start, end). Unless first is set, the
+    //line that start falls in belongs to the previous range, so it's
+    //skipped. The last line may run past end.
+    private static Batch parseRange(FileChannel channel, long start, long end,
+     long size, boolean first) throws IOException {
+        long mapEnd = Math.min(size, end + MAX_LINE_LENGTH);
+        //also map the byte before start, to tell if start begins a line
+        long mapStart = first ? start : start - 1;
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+         mapStart, mapEnd - mapStart);
+        int limit = buffer.limit();
+        int rangeEnd = (int)(end - mapStart);
+
+        int pos = 0;
+        if(!first) {
+            //skip to just after the first newline at or after start - 1
+            while(pos < limit && buffer.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+
+        Batch batch = new Batch();
+        byte[] nameBytes = new byte[64];
+        while(pos < rangeEnd) {
+            int lineEnd = pos;
+            while(lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int line = batch.lineCount++;
+            if(lineEnd == limit && mapEnd < size) {
+                //this line runs past the mapping, so it's too long, and no
+                //other line starts in the range after it
+                break;
+            }
+            if(lineEnd - pos > MAX_LINE_LENGTH) {
+                //too long, wherever in the range it is
+                pos = lineEnd + 1;
+                continue;
+            }
+
+            //parse "id name", with any amount of whitespace around them
+            int p = skipSpaces(buffer, pos, lineEnd);
+            long id = 0;
+            int digitsStart = p;
+            boolean overflow = false;
+            if(p < lineEnd && buffer.get(p) == '+') {
+                p++;
+                digitsStart = p;
+            }
+            while(p < lineEnd && isDigit(buffer.get(p))) {
+                if(id > (Long.MAX_VALUE - 9) / 10) overflow = true;
+                id = id * 10 + (buffer.get(p) - '0');
+                p++;
+            }
+            boolean valid = p > digitsStart && !overflow && id > 0
+             && p < lineEnd && isSpace(buffer.get(p));
+            if(valid) {
+                int nameStart = skipSpaces(buffer, p, lineEnd);
+                int nameEnd = nameStart;
+                boolean ascii = true;
+                while(nameEnd < lineEnd && !isSpace(buffer.get(nameEnd))) {
+                    if(buffer.get(nameEnd) < 0) ascii = false;
+                    nameEnd++;
+                }
+                //there must be a name, and nothing after it
+                if(nameEnd > nameStart
+                 && skipSpaces(buffer, nameEnd, lineEnd) == lineEnd) {
+                    int length = nameEnd - nameStart;
+                    if(length > nameBytes.length) {
+                        nameBytes = new byte[Math.max(length, nameBytes.length * 2)];
+                    }
+                    buffer.get(nameStart, nameBytes, 0, length);
+                    String name = new String(nameBytes, 0, length, ascii
+                     ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+                    batch.add(new Student(id, name), line);
+                }
+            }
+            pos = lineEnd + 1;
+        }
+        return batch;
+    }
+
+    //returns the first index in [pos, end) that isn't whitespace, or end
+    private static int skipSpaces(MappedByteBuffer buffer, int pos, int end) {
+        while(pos < end && isSpace(buffer.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,192 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * A secondary index of a HashTable of Students by last name. Students are
+ * found by their ID in the table, so finding them by name otherwise means
+ * iterating over every cell. The index listens to the table, so every
+ * insert and delete keeps it up to date, and its lookups take time
+ * proportional to the number of matching names and students rather than
+ * the size of the table.
+ *
+ * Names are kept in a TreeMap, so a prefix lookup is a walk over the
+ * names that start with it, in order. Each name holds its students in a
+ * HashTable of their own, or just the Student while there's only one, as
+ * most names only have one. Names are matched exactly, case and all.
+ * Students with no last name aren't indexed.
+ *
+ * Like HashTable, not thread safe: use it from the thread changing the
+ * table.
+ */
+public class StudentNameIndex implements HashTable.Listener<Student> {
+
+    private final HashTable<Student> table;
+    //from each last name to its Student, or a HashTable<Student> of them
+    //once there's more than one
+    private final TreeMap<String, Object> names = new TreeMap<String, Object>();
+    //the number of students indexed
+    private int size;
+
+    /**
+     * Indexes the students in table, and keeps indexing them as it changes.
+     * Replaces any listener table already has.
+     * @param table The table to index
+     */
+    public StudentNameIndex(HashTable<Student> table) {
+        this.table = table;
+        for(Student student : table) {
+            inserted(student);
+        }
+        table.setListener(this);
+    }
+
+    /**
+     * Stops keeping the index up to date. Lookups afterwards see the table
+     * as it was.
+     */
+    public void detach() {
+        if(table.getListener() == this) {
+            table.setListener(null);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void inserted(Student student) {
+        String name = student.getLastName();
+        if(name == null) return;
+        Object current = names.get(name);
+        if(current == null) {
+            names.put(name, student);
+        } else if(current instanceof Student) {
+            HashTable<Student> students = new HashTable<Student>(4);
+            students.insert((Student)current);
+            students.insert(student);
+            names.put(name, students);
+        } else {
+            ((HashTable<Student>)current).insert(student);
+        }
+        size++;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void deleted(Student student) {
+        String name = student.getLastName();
+        if(name == null) return;
+        Object current = names.get(name);
+        if(current instanceof Student) {
+            names.remove(name);
+            size--;
+        } else if(current != null) {
+            HashTable<Student> students = (HashTable<Student>)current;
+            if(students.delete(student)) {
+                size--;
+                //back to a single Student, so the HashTable can go
+                if(students.elementCount() == 1) {
+                    names.put(name, students.iterator().next());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void cleared() {
+        names.clear();
+        size = 0;
+    }
+
+    /**
+     * Finds the students with a last name.
+     * @param lastName The last name to look for
+     * @return The students with that name, in no particular order. Empty
+     * if there aren't any.
+     */
+    public List<Student> find(String lastName) {
+        List<Student> found = new ArrayList<Student>();
+        if(lastName != null) {
+            addAll(names.get(lastName), found);
+        }
+        return found;
+    }
+
+    /**
+     * Finds the students whose last names start with prefix.
+     * @param prefix The start of the names to look for. The empty string
+     * matches every indexed student.
+     * @return The matching students, ordered by last name
+     */
+    public List<Student> findPrefix(String prefix) {
+        List<Student> found = new ArrayList<Student>();
+        for(Map.Entry<String, Object> entry : names.tailMap(prefix).entrySet()) {
+            //names starting with prefix sort right after it, so the first
+            //one that doesn't is the end of them
+            if(!entry.getKey().startsWith(prefix)) break;
+            addAll(entry.getValue(), found);
+        }
+        return found;
+    }
+
+    /**
+     * Counts the students whose last names start with prefix, giving up
+     * once the count passes limit, so a short prefix of a large table
+     * costs no more than limit students.
+     * @param prefix The start of the names to count
+     * @param limit The count past which to stop
+     * @return The number of matching students, or some number greater than
+     * limit if there are more than limit
+     */
+    public int countPrefix(String prefix, int limit) {
+        int count = 0;
+        for(String name : names.tailMap(prefix).keySet()) {
+            if(!name.startsWith(prefix) || count > limit) break;
+            count += count(name);
+        }
+        return count;
+    }
+
+    /**
+     * Returns how many students have a last name.
+     * @param lastName The last name to count
+     * @return The number of students with that name
+     */
+    @SuppressWarnings("unchecked")
+    public int count(String lastName) {
+        Object current = lastName == null ? null : names.get(lastName);
+        if(current == null) return 0;
+        if(current instanceof Student) return 1;
+        return ((HashTable<Student>)current).elementCount();
+    }
+
+    /**
+     * Returns the number of distinct last names indexed.
+     * @return The number of names
+     */
+    public int nameCount() {
+        return names.size();
+    }
+
+    /**
+     * Returns the number of students indexed, which is every student in
+     * the table that has a last name.
+     * @return The number of students
+     */
+    public int size() {
+        return size;
+    }
+
+    //adds the students held for one name to found
+    @SuppressWarnings("unchecked")
+    private static void addAll(Object students, List<Student> found) {
+        if(students instanceof Student) {
+            found.add((Student)students);
+        } else if(students != null) {
+            for(Student student : (HashTable<Student>)students) {
+                found.add(student);
+            }
+        }
+    }
+}
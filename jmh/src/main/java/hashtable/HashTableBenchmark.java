@@ -0,0 +1,274 @@
+package hashtable;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * JMH benchmarks for HashTable and the tables built around it, the
+ * trustworthy counterpart of HTBenchmark's quick loops. Every table and
+ * size runs in its own forked JVMs, so one table's JIT profile can't
+ * slow another down, and results go to a Blackhole or are returned so
+ * the work can't be thrown away.
+ *
+ * Measures finds that hit and miss, steady delete and insert churn,
+ * building a table from empty (growth included) and iterating, for
+ * HashTable with quadratic and triangular probing, RobinHoodHashTable,
+ * LongKeyedHashTable and java.util.HashSet. findTombstones measures
+ * finds past a build up of deleted cells, with HashTable's default
+ * compaction and with compaction turned off.
+ *
+ * Usage: mvn -B package, then java -jar target/benchmarks.jar, with JMH's
+ * options after it, e.g. -p table=hashtable -p size=100000 findHit
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HashTableBenchmark {
+
+    //what every benchmarked table has to do
+    private interface Target {
+        boolean insert(Student student);
+        Object find(Student key);
+        boolean delete(Student key);
+        void iterate(Blackhole blackhole);
+    }
+
+    //makes an empty table of one kind, for about elements students
+    private static Target newTarget(String kind, int elements) {
+        switch(kind) {
+            case "hashtable":
+                return hashTable(new HashTable<Student>(elements));
+            case "triangular":
+                return hashTable(new HashTable<Student>(elements,
+                 ProbingStrategy.TRIANGULAR));
+            case "robinhood": {
+                final RobinHoodHashTable<Student> table =
+                 new RobinHoodHashTable<Student>(elements);
+                return new Target() {
+                    public boolean insert(Student s) {return table.insert(s);}
+                    public Object find(Student key) {return table.find(key);}
+                    public boolean delete(Student key) {return table.delete(key);}
+                    public void iterate(Blackhole blackhole) {
+                        for(Student student : table) blackhole.consume(student);
+                    }
+                };
+            }
+            case "longkeyed": {
+                final LongKeyedHashTable table = new LongKeyedHashTable(elements);
+                return new Target() {
+                    public boolean insert(Student s) {
+                        return table.insert(s.getId(), s.getLastName());
+                    }
+                    public Object find(Student key) {return table.find(key.getId());}
+                    public boolean delete(Student key) {
+                        return table.delete(key.getId());
+                    }
+                    public void iterate(Blackhole blackhole) {
+                        for(int i = 0; i < table.capacity(); i++) {
+                            if(table.stateAt(i) == LongKeyedHashTable.ACTIVE) {
+                                blackhole.consume(table.idAt(i));
+                            }
+                        }
+                    }
+                };
+            }
+            case "hashset": {
+                final HashSet<Student> table = new HashSet<Student>(elements * 2);
+                return new Target() {
+                    public boolean insert(Student s) {return table.add(s);}
+                    public Object find(Student key) {
+                        return table.contains(key) ? key : null;
+                    }
+                    public boolean delete(Student key) {return table.remove(key);}
+                    public void iterate(Blackhole blackhole) {
+                        for(Student student : table) blackhole.consume(student);
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown table " + kind);
+        }
+    }
+
+    private static Target hashTable(final HashTable<Student> table) {
+        return new Target() {
+            public boolean insert(Student s) {return table.insert(s);}
+            public Object find(Student key) {return table.find(key);}
+            public boolean delete(Student key) {return table.delete(key);}
+            public void iterate(Blackhole blackhole) {
+                table.forEach(blackhole::consume);
+            }
+        };
+    }
+
+    //the students of one size, and a full table of them
+    @State(Scope.Benchmark)
+    public static class Tables {
+        @Param({"hashtable", "triangular", "robinhood", "longkeyed", "hashset"})
+        public String table;
+        @Param({"10000", "100000", "1000000"})
+        public int size;
+
+        //students in insertion order
+        Student[] students;
+        //search students for the same ids, shuffled, and for ids never
+        //inserted
+        Student[] hitKeys;
+        Student[] missKeys;
+        Target full;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(size);
+            students = new Student[size];
+            hitKeys = new Student[size];
+            missKeys = new Student[size];
+            for(int i = 0; i < size; i++) {
+                //spread ids out, even ids are present and odd ones missing
+                long id = 2 * (i * 2654435761L % 1000000007L) + 2;
+                students[i] = new Student(id, "Name" + (i % 1000));
+                hitKeys[i] = new Student(id, null);
+                missKeys[i] = new Student(id + 1, null);
+            }
+            shuffle(hitKeys, random);
+            shuffle(missKeys, random);
+            full = newTarget(table, size);
+            for(Student student : students) full.insert(student);
+        }
+    }
+
+    //a position in the key arrays, for each thread
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+        int advance(int length) {
+            int current = next;
+            next = current + 1 == length ? 0 : current + 1;
+            return current;
+        }
+    }
+
+    //a table under delete and insert churn. ids move up by 4 billion each
+    //time, past any id setUp makes or an earlier lap used.
+    @State(Scope.Benchmark)
+    public static class Churn {
+        Student[] live;
+        Target target;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(Tables tables) {
+            live = tables.students.clone();
+            target = newTarget(tables.table, tables.size);
+            for(Student student : live) target.insert(student);
+            next = 0;
+        }
+    }
+
+    //a HashTable filled to 0.2 load then churned 1.2 times over, so
+    //without compaction about 0.24 of the cells are deleted, more than
+    //are live, and the table still isn't full enough to grow
+    @State(Scope.Benchmark)
+    public static class Tombstones {
+        @Param({"0.25", "1.0"})
+        public double threshold;
+        @Param({"100000"})
+        public int size;
+
+        Student[] keys;
+        HashTable<Student> table;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            table = new HashTable<Student>((int)Math.ceil(size / 0.4), threshold);
+            Student[] live = new Student[size];
+            for(int i = 0; i < size; i++) {
+                live[i] = new Student(2 * (i * 2654435761L % 1000000007L) + 2,
+                 "Name");
+                table.insert(live[i]);
+            }
+            for(int n = 0; n < size + size / 5; n++) {
+                int i = n % size;
+                table.delete(live[i]);
+                live[i] = new Student(live[i].getId() + 4000000000L, "Churn");
+                table.insert(live[i]);
+            }
+            keys = new Student[size];
+            for(int i = 0; i < size; i++) {
+                keys[i] = new Student(live[i].getId(), null);
+            }
+            shuffle(keys, new Random(size));
+        }
+    }
+
+    @Benchmark
+    public Object findHit(Tables tables, Cursor cursor) {
+        return tables.full.find(
+         tables.hitKeys[cursor.advance(tables.hitKeys.length)]);
+    }
+
+    @Benchmark
+    public Object findMiss(Tables tables, Cursor cursor) {
+        return tables.full.find(
+         tables.missKeys[cursor.advance(tables.missKeys.length)]);
+    }
+
+    //one delete and one insert
+    @Benchmark
+    public boolean churn(Churn churn) {
+        int i = churn.next;
+        churn.next = i + 1 == churn.live.length ? 0 : i + 1;
+        Student old = churn.live[i];
+        churn.target.delete(old);
+        churn.live[i] = new Student(old.getId() + 4000000000L, "Churn");
+        return churn.target.insert(churn.live[i]);
+    }
+
+    //inserts every student into an empty table, growing it as it goes
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Target build(Tables tables) {
+        Target target = newTarget(tables.table, 16);
+        for(Student student : tables.students) target.insert(student);
+        return target;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void iterate(Tables tables, Blackhole blackhole) {
+        tables.full.iterate(blackhole);
+    }
+
+    @Benchmark
+    public Object findTombstones(Tombstones tombstones, Cursor cursor) {
+        return tombstones.table.find(
+         tombstones.keys[cursor.advance(tombstones.keys.length)]);
+    }
+
+    private static void shuffle(Object[] values, Random random) {
+        for(int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Object swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+}
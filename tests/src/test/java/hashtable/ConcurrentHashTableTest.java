@@ -0,0 +1,322 @@
+package hashtable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Tests for ConcurrentHashTable: striped writers racing on the same keys,
+ * finds while the table is rehashed, copy-on-write snapshots, and deleted
+ * cells being compacted away instead of growing the table.
+ */
+class ConcurrentHashTableTest {
+
+    private static final int THREADS = 8;
+
+    private ExecutorService pool;
+
+    @BeforeEach
+    void startPool() {
+        pool = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void stopPool() throws InterruptedException {
+        pool.shutdownNow();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    //runs task on every thread at once, and passes along anything it throws
+    private <T> List<T> runOnAll(Callable<T> task) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(THREADS);
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        for(int i = 0; i < THREADS; i++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        List<T> results = new ArrayList<T>();
+        for(Future<T> future : futures) {
+            results.add(future.get(60, TimeUnit.SECONDS));
+        }
+        return results;
+    }
+
+    @Test
+    void racingInsertsOfTheSameKeysInsertEachOnce() throws Exception {
+        int count = 50000;
+        //start tiny and with few stripes, so threads share stripes and the
+        //table is rehashed many times while they race
+        ConcurrentHashTable<Student> table = new ConcurrentHashTable<Student>(1, 4);
+        AtomicInteger next = new AtomicInteger();
+        List<Integer> inserted = runOnAll(() -> {
+            int mine = 0;
+            //every thread inserts every ID, each from a different start
+            int offset = next.getAndIncrement() * (count / THREADS);
+            for(int i = 0; i < count; i++) {
+                long id = (i + offset) % count + 1;
+                if(table.insert(new Student(id, "Name" + id))) mine++;
+            }
+            return mine;
+        });
+
+        assertEquals(count, inserted.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(count, table.elementCount());
+        for(long id = 1; id <= count; id++) {
+            assertEquals("Name" + id, table.find(new Student(id, "")).getLastName());
+        }
+        Set<Student> seen = new HashSet<Student>();
+        for(Student student : table) {
+            assertTrue(seen.add(student), "iterated twice: " + student);
+        }
+        assertEquals(count, seen.size());
+    }
+
+    @Test
+    void racingDeletesOfTheSameKeysDeleteEachOnce() throws Exception {
+        int count = 20000;
+        ConcurrentHashTable<Student> table = new ConcurrentHashTable<Student>(count, 4);
+        for(long id = 1; id <= count; id++) {
+            table.insert(new Student(id, "Name"));
+        }
+        List<Integer> deleted = runOnAll(() -> {
+            int mine = 0;
+            for(long id = 1; id <= count; id++) {
+                if(table.delete(new Student(id, ""))) mine++;
+            }
+            return mine;
+        });
+
+        assertEquals(count, deleted.stream().mapToInt(Integer::intValue).sum());
+        assertEquals(0, table.elementCount());
+        assertTrue(table.isEmpty());
+        assertFalse(table.iterator().hasNext());
+    }
+
+    @Test
+    void findsNeverMissWhileTheTableIsRehashed() throws Exception {
+        int count = 200000;
+        ConcurrentHashTable<Student> table = new ConcurrentHashTable<Student>(1);
+        //every ID up to this one has been inserted
+        AtomicLong published = new AtomicLong();
+        AtomicBoolean done = new AtomicBoolean();
+        Future<?> writer = pool.submit(() -> {
+            for(long id = 1; id <= count; id++) {
+                table.insert(new Student(id, "Name"));
+                published.set(id);
+            }
+            done.set(true);
+        });
+        List<Future<Long>> readers = new ArrayList<Future<Long>>();
+        for(int r = 0; r < THREADS - 1; r++) {
+            readers.add(pool.submit(() -> {
+                long misses = 0;
+                long probe = 1;
+                while(!done.get()) {
+                    long upTo = published.get();
+                    if(upTo == 0) continue;
+                    probe = probe % upTo + 1;
+                    if(table.find(new Student(probe, "")) == null) misses++;
+                    //never inserted, so it must never be found
+                    if(table.find(new Student(count + probe, "")) != null) misses++;
+                }
+                return misses;
+            }));
+        }
+        writer.get(60, TimeUnit.SECONDS);
+        for(Future<Long> reader : readers) {
+            assertEquals(0L, reader.get(60, TimeUnit.SECONDS));
+        }
+        assertEquals(count, table.elementCount());
+        assertTrue(cellCount(table) > count, "table never grew");
+    }
+
+    @Test
+    void snapshotDoesNotSeeLaterWrites() {
+        ConcurrentHashTable<Student> table = new ConcurrentHashTable<Student>(16);
+        for(long id = 1; id <= 1000; id++) {
+            table.insert(new Student(id, "Name"));
+        }
+        ConcurrentHashTable.Snapshot<Student> snapshot = table.snapshot();
+        for(long id = 2; id <= 1000; id += 2) {
+            table.delete(new Student(id, ""));
+        }
+        //enough to grow the table past the snapshot's cells
+        for(long id = 1001; id <= 5000; id++) {
+            table.insert(new Student(id, "Name"));
+        }
+        table.makeEmpty();
+        table.insert(new Student(1, "Later"));
+
+        assertEquals(1000, snapshot.elementCount());
+        assertFalse(snapshot.isEmpty());
+        for(long id = 1; id <= 1000; id++) {
+            assertNotNull(snapshot.find(new Student(id, "")), "lost " + id);
+        }
+        assertNull(snapshot.find(new Student(1001, "")));
+        assertEquals("Name", snapshot.find(new Student(1, "")).getLastName());
+        Set<Long> ids = new HashSet<Long>();
+        for(Student student : snapshot) {
+            assertTrue(ids.add(student.getId()));
+        }
+        assertEquals(1000, ids.size());
+        assertEquals(1, table.elementCount());
+    }
+
+    @Test
+    void snapshotSharesSegmentsUntilTheyAreWritten() throws Exception {
+        //big enough for several segments, and never grown below
+        ConcurrentHashTable<Student> table = new ConcurrentHashTable<Student>(4096);
+        for(long id = 1; id <= 100; id++) {
+            table.insert(new Student(id, "Name"));
+        }
+        ConcurrentHashTable.Snapshot<Student> snapshot = table.snapshot();
+        AtomicReferenceArray<?> before = segments(cellsOf(snapshot));
+        AtomicReferenceArray<?> live = segments(cellsOf(table));
+        assertTrue(before.length() > 4);
+        for(int i = 0; i < before.length(); i++) {
+            assertSame(before.get(i), live.get(i), "segment " + i + " was copied");
+        }
+
+        table.delete(new Student(1, ""));
+        live = segments(cellsOf(table));
+        int copied = 0;
+        for(int i = 0; i < before.length(); i++) {
+            if(before.get(i) != live.get(i)) copied++;
+        }
+        assertEquals(1, copied, "only the written segment is copied");
+        assertNotNull(snapshot.find(new Student(1, "")));
+        assertNull(table.find(new Student(1, "")));
+
+        //a second write to the same segment doesn't copy it again
+        Object written = null;
+        for(int i = 0; i < before.length(); i++) {
+            if(before.get(i) != live.get(i)) written = live.get(i);
+        }
+        table.insert(new Student(1, "Again"));
+        AtomicReferenceArray<?> after = segments(cellsOf(table));
+        boolean stillThere = false;
+        for(int i = 0; i < after.length(); i++) {
+            if(after.get(i) == written) stillThere = true;
+        }
+        assertTrue(stillThere);
+        assertEquals("Name", snapshot.find(new Student(1, "")).getLastName());
+    }
+
+    @Test
+    void snapshotsTakenDuringWritesAreConsistent() throws Exception {
+        //a multiple of 3, so each writer deletes a third of its IDs
+        int count = 21000;
+        ConcurrentHashTable<Student> table = new ConcurrentHashTable<Student>(16);
+        AtomicBoolean done = new AtomicBoolean();
+        List<Future<?>> writers = new ArrayList<Future<?>>();
+        for(int w = 0; w < THREADS - 1; w++) {
+            final long base = (long)w * count;
+            writers.add(pool.submit(() -> {
+                for(long id = base + 1; id <= base + count; id++) {
+                    table.insert(new Student(id, "Name"));
+                    //deletes keep the chains full of deleted cells
+                    if(id % 3 == 0) table.delete(new Student(id - 1, ""));
+                }
+                return null;
+            }));
+        }
+        Future<Integer> checker = pool.submit(() -> {
+            int snapshots = 0;
+            while(!done.get()) {
+                ConcurrentHashTable.Snapshot<Student> snapshot = table.snapshot();
+                Set<Student> seen = new HashSet<Student>();
+                for(Student student : snapshot) {
+                    if(!seen.add(student)) return -1;
+                    if(snapshot.find(student) != student) return -1;
+                }
+                if(seen.size() != snapshot.elementCount()) return -1;
+                snapshots++;
+            }
+            return snapshots;
+        });
+        for(Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+        done.set(true);
+        assertTrue(checker.get(60, TimeUnit.SECONDS) >= 0,
+         "a snapshot wasn't consistent");
+        assertEquals((THREADS - 1) * (count - count / 3), table.elementCount());
+    }
+
+    @Test
+    void churnCompactsDeletedCellsInsteadOfGrowing() throws Exception {
+        ConcurrentHashTable<Student> table = new ConcurrentHashTable<Student>(100);
+        //only ever 100 elements at once, but a million distinct ones, so
+        //the table fills with deleted cells that must be cleared out
+        for(long id = 1; id <= 1000000; id++) {
+            assertTrue(table.insert(new Student(id, "Name")));
+            if(id > 100) {
+                assertTrue(table.delete(new Student(id - 100, "")));
+            }
+        }
+        assertEquals(100, table.elementCount());
+        //it may grow once to get below a quarter full, but no further
+        assertTrue(cellCount(table) < 1000, "grew to " + cellCount(table));
+        for(long id = 1000000 - 99; id <= 1000000; id++) {
+            assertNotNull(table.find(new Student(id, "")));
+        }
+    }
+
+    @Test
+    void rejectsBadConcurrencyLevelAndNulls() {
+        assertThrows(IllegalArgumentException.class,
+         () -> new ConcurrentHashTable<Student>(16, 0));
+        ConcurrentHashTable<Student> table = new ConcurrentHashTable<Student>(16);
+        assertFalse(table.insert(null));
+        assertNull(table.find(null));
+        assertFalse(table.delete(null));
+    }
+
+    //the table's cells, which are private, so tests reach them by reflection
+    private static Object cellsOf(Object owner) throws Exception {
+        Field field = owner.getClass().getDeclaredField(
+         owner instanceof ConcurrentHashTable ? "table" : "cells");
+        field.setAccessible(true);
+        return field.get(owner);
+    }
+
+    private static AtomicReferenceArray<?> segments(Object cells) throws Exception {
+        Field field = cells.getClass().getDeclaredField("segments");
+        field.setAccessible(true);
+        return (AtomicReferenceArray<?>)field.get(cells);
+    }
+
+    private static int cellCount(ConcurrentHashTable<?> table) throws Exception {
+        Object cells = cellsOf(table);
+        Field field = cells.getClass().getDeclaredField("length");
+        field.setAccessible(true);
+        return field.getInt(cells);
+    }
+}
@@ -0,0 +1,320 @@
+package hashtable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Tests for DurableHashTable's files: replaying the log, cutting off a torn
+ * or corrupt tail, and only replaying a log onto the checkpoint of its own
+ * generation.
+ */
+class DurableHashTableTest {
+
+    //the file layout, see DurableHashTable
+    private static final int LOG_HEADER_SIZE = 16;
+    //every name here is 7 characters, so every INSERT record is the same
+    //size: length and CRC, then the operation, ID, null flag, and the name
+    //with its writeUTF length
+    private static final int INSERT_RECORD_SIZE = 8 + 1 + 8 + 1 + 2 + 7;
+
+    @TempDir
+    Path directory;
+    //somewhere else to put files, like a copy of the table after a crash
+    @TempDir
+    Path elsewhere;
+
+    private static String name(long id) {
+        return String.format("Name%03d", id);
+    }
+
+    //inserts IDs 1 to count with their name(id)
+    private static void insertAll(DurableHashTable table, int count)
+     throws IOException {
+        for(long id = 1; id <= count; id++) {
+            assertTrue(table.insert(new Student(id, name(id))));
+        }
+    }
+
+    private static void assertHolds(DurableHashTable table, int count) {
+        assertEquals(count, table.elementCount());
+        for(long id = 1; id <= count; id++) {
+            Student found = table.find(new Student(id, null));
+            assertEquals(name(id), found == null ? null : found.getLastName(),
+             "ID " + id);
+        }
+        assertNull(table.find(new Student(count + 1, null)));
+    }
+
+    //copies the table's files as they are right now, like a crash would
+    //leave them
+    private Path crashCopy() throws IOException {
+        Path copy = Files.createDirectory(elsewhere.resolve("crash"));
+        for(String file : new String[] {"checkpoint", "log"}) {
+            if(Files.exists(directory.resolve(file))) {
+                Files.copy(directory.resolve(file), copy.resolve(file));
+            }
+        }
+        return copy;
+    }
+
+    //the generation a checkpoint or log file was written for
+    private static long generationOf(Path file) throws IOException {
+        try(DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            in.readInt();
+            in.readInt();
+            return in.readLong();
+        }
+    }
+
+    private static void overwriteByte(Path file, long position, int value)
+     throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(position);
+            raf.write(value);
+        }
+    }
+
+    @Test
+    void replaysTheLogOnOpen() throws IOException {
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            insertAll(table, 50);
+            for(long id = 2; id <= 50; id += 2) {
+                assertTrue(table.delete(new Student(id, null)));
+            }
+            //a duplicate and a missing delete aren't changes, so they
+            //aren't logged
+            assertFalse(table.insert(new Student(1, "Other")));
+            assertFalse(table.delete(new Student(2, null)));
+        }
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertEquals(25, table.elementCount());
+            for(long id = 1; id <= 50; id++) {
+                Student found = table.find(new Student(id, null));
+                if(id % 2 == 0) {
+                    assertNull(found);
+                } else {
+                    assertEquals(name(id), found.getLastName());
+                }
+            }
+            table.makeEmpty();
+            table.insert(new Student(7, null));
+        }
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertEquals(1, table.elementCount());
+            assertNull(table.find(new Student(7, null)).getLastName());
+        }
+    }
+
+    @Test
+    void changesAreInTheLogBeforeTheyReturn() throws IOException {
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            table.setFsyncPolicy(DurableHashTable.FsyncPolicy.NEVER);
+            insertAll(table, 30);
+            //not closed or synced, as if the process were killed here
+            try(DurableHashTable recovered = DurableHashTable.open(crashCopy())) {
+                assertHolds(recovered, 30);
+            }
+        }
+    }
+
+    @Test
+    void tornTailIsCutOffAndAppendedPast() throws IOException {
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            insertAll(table, 10);
+        }
+        Path log = directory.resolve("log");
+        long size = Files.size(log);
+        assertEquals(LOG_HEADER_SIZE + 10 * INSERT_RECORD_SIZE, size);
+        //tear the last record partway through its payload
+        try(RandomAccessFile raf = new RandomAccessFile(log.toFile(), "rw")) {
+            raf.setLength(size - 5);
+        }
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertHolds(table, 9);
+            assertEquals(LOG_HEADER_SIZE + 9 * INSERT_RECORD_SIZE, Files.size(log));
+            assertTrue(table.insert(new Student(10, name(10))));
+            assertTrue(table.insert(new Student(11, name(11))));
+        }
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertHolds(table, 11);
+        }
+    }
+
+    @Test
+    void corruptRecordEndsReplay() throws IOException {
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            insertAll(table, 10);
+        }
+        Path log = directory.resolve("log");
+        //flip a byte of the ID in record 6, so its CRC doesn't match.
+        //everything after it is dropped too, since it can't be trusted.
+        long record = LOG_HEADER_SIZE + 6L * INSERT_RECORD_SIZE;
+        overwriteByte(log, record + 8 + 8, 0x5A);
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertHolds(table, 6);
+            assertEquals(record, Files.size(log));
+        }
+    }
+
+    @Test
+    void corruptLengthEndsReplay() throws IOException {
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            insertAll(table, 10);
+        }
+        Path log = directory.resolve("log");
+        //a length far past the largest record
+        long record = LOG_HEADER_SIZE + 3L * INSERT_RECORD_SIZE;
+        overwriteByte(log, record, 0x7F);
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertHolds(table, 3);
+            assertEquals(record, Files.size(log));
+        }
+    }
+
+    @Test
+    void checkpointStartsTheNextGeneration() throws IOException {
+        Path checkpoint = directory.resolve("checkpoint");
+        Path log = directory.resolve("log");
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            insertAll(table, 20);
+            assertFalse(Files.exists(checkpoint));
+            assertEquals(0, generationOf(log));
+
+            table.checkpoint();
+            assertEquals(1, generationOf(checkpoint));
+            assertEquals(1, generationOf(log));
+            assertEquals(LOG_HEADER_SIZE, Files.size(log));
+
+            for(long id = 21; id <= 30; id++) {
+                table.insert(new Student(id, name(id)));
+            }
+            table.checkpoint();
+            assertEquals(2, generationOf(checkpoint));
+            assertEquals(2, generationOf(log));
+            table.insert(new Student(31, name(31)));
+        }
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertHolds(table, 31);
+        }
+    }
+
+    @Test
+    void logFromAnEarlierGenerationIsNotReplayed() throws IOException {
+        Path log = directory.resolve("log");
+        Path saved = elsewhere.resolve("log");
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            table.insert(new Student(1, name(1)));
+            Files.copy(log, saved);
+            table.delete(new Student(1, null));
+            table.checkpoint();
+        }
+        //as if we crashed after the checkpoint was renamed into place, but
+        //before its log was. replaying would bring back student 1.
+        Files.copy(saved, log, StandardCopyOption.REPLACE_EXISTING);
+        assertEquals(0, generationOf(log));
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertTrue(table.isEmpty());
+            assertEquals(1, generationOf(log));
+            assertEquals(LOG_HEADER_SIZE, Files.size(log));
+            table.insert(new Student(2, name(2)));
+        }
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertEquals(1, table.elementCount());
+            assertEquals(name(2), table.find(new Student(2, null)).getLastName());
+        }
+    }
+
+    @Test
+    void leftoverTemporaryFilesAreIgnored() throws IOException {
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            insertAll(table, 5);
+            table.checkpoint();
+            table.insert(new Student(6, name(6)));
+        }
+        //a crash partway through writing the next checkpoint and log
+        Files.write(directory.resolve("checkpoint.tmp"), new byte[] {1, 2, 3});
+        Files.write(directory.resolve("log.tmp"), new byte[] {4, 5});
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertHolds(table, 6);
+        }
+        assertFalse(Files.exists(directory.resolve("checkpoint.tmp")));
+        assertFalse(Files.exists(directory.resolve("log.tmp")));
+    }
+
+    @Test
+    void automaticCheckpointsKeepTheLogSmall() throws IOException {
+        Path log = directory.resolve("log");
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            table.setFsyncPolicy(DurableHashTable.FsyncPolicy.NEVER);
+            table.setCheckpointThreshold(20 * INSERT_RECORD_SIZE);
+            insertAll(table, 500);
+            assertTrue(Files.size(log) < LOG_HEADER_SIZE + 20 * INSERT_RECORD_SIZE);
+            assertTrue(generationOf(directory.resolve("checkpoint")) >= 20);
+        }
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertHolds(table, 500);
+        }
+    }
+
+    @Test
+    void corruptCheckpointIsRefused() throws IOException {
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            insertAll(table, 10);
+            table.checkpoint();
+        }
+        Path checkpoint = directory.resolve("checkpoint");
+        byte[] good = Files.readAllBytes(checkpoint);
+        //a byte of the first student's ID, after the 20 byte header
+        overwriteByte(checkpoint, 20 + 3, 0x5A);
+        IOException corrupt = assertThrows(IOException.class,
+         () -> DurableHashTable.open(directory));
+        assertTrue(corrupt.getMessage().contains("corrupt"), corrupt.getMessage());
+
+        Files.write(checkpoint, Arrays.copyOf(good, good.length - 10));
+        IOException truncated = assertThrows(IOException.class,
+         () -> DurableHashTable.open(directory));
+        assertTrue(truncated.getMessage().contains("truncated"), truncated.getMessage());
+    }
+
+    @Test
+    void createWritesTheInitialTableAsACheckpoint() throws IOException {
+        HashTable<Student> initial = new HashTable<Student>(16);
+        for(long id = 1; id <= 40; id++) {
+            initial.insert(new Student(id, name(id)));
+        }
+        try(DurableHashTable table = DurableHashTable.create(directory, initial)) {
+            assertTrue(DurableHashTable.exists(directory));
+            assertEquals(LOG_HEADER_SIZE, Files.size(directory.resolve("log")));
+            assertEquals(1, generationOf(directory.resolve("checkpoint")));
+        }
+        assertThrows(IOException.class,
+         () -> DurableHashTable.create(directory, new HashTable<Student>(16)));
+        try(DurableHashTable table = DurableHashTable.open(directory)) {
+            assertHolds(table, 40);
+        }
+    }
+
+    @Test
+    void closedTableRefusesChanges() throws IOException {
+        DurableHashTable table = DurableHashTable.open(directory);
+        table.close();
+        assertThrows(IOException.class, () -> table.insert(new Student(1, "A")));
+        assertThrows(IOException.class, () -> table.delete(new Student(1, null)));
+        assertThrows(IOException.class, table::makeEmpty);
+    }
+}
@@ -0,0 +1,249 @@
+package hashtable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Daniel Johnson, Jonathon Elfar
+ * Tests for HashTable's incremental resize: every operation has to look in
+ * both arrays while cells are being moved, skip the MOVED cells left
+ * behind, and never bring back or duplicate an element that was deleted
+ * or inserted before its cell was moved.
+ */
+class HashTableTest {
+
+    //a key whose hash codes come in runs of 8, so probe chains are long
+    //enough to run through cells that have already been moved
+    private static final class Key {
+        final int id;
+        Key(int id) {
+            this.id = id;
+        }
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key)other).id == id;
+        }
+        @Override
+        public int hashCode() {
+            return id / 8;
+        }
+        @Override
+        public String toString() {
+            return "Key " + id;
+        }
+    }
+
+    @Test
+    void randomOperationsMatchAHashMapWhileResizing() throws Exception {
+        HashTable<Key> table = new HashTable<Key>(16);
+        table.setIncrementalResize(true);
+        Map<Integer, Key> reference = new HashMap<Integer, Key>();
+        Random random = new Random(42);
+        int keySpace = 4000;
+        int resizes = 0;
+        boolean wasResizing = false;
+        for(int op = 0; op < 200000; op++) {
+            int id = random.nextInt(keySpace);
+            int kind = random.nextInt(10);
+            if(kind < 5) {
+                Key key = new Key(id);
+                boolean expected = !reference.containsKey(id);
+                if(expected) reference.put(id, key);
+                assertEquals(expected, table.insert(key), "insert " + id);
+            } else if(kind < 8) {
+                boolean expected = reference.remove(id) != null;
+                assertEquals(expected, table.delete(new Key(id)), "delete " + id);
+            } else {
+                //the element itself, not just an equal one, must come back
+                assertEquals(reference.get(id) != null, table.find(new Key(id)) != null);
+                if(reference.containsKey(id)) {
+                    assertTrue(reference.get(id) == table.find(new Key(id)));
+                }
+            }
+            assertEquals(reference.size(), table.elementCount());
+            boolean isResizing = resizing(table);
+            if(isResizing && !wasResizing) {
+                resizes++;
+                //check every key just after a resize starts, while most
+                //cells are still in the old array. each find moves a few.
+                for(int i = 0; i < keySpace; i++) {
+                    assertEquals(reference.get(i), table.find(new Key(i)),
+                     "find " + i);
+                }
+            }
+            wasResizing = isResizing;
+        }
+        assertTrue(resizes > 5, "only " + resizes + " resizes");
+        assertEquals(reference.size(), countByIterating(table));
+    }
+
+    @Test
+    void findsElementsNotMovedYet() throws Exception {
+        HashTable<Student> table = new HashTable<Student>(16);
+        table.setIncrementalResize(true);
+        long id = 0;
+        while(!resizing(table)) {
+            table.insert(new Student(++id, "Name" + id));
+        }
+        //cells are moved from the start of the old array, so look for the
+        //last ones inserted first, while they're still there
+        for(long i = id; i >= 1; i--) {
+            Student found = table.find(new Student(i, ""));
+            assertNotNull(found, "lost " + i);
+            assertEquals("Name" + i, found.getLastName());
+        }
+        assertNull(table.find(new Student(id + 1, "")));
+        assertEquals(id, table.elementCount());
+    }
+
+    @Test
+    void insertOfAnElementNotMovedYetIsADuplicate() throws Exception {
+        HashTable<Student> table = new HashTable<Student>(16);
+        table.setIncrementalResize(true);
+        long id = 0;
+        while(!resizing(table)) {
+            table.insert(new Student(++id, "Old"));
+        }
+        long count = id;
+        //the last ones inserted are the furthest from being moved
+        for(long i = count; i >= 1; i--) {
+            assertFalse(table.insert(new Student(i, "New")), "inserted " + i + " twice");
+        }
+        assertEquals(count, table.elementCount());
+        table.setIncrementalResize(false);
+        assertFalse(resizing(table));
+        Set<Long> ids = new HashSet<Long>();
+        for(Student student : table) {
+            assertTrue(ids.add(student.getId()), "iterated twice: " + student);
+            assertEquals("Old", student.getLastName());
+        }
+        assertEquals(count, ids.size());
+    }
+
+    @Test
+    void elementsDeletedBeforeTheyMoveStayDeleted() throws Exception {
+        HashTable<Key> table = new HashTable<Key>(16);
+        table.setIncrementalResize(true);
+        int id = 0;
+        while(!resizing(table)) {
+            table.insert(new Key(++id));
+        }
+        int count = id;
+        for(int i = count; i >= 1; i -= 2) {
+            assertTrue(table.delete(new Key(i)), "couldn't delete " + i);
+            assertFalse(table.delete(new Key(i)), "deleted " + i + " twice");
+        }
+        //finish moving, which must skip the deleted cells
+        table.setIncrementalResize(false);
+        assertFalse(resizing(table));
+        for(int i = 1; i <= count; i++) {
+            assertEquals(i % 2 != count % 2, table.find(new Key(i)) != null, "find " + i);
+        }
+        assertEquals(count / 2, table.elementCount());
+        assertEquals(count / 2, countByIterating(table));
+    }
+
+    @Test
+    void reinsertingADeletedElementNotMovedYetKeepsOneCopy() throws Exception {
+        HashTable<Student> table = new HashTable<Student>(16);
+        table.setIncrementalResize(true);
+        long id = 0;
+        while(!resizing(table)) {
+            table.insert(new Student(++id, "Old"));
+        }
+        long count = id;
+        for(long i = count; i >= 1; i--) {
+            assertTrue(table.delete(new Student(i, "")));
+            assertTrue(table.insert(new Student(i, "New")));
+        }
+        assertEquals(count, table.elementCount());
+        table.setIncrementalResize(false);
+        Set<Long> ids = new HashSet<Long>();
+        for(Student student : table) {
+            assertTrue(ids.add(student.getId()), "iterated twice: " + student);
+            assertEquals("New", student.getLastName());
+        }
+        assertEquals(count, ids.size());
+    }
+
+    @Test
+    void compactingIsIncrementalToo() throws Exception {
+        HashTable<Key> table = new HashTable<Key>(400);
+        table.setIncrementalResize(true);
+        for(int i = 1; i <= 400; i++) {
+            table.insert(new Key(i));
+        }
+        //delete until enough deleted cells pile up to compact
+        int deleted = 0;
+        while(!resizing(table)) {
+            assertTrue(table.delete(new Key(++deleted)));
+        }
+        for(int i = 1; i <= 400; i++) {
+            assertEquals(i > deleted, table.find(new Key(i)) != null, "find " + i);
+        }
+        assertEquals(400 - deleted, table.elementCount());
+    }
+
+    @Test
+    void batchOperationsAndIteratorsFinishTheResize() throws Exception {
+        HashTable<Student> table = new HashTable<Student>(16);
+        table.setIncrementalResize(true);
+        long id = 0;
+        while(!resizing(table)) {
+            table.insert(new Student(++id, "Name"));
+        }
+        Object[] keys = new Object[(int)id + 1];
+        for(int i = 0; i < keys.length; i++) {
+            keys[i] = new Student(i + 1, "");
+        }
+        Student[] found = new Student[keys.length];
+        assertEquals(id, table.findAll(keys, found));
+        assertFalse(resizing(table));
+        assertNull(found[keys.length - 1]);
+
+        while(!resizing(table)) {
+            table.insert(new Student(++id, "Name"));
+        }
+        assertEquals(id, countByIterating(table));
+        assertFalse(resizing(table));
+
+        while(!resizing(table)) {
+            table.insert(new Student(++id, "Name"));
+        }
+        Object[] all = new Object[(int)id];
+        for(int i = 0; i < all.length; i++) {
+            all[i] = new Student(i + 1, "");
+        }
+        assertEquals(id, table.deleteAll(all));
+        assertTrue(table.isEmpty());
+    }
+
+    //whether table is partway through an incremental resize. oldTable is
+    //private, so tests reach it by reflection.
+    private static boolean resizing(HashTable<?> table) throws Exception {
+        Field field = HashTable.class.getDeclaredField("oldTable");
+        field.setAccessible(true);
+        return field.get(table) != null;
+    }
+
+    private static int countByIterating(HashTable<?> table) {
+        int count = 0;
+        for(Object element : table) {
+            assertNotNull(element);
+            count++;
+        }
+        return count;
+    }
+}